@@ -1,5 +1,6 @@
 package com.example.diagnosticservice.config;
 
+import com.example.diagnosticservice.service.CircuitBreakerEventAggregator;
 import com.example.diagnosticservice.service.DatabaseLoggingService;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
@@ -46,6 +47,9 @@ public class CircuitBreakerConfiguration {
                 .permittedNumberOfCallsInHalfOpenState(permittedNumberOfCallsInHalfOpenState)
                 .slowCallRateThreshold(slowCallRateThreshold)
                 .slowCallDurationThreshold(slowCallDurationThreshold)
+                // FailedProjectionFlowControl pauses the only caller while OPEN, so no call would ever
+                // ask for the permission that moves the breaker to HALF_OPEN
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
                 .recordExceptions(Exception.class)
                 .ignoreExceptions(IllegalArgumentException.class) // Don't count validation errors as failures
                 .build();
@@ -61,7 +65,8 @@ public class CircuitBreakerConfiguration {
 
     @Bean
     public CircuitBreaker diagnosticServiceCircuitBreaker(CircuitBreakerRegistry circuitBreakerRegistry,
-                                                         DatabaseLoggingService databaseLoggingService) {
+                                                         DatabaseLoggingService databaseLoggingService,
+                                                         CircuitBreakerEventAggregator eventAggregator) {
         CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker("diagnosticService");
         
         // Add event listeners for monitoring
@@ -71,7 +76,7 @@ public class CircuitBreakerConfiguration {
                             event.getStateTransition().getFromState(), 
                             event.getStateTransition().getToState());
                     
-                    // Log to database
+                    // Transitions are rare and matter for diagnosis, so they are logged to the database immediately
                     databaseLoggingService.logCircuitBreakerEvent(
                         "diagnosticService", "STATE_TRANSITION",
                         event.getStateTransition().getFromState().name(),
@@ -82,39 +87,24 @@ public class CircuitBreakerConfiguration {
                             event.getStateTransition().getToState())
                     );
                 })
+                // High-frequency events are coalesced into one row per second instead of one INSERT each
                 .onFailureRateExceeded(event -> {
                     log.warn("Circuit Breaker failure rate exceeded: {}%", event.getFailureRate());
-                    
-                    // Log to database
-                    databaseLoggingService.logCircuitBreakerEvent(
-                        "diagnosticService", "FAILURE_RATE_EXCEEDED",
-                        null, null, (double) event.getFailureRate(), null,
-                        null, null, null,
-                        String.format("Failure rate exceeded: %.2f%%", event.getFailureRate())
-                    );
+                    eventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.FAILURE_RATE_EXCEEDED,
+                            event.getFailureRate());
                 })
                 .onSlowCallRateExceeded(event -> {
                     log.warn("Circuit Breaker slow call rate exceeded: {}%", event.getSlowCallRate());
-                    
-                    // Log to database
-                    databaseLoggingService.logCircuitBreakerEvent(
-                        "diagnosticService", "SLOW_CALL_RATE_EXCEEDED",
-                        null, null, null, (double) event.getSlowCallRate(),
-                        null, null, null,
-                        String.format("Slow call rate exceeded: %.2f%%", event.getSlowCallRate())
-                    );
+                    eventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.SLOW_CALL_RATE_EXCEEDED,
+                            event.getSlowCallRate());
                 })
                 .onCallNotPermitted(event -> {
-                    log.warn("Circuit Breaker call not permitted - circuit is OPEN");
-                    
-                    // Log to database
-                    databaseLoggingService.logCircuitBreakerEvent(
-                        "diagnosticService", "CALL_NOT_PERMITTED",
-                        null, null, null, null,
-                        null, null, null,
-                        "Call not permitted - circuit is OPEN"
-                    );
-                });
+                    log.debug("Circuit Breaker call not permitted - circuit is OPEN");
+                    eventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED, null);
+                })
+                // Failed and slow calls are counted per second for the failure_count/slow_call_count columns
+                .onError(event -> eventAggregator.recordCall(circuitBreaker, event.getElapsedDuration(), true))
+                .onSuccess(event -> eventAggregator.recordCall(circuitBreaker, event.getElapsedDuration(), false));
 
         return circuitBreaker;
     }
@@ -0,0 +1,72 @@
+package com.example.diagnosticservice.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Configuration properties for the database logging sampling policy.
+ * Maps to the 'diagnostic.service.logging-policy' section in application.yml
+ */
+@Component
+@ConfigurationProperties(prefix = "diagnostic.service.logging-policy")
+public class LoggingPolicyProperties {
+
+    private boolean enabled = false;
+
+    // Fraction of messages logged per processing status, for all topics; unlisted statuses are logged in full
+    private Map<String, Double> sampleRates = new HashMap<>(Map.of("SUCCESS", 1.0));
+
+    // Per-topic overrides of sampleRates, keyed by topic and then status
+    private Map<String, Map<String, Double>> topics = new HashMap<>();
+
+    // Statuses that are always logged in full, whatever the sample rates say
+    private Set<String> alwaysLogStatuses = new HashSet<>(Set.of("FAILED", "CIRCUIT_BREAKER_OPEN", "RETRY", "DLQ"));
+
+    // Whether sampled rows of a sampled status are written without their payload
+    private boolean dropSampledPayloads = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Map<String, Double> getSampleRates() {
+        return sampleRates;
+    }
+
+    public void setSampleRates(Map<String, Double> sampleRates) {
+        this.sampleRates = sampleRates;
+    }
+
+    public Map<String, Map<String, Double>> getTopics() {
+        return topics;
+    }
+
+    public void setTopics(Map<String, Map<String, Double>> topics) {
+        this.topics = topics;
+    }
+
+    public Set<String> getAlwaysLogStatuses() {
+        return alwaysLogStatuses;
+    }
+
+    public void setAlwaysLogStatuses(Set<String> alwaysLogStatuses) {
+        this.alwaysLogStatuses = alwaysLogStatuses;
+    }
+
+    public boolean isDropSampledPayloads() {
+        return dropSampledPayloads;
+    }
+
+    public void setDropSampledPayloads(boolean dropSampledPayloads) {
+        this.dropSampledPayloads = dropSampledPayloads;
+    }
+}
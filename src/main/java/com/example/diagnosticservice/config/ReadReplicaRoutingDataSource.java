@@ -0,0 +1,77 @@
+package com.example.diagnosticservice.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Sends read-only transactions to the read replica and everything else to the primary.
+ * If the replica cannot hand out a connection, the primary is used instead and the replica
+ * is not tried again until the retry interval has passed.
+ * Must be wrapped in a LazyConnectionDataSourceProxy so the connection is fetched after the
+ * transaction's read-only flag is known.
+ */
+@Slf4j
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+    static final String REPLICA = "replica";
+
+    private final DataSource primary;
+    private final long retryAfterMillis;
+
+    private volatile long replicaDownUntil;
+
+    public ReadReplicaRoutingDataSource(DataSource primary, DataSource replica, Duration retryAfter) {
+        this.primary = primary;
+        this.retryAfterMillis = retryAfter.toMillis();
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && isReplicaAvailable()) {
+            return REPLICA;
+        }
+        return PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        try {
+            return super.getConnection();
+        } catch (SQLException e) {
+            return fallBackToPrimary(e);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        try {
+            return super.getConnection(username, password);
+        } catch (SQLException e) {
+            return fallBackToPrimary(e);
+        }
+    }
+
+    boolean isReplicaAvailable() {
+        return System.currentTimeMillis() >= replicaDownUntil;
+    }
+
+    private Connection fallBackToPrimary(SQLException e) throws SQLException {
+        if (!REPLICA.equals(determineCurrentLookupKey())) {
+            throw e;
+        }
+        replicaDownUntil = System.currentTimeMillis() + retryAfterMillis;
+        log.warn("Read replica unavailable, routing reads to the primary for {}ms: {}", retryAfterMillis, e.getMessage());
+        return primary.getConnection();
+    }
+}
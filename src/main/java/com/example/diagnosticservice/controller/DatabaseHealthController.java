@@ -5,11 +5,16 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -79,4 +84,58 @@ public class DatabaseHealthController {
             return ResponseEntity.status(500).body(response);
         }
     }
+    
+    @GetMapping("/write-behind")
+    public ResponseEntity<Map<String, Object>> getWriteBehindStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("writeBehind", databaseLoggingService.getWriteBehindStats());
+        response.put("pendingLifecycleMessages", databaseLoggingService.getPendingLifecycleCount());
+        response.put("timestamp", Instant.now().toString());
+        return ResponseEntity.ok(response);
+    }
+    
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats(@RequestParam(defaultValue = "60") int minutes) {
+        Instant since = Instant.now().minus(minutes, ChronoUnit.MINUTES);
+        Map<String, Object> response = new HashMap<>();
+        response.put("minutes", minutes);
+        response.put("processingStatus", toCounts(databaseLoggingService.getProcessingStatusStats(since)));
+        response.put("errorCategories", toCounts(databaseLoggingService.getErrorCategoryStats(since)));
+        response.put("retryStatus", toCounts(databaseLoggingService.getRetryStatusStats(since)));
+        response.put("deadLetterErrorCategories", toCounts(databaseLoggingService.getDeadLetterErrorCategoryStats(since)));
+        response.put("timestamp", Instant.now().toString());
+        return ResponseEntity.ok(response);
+    }
+    
+    private Map<String, Object> toCounts(List<Object[]> rows) {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            counts.put(row[0] != null ? row[0].toString() : "NONE", row[1]);
+        }
+        return counts;
+    }
+    
+    @GetMapping("/messages/{messageId}/history")
+    public ResponseEntity<Map<String, Object>> getMessageHistory(@PathVariable String messageId) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("messageId", messageId);
+        response.put("messageLogs", databaseLoggingService.getMessageHistory(messageId));
+        response.put("retryAttempts", databaseLoggingService.getRetryHistory(messageId));
+        response.put("deadLetterMessages", databaseLoggingService.getDeadLetterHistory(messageId));
+        response.put("timestamp", Instant.now().toString());
+        return ResponseEntity.ok(response);
+    }
+    
+    @GetMapping("/payloads/{payloadHash}")
+    public ResponseEntity<Map<String, Object>> getPayload(@PathVariable String payloadHash) {
+        String payload = databaseLoggingService.getPayload(payloadHash);
+        if (payload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("payloadHash", payloadHash);
+        response.put("payload", payload);
+        response.put("timestamp", Instant.now().toString());
+        return ResponseEntity.ok(response);
+    }
 }
@@ -2,8 +2,10 @@ package com.example.diagnosticservice.controller;
 
 import com.example.diagnosticservice.entity.PacketProcessingSession;
 import com.example.diagnosticservice.service.DiagnosticService;
+import com.example.diagnosticservice.service.LatencyRecorder;
 import com.example.diagnosticservice.service.MessageAttemptTracker;
 import com.example.diagnosticservice.service.PacketProcessingService;
+import com.example.diagnosticservice.service.PaginationStrategy;
 import com.example.diagnosticservice.service.RetryService;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
@@ -27,17 +29,20 @@ public class DiagnosticController {
     private final RetryService retryService;
     private final CircuitBreakerRegistry circuitBreakerRegistry;
     private final PacketProcessingService packetProcessingService;
+    private final LatencyRecorder latencyRecorder;
 
     public DiagnosticController(DiagnosticService diagnosticService,
                               MessageAttemptTracker attemptTracker,
                               RetryService retryService,
                               CircuitBreakerRegistry circuitBreakerRegistry,
-                              PacketProcessingService packetProcessingService) {
+                              PacketProcessingService packetProcessingService,
+                              LatencyRecorder latencyRecorder) {
         this.diagnosticService = diagnosticService;
         this.attemptTracker = attemptTracker;
         this.retryService = retryService;
         this.circuitBreakerRegistry = circuitBreakerRegistry;
         this.packetProcessingService = packetProcessingService;
+        this.latencyRecorder = latencyRecorder;
     }
 
     @GetMapping("/health")
@@ -137,12 +142,21 @@ public class DiagnosticController {
         metrics.put("numberOfFailedCalls", circuitBreaker.getMetrics().getNumberOfFailedCalls());
         metrics.put("numberOfSuccessfulCalls", circuitBreaker.getMetrics().getNumberOfSuccessfulCalls());
         metrics.put("numberOfNotPermittedCalls", circuitBreaker.getMetrics().getNumberOfNotPermittedCalls());
-        // Note: getAverageResponseTime() is not available in CircuitBreaker.Metrics
-        // metrics.put("averageResponseTime", circuitBreaker.getMetrics().getAverageResponseTime());
+        // CircuitBreaker.Metrics has no response times; the latest second of the latency histogram stands in
+        metrics.put("latestLatency", latencyRecorder.getLatest(LatencyRecorder.CIRCUIT_BREAKER_CALL));
         
         return ResponseEntity.ok(metrics);
     }
 
+    /**
+     * Per-second p50/p95/p99/max latency, throughput and failure rate of circuit breaker calls and
+     * Kafka handlers over the last hour. The response is shared and rebuilt at most once per second
+     */
+    @GetMapping("/latency")
+    public ResponseEntity<Map<String, Object>> getLatencyHistory() {
+        return ResponseEntity.ok(latencyRecorder.getView());
+    }
+
     @GetMapping("/database/stats")
     public ResponseEntity<Map<String, Object>> getDatabaseStats() {
         log.debug("Database stats requested");
@@ -205,6 +219,9 @@ public class DiagnosticController {
             @RequestParam(defaultValue = "10") int packetSize,
             @RequestParam(required = false) String activityType,
             @RequestParam(required = false) String activityStatus,
+            @RequestParam(required = false) Integer recordParallelism,
+            @RequestParam(required = false) PaginationStrategy paginationStrategy,
+            @RequestParam(required = false) Integer shards,
             @RequestHeader Map<String, String> headers) {
         
         log.info("Starting packet processing for activity {} on {} for endpoint: {} with packet size: {}", 
@@ -213,7 +230,8 @@ public class DiagnosticController {
         try {
             java.time.LocalDate appDate = java.time.LocalDate.parse(applicationDate);
             String processingId = packetProcessingService.startPacketProcessing(
-                endpointUrl, packetSize, headers, activityId, appDate, activityType, activityStatus);
+                endpointUrl, packetSize, headers, activityId, appDate, activityType, activityStatus, recordParallelism,
+                paginationStrategy, shards);
             
             Map<String, Object> response = new HashMap<>();
             response.put("processingId", processingId);
@@ -223,6 +241,9 @@ public class DiagnosticController {
             response.put("activityStatus", activityStatus);
             response.put("endpointUrl", endpointUrl);
             response.put("packetSize", packetSize);
+            response.put("recordParallelism", recordParallelism);
+            response.put("paginationStrategy", paginationStrategy);
+            response.put("shards", shards);
             response.put("status", "STARTED");
             response.put("timestamp", java.time.Instant.now());
             
@@ -287,6 +308,10 @@ public class DiagnosticController {
                 response.put("processedRecords", sessionData.getProcessedRecords());
                 response.put("failedRecords", sessionData.getFailedRecords());
                 response.put("currentOffset", sessionData.getCurrentOffset());
+                response.put("sharded", sessionData.getSharded());
+                response.put("shardCount", sessionData.getShardCount());
+                response.put("leaseOwner", sessionData.getLeaseOwner());
+                response.put("leaseExpiresAt", sessionData.getLeaseExpiresAt());
                 response.put("status", sessionData.getStatus());
                 response.put("errorMessage", sessionData.getErrorMessage());
                 response.put("errorCategory", sessionData.getErrorCategory());
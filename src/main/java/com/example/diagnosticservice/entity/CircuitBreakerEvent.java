@@ -25,7 +25,8 @@ import java.time.Instant;
 public class CircuitBreakerEvent {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "circuit_breaker_events_id_seq")
+    @SequenceGenerator(name = "circuit_breaker_events_id_seq", sequenceName = "circuit_breaker_events_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 100)
@@ -25,7 +25,8 @@ import java.time.Instant;
 public class DeadLetterMessage {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "dead_letter_messages_id_seq")
+    @SequenceGenerator(name = "dead_letter_messages_id_seq", sequenceName = "dead_letter_messages_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 255)
@@ -34,6 +35,9 @@ public class DeadLetterMessage {
     @Column(columnDefinition = "TEXT")
     private String originalMessage;
     
+    @Column(length = 64)
+    private String payloadHash; // set instead of originalMessage when the body is kept in payloads
+    
     @Column(columnDefinition = "TEXT")
     private String failureReason;
     
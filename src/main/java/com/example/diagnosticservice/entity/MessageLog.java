@@ -27,7 +27,8 @@ import java.time.Instant;
 public class MessageLog {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "message_logs_id_seq")
+    @SequenceGenerator(name = "message_logs_id_seq", sequenceName = "message_logs_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 255)
@@ -48,6 +49,9 @@ public class MessageLog {
     @Column(columnDefinition = "TEXT")
     private String originalMessage;
     
+    @Column(length = 64)
+    private String payloadHash; // set instead of originalMessage when the body is kept in payloads
+    
     @Column(columnDefinition = "TEXT")
     private String errorMessage;
     
@@ -94,4 +98,8 @@ public class MessageLog {
     
     @Column
     private Instant dlqSentAt;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private boolean lifecycleRow = false; // true for the single row written per message in lifecycle mode
 }
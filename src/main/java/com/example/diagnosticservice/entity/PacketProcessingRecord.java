@@ -28,7 +28,8 @@ import java.time.Instant;
 public class PacketProcessingRecord {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "packet_processing_records_id_seq")
+    @SequenceGenerator(name = "packet_processing_records_id_seq", sequenceName = "packet_processing_records_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 255)
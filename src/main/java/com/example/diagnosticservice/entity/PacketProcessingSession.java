@@ -31,7 +31,8 @@ import java.time.Instant;
 public class PacketProcessingSession {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "packet_processing_sessions_id_seq")
+    @SequenceGenerator(name = "packet_processing_sessions_id_seq", sequenceName = "packet_processing_sessions_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 255)
@@ -52,6 +53,9 @@ public class PacketProcessingSession {
     @Column(nullable = false)
     private Integer packetSize;
     
+    @Column
+    private Integer currentPacketSize; // last fetch limit chosen by adaptive packet sizing
+    
     @Column(nullable = false)
     private Integer totalRecords;
     
@@ -64,8 +68,14 @@ public class PacketProcessingSession {
     @Column(nullable = false)
     private Integer currentOffset;
     
+    @Column(columnDefinition = "TEXT")
+    private String currentCursor; // continuation token of the next packet with CURSOR pagination
+    
+    @Column
+    private Integer packetsProcessed;
+    
     @Column(length = 50)
-    private String status; // ACTIVE, COMPLETED, FAILED, PAUSED, CANCELLED
+    private String status; // ACTIVE, BACKOFF, COMPLETED, FAILED, PAUSED, CANCELLED
     
     @Column(columnDefinition = "TEXT")
     private String errorMessage;
@@ -122,4 +132,25 @@ public class PacketProcessingSession {
     
     @Column
     private Instant cancelledAt;
+    
+    @Column
+    private Instant backoffUntil;
+    
+    @Column
+    private Integer recordParallelism; // null uses packet.processing.record-parallelism.default
+    
+    @Column(length = 20)
+    private String paginationStrategy; // OFFSET, NEXT_OFFSET, CURSOR; null uses packet.processing.pagination.default-strategy
+    
+    @Column
+    private Integer shardCount; // null uses packet.processing.sharding.default-shards
+    
+    @Column(nullable = false)
+    private Boolean sharded; // true once the remaining range was split into PacketProcessingShards
+    
+    @Column(length = 255)
+    private String leaseOwner; // instance processing the session
+    
+    @Column
+    private Instant leaseExpiresAt;
 }
@@ -0,0 +1,72 @@
+package com.example.diagnosticservice.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Entity for one offset range of a sharded packet processing session
+ */
+@Entity
+@Table(name = "packet_processing_shards",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"activityId", "applicationDate", "shardIndex"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PacketProcessingShard {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "packet_processing_shards_id_seq")
+    @SequenceGenerator(name = "packet_processing_shards_id_seq", sequenceName = "packet_processing_shards_id_seq", allocationSize = 50)
+    private Long id;
+    
+    @Column(nullable = false, length = 255)
+    private String activityId;
+    
+    @Column(nullable = false)
+    private java.time.LocalDate applicationDate;
+    
+    @Column(nullable = false)
+    private Integer shardIndex;
+    
+    @Column(nullable = false)
+    private Integer startOffset;
+    
+    @Column(nullable = false)
+    private Integer endOffset; // exclusive
+    
+    @Column(nullable = false)
+    private Integer currentOffset;
+    
+    @Column(nullable = false)
+    private Integer firstPacketNumber;
+    
+    @Column(nullable = false, length = 50)
+    private String status; // ACTIVE, COMPLETED, FAILED
+    
+    @Column(nullable = false)
+    private Integer packetsProcessed;
+    
+    @Column(nullable = false)
+    private Integer processedRecords;
+    
+    @Column(nullable = false)
+    private Integer failedRecords;
+    
+    @Column(columnDefinition = "TEXT")
+    private String errorMessage;
+    
+    @Column(nullable = false)
+    private Instant createdAt;
+    
+    @Column(nullable = false)
+    private Instant updatedAt;
+    
+    @Column
+    private Instant completedAt;
+}
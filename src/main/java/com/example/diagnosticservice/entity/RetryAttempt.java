@@ -25,7 +25,8 @@ import java.time.Instant;
 public class RetryAttempt {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "retry_attempts_id_seq")
+    @SequenceGenerator(name = "retry_attempts_id_seq", sequenceName = "retry_attempts_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false, length = 255)
@@ -52,6 +53,9 @@ public class RetryAttempt {
     @Column(columnDefinition = "TEXT")
     private String originalMessage;
     
+    @Column(length = 64)
+    private String payloadHash; // set instead of originalMessage when the body is kept in payloads
+    
     @Column(columnDefinition = "TEXT")
     private String retryMessage;
     
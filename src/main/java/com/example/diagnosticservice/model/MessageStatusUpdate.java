@@ -0,0 +1,25 @@
+package com.example.diagnosticservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Processing outcome for an already logged message, applied to message_logs by message ID
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageStatusUpdate {
+    private String messageId;
+    private String processingStatus;
+    private String errorCategory;
+    private String circuitBreakerState;
+    private Long processingTimeMs;
+    private String failureReason;
+    private Instant processedAt;
+}
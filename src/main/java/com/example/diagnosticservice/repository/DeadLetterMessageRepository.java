@@ -5,11 +5,13 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
 
 @Repository
+@Transactional(readOnly = true)
 public interface DeadLetterMessageRepository extends JpaRepository<DeadLetterMessage, Long> {
     
     List<DeadLetterMessage> findByMessageId(String messageId);
@@ -23,12 +25,18 @@ public interface DeadLetterMessageRepository extends JpaRepository<DeadLetterMes
     @Query("SELECT dlm FROM DeadLetterMessage dlm WHERE dlm.sourceTopic = :topic ORDER BY dlm.createdAt DESC")
     List<DeadLetterMessage> findBySourceTopic(@Param("topic") String topic);
     
-    @Query("SELECT dlm.errorCategory, COUNT(dlm) FROM DeadLetterMessage dlm WHERE dlm.createdAt >= :since GROUP BY dlm.errorCategory")
+    // Stats read the per-minute rollups maintained by LogRollupAggregator rather than scanning dead_letter_messages
+    @Query(value = "SELECT NULLIF(error_category, '') AS error_category, CAST(SUM(message_count) AS BIGINT) " +
+                   "FROM dead_letter_rollups WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) " +
+                   "GROUP BY error_category HAVING SUM(message_count) <> 0", nativeQuery = true)
     List<Object[]> getErrorCategoryStats(@Param("since") Instant since);
     
-    @Query("SELECT dlm.processingStatus, COUNT(dlm) FROM DeadLetterMessage dlm WHERE dlm.createdAt >= :since GROUP BY dlm.processingStatus")
+    @Query(value = "SELECT processing_status, CAST(SUM(message_count) AS BIGINT) FROM dead_letter_rollups " +
+                   "WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) GROUP BY processing_status HAVING SUM(message_count) <> 0", nativeQuery = true)
     List<Object[]> getProcessingStatusStats(@Param("since") Instant since);
     
-    @Query("SELECT dlm.sourceService, COUNT(dlm) FROM DeadLetterMessage dlm WHERE dlm.createdAt >= :since GROUP BY dlm.sourceService")
+    @Query(value = "SELECT NULLIF(source_service, '') AS source_service, CAST(SUM(message_count) AS BIGINT) " +
+                   "FROM dead_letter_rollups WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) " +
+                   "GROUP BY source_service HAVING SUM(message_count) <> 0", nativeQuery = true)
     List<Object[]> getSourceServiceStats(@Param("since") Instant since);
 }
@@ -4,19 +4,35 @@ import com.example.diagnosticservice.entity.MessageLog;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
+@Transactional(readOnly = true)
 public interface MessageLogRepository extends JpaRepository<MessageLog, Long> {
     
     Optional<MessageLog> findByMessageId(String messageId);
-    
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MessageLog ml SET ml.processingStatus = :status, ml.errorCategory = :errorCategory, " +
+           "ml.circuitBreakerState = :circuitBreakerState, ml.processingTimeMs = :processingTimeMs, " +
+           "ml.failureReason = :failureReason, ml.processedAt = :processedAt, ml.updatedAt = :processedAt " +
+           "WHERE ml.messageId = :messageId")
+    int updateProcessingStatus(@Param("messageId") String messageId, @Param("status") String status,
+                               @Param("errorCategory") String errorCategory,
+                               @Param("circuitBreakerState") String circuitBreakerState,
+                               @Param("processingTimeMs") Long processingTimeMs,
+                               @Param("failureReason") String failureReason,
+                               @Param("processedAt") Instant processedAt);
+
     List<MessageLog> findByTopicAndPartition(String topic, Integer partition);
     
     List<MessageLog> findByProcessingStatus(String processingStatus);
@@ -31,13 +47,19 @@ public interface MessageLogRepository extends JpaRepository<MessageLog, Long> {
     @Query("SELECT ml FROM MessageLog ml WHERE ml.topic = :topic AND ml.partition = :partition AND ml.offset >= :offset ORDER BY ml.offset ASC")
     List<MessageLog> findMessagesFromOffset(@Param("topic") String topic, @Param("partition") Integer partition, @Param("offset") Long offset);
     
-    @Query("SELECT COUNT(ml) FROM MessageLog ml WHERE ml.processingStatus = :status AND ml.createdAt >= :since")
+    // Stats read the per-minute rollups maintained by LogRollupAggregator rather than scanning message_logs,
+    // so they are accurate to the minute and include messages that were not logged because of sampling
+    @Query(value = "SELECT CAST(COALESCE(SUM(message_count), 0) AS BIGINT) FROM message_log_rollups " +
+                   "WHERE processing_status = :status AND bucket_start >= date_trunc('minute', CAST(:since AS timestamp))", nativeQuery = true)
     Long countByProcessingStatusSince(@Param("status") String status, @Param("since") Instant since);
     
-    @Query("SELECT ml.errorCategory, COUNT(ml) FROM MessageLog ml WHERE ml.createdAt >= :since GROUP BY ml.errorCategory")
+    @Query(value = "SELECT NULLIF(error_category, '') AS error_category, CAST(SUM(message_count) AS BIGINT) " +
+                   "FROM message_log_rollups WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) " +
+                   "GROUP BY error_category HAVING SUM(message_count) <> 0", nativeQuery = true)
     List<Object[]> getErrorCategoryStats(@Param("since") Instant since);
     
-    @Query("SELECT ml.processingStatus, COUNT(ml) FROM MessageLog ml WHERE ml.createdAt >= :since GROUP BY ml.processingStatus")
+    @Query(value = "SELECT processing_status, CAST(SUM(message_count) AS BIGINT) FROM message_log_rollups " +
+                   "WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) GROUP BY processing_status HAVING SUM(message_count) <> 0", nativeQuery = true)
     List<Object[]> getProcessingStatusStats(@Param("since") Instant since);
     
     Page<MessageLog> findByTopicContainingIgnoreCaseOrErrorMessageContainingIgnoreCase(
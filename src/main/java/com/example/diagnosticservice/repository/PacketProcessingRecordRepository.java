@@ -5,11 +5,13 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
 
 @Repository
+@Transactional(readOnly = true)
 public interface PacketProcessingRecordRepository extends JpaRepository<PacketProcessingRecord, Long> {
     
     List<PacketProcessingRecord> findByActivityIdAndApplicationDate(String activityId, java.time.LocalDate applicationDate);
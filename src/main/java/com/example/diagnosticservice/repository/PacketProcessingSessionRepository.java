@@ -1,20 +1,44 @@
 package com.example.diagnosticservice.repository;
 
 import com.example.diagnosticservice.entity.PacketProcessingSession;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
+@Transactional(readOnly = true)
 public interface PacketProcessingSessionRepository extends JpaRepository<PacketProcessingSession, Long> {
     
     Optional<PacketProcessingSession> findByActivityIdAndApplicationDate(String activityId, java.time.LocalDate applicationDate);
     
+    /**
+     * Reads a session in a read-write transaction, so it comes from the primary even when read-only
+     * transactions are routed to the replica. For callers that change and save the session: a lagging
+     * replica copy saved back would overwrite newer offsets, counters or a pause
+     */
+    @Transactional
+    @Query("SELECT s FROM PacketProcessingSession s WHERE s.activityId = :activityId AND s.applicationDate = :applicationDate")
+    Optional<PacketProcessingSession> findCurrent(@Param("activityId") String activityId, @Param("applicationDate") java.time.LocalDate applicationDate);
+    
+    /**
+     * Reads a session with a row lock held until the calling transaction ends, so concurrent
+     * shards of the session add their progress one after another
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Transactional
+    @Query("SELECT s FROM PacketProcessingSession s WHERE s.activityId = :activityId AND s.applicationDate = :applicationDate")
+    Optional<PacketProcessingSession> findForUpdate(@Param("activityId") String activityId, @Param("applicationDate") java.time.LocalDate applicationDate);
+    
     List<PacketProcessingSession> findByActivityId(String activityId);
     
     List<PacketProcessingSession> findByApplicationDate(java.time.LocalDate applicationDate);
@@ -25,15 +49,18 @@ public interface PacketProcessingSessionRepository extends JpaRepository<PacketP
     
     List<PacketProcessingSession> findByStatusAndCreatedAtAfter(String status, Instant createdAt);
     
-    @Query("SELECT s FROM PacketProcessingSession s WHERE s.status IN ('ACTIVE', 'PAUSED') ORDER BY s.createdAt ASC")
+    @Query("SELECT s FROM PacketProcessingSession s WHERE s.status IN ('ACTIVE', 'PAUSED', 'BACKOFF') ORDER BY s.createdAt ASC")
     List<PacketProcessingSession> findActiveOrPausedSessions();
     
     @Query("SELECT s FROM PacketProcessingSession s WHERE s.status = 'ACTIVE' AND s.lastProcessedAt < :cutoffTime ORDER BY s.lastProcessedAt ASC")
     List<PacketProcessingSession> findStaleActiveSessions(@Param("cutoffTime") Instant cutoffTime);
     
-    @Query("SELECT s FROM PacketProcessingSession s WHERE s.activityId = :activityId AND s.applicationDate = :applicationDate AND s.status IN ('ACTIVE', 'PAUSED')")
+    @Query("SELECT s FROM PacketProcessingSession s WHERE s.activityId = :activityId AND s.applicationDate = :applicationDate AND s.status IN ('ACTIVE', 'PAUSED', 'BACKOFF')")
     List<PacketProcessingSession> findActiveOrPausedSessionsByActivity(@Param("activityId") String activityId, @Param("applicationDate") java.time.LocalDate applicationDate);
     
+    @Query("SELECT s FROM PacketProcessingSession s WHERE s.status = 'BACKOFF' AND s.backoffUntil <= :now ORDER BY s.backoffUntil ASC")
+    List<PacketProcessingSession> findDueBackoffSessions(@Param("now") Instant now);
+    
     @Query("SELECT COUNT(s) FROM PacketProcessingSession s WHERE s.status = :status")
     long countByStatus(@Param("status") String status);
     
@@ -42,4 +69,21 @@ public interface PacketProcessingSessionRepository extends JpaRepository<PacketP
     
     @Query("SELECT s FROM PacketProcessingSession s WHERE s.endpointUrl = :endpointUrl AND s.status = 'ACTIVE'")
     List<PacketProcessingSession> findActiveSessionsByEndpoint(@Param("endpointUrl") String endpointUrl);
+    
+    List<PacketProcessingSession> findByLeaseOwnerAndStatus(String leaseOwner, String status);
+    
+    /**
+     * Locks up to limit ACTIVE sessions that nobody holds a lease on, skipping rows other instances are claiming
+     */
+    @Transactional
+    @Query(value = "SELECT * FROM packet_processing_sessions WHERE status = 'ACTIVE' " +
+                   "AND (lease_owner IS NULL OR lease_expires_at IS NULL OR lease_expires_at < :now) " +
+                   "ORDER BY COALESCE(lease_expires_at, created_at) LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<PacketProcessingSession> findClaimableSessions(@Param("now") Instant now, @Param("limit") int limit);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE PacketProcessingSession s SET s.leaseExpiresAt = :expiresAt WHERE s.id IN :ids AND s.leaseOwner = :owner")
+    int renewLeases(@Param("ids") Collection<Long> ids, @Param("owner") String owner, @Param("expiresAt") Instant expiresAt);
 }
@@ -0,0 +1,19 @@
+package com.example.diagnosticservice.repository;
+
+import com.example.diagnosticservice.entity.PacketProcessingShard;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+@Transactional(readOnly = true)
+public interface PacketProcessingShardRepository extends JpaRepository<PacketProcessingShard, Long> {
+    
+    /**
+     * Read from the primary: the session engine saves the shards back as their checkpoints move
+     */
+    @Transactional
+    List<PacketProcessingShard> findByActivityIdAndApplicationDateOrderByShardIndex(String activityId, java.time.LocalDate applicationDate);
+}
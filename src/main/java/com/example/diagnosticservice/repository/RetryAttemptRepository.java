@@ -5,11 +5,13 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
 
 @Repository
+@Transactional(readOnly = true)
 public interface RetryAttemptRepository extends JpaRepository<RetryAttempt, Long> {
     
     List<RetryAttempt> findByMessageId(String messageId);
@@ -21,12 +23,17 @@ public interface RetryAttemptRepository extends JpaRepository<RetryAttempt, Long
     @Query("SELECT ra FROM RetryAttempt ra WHERE ra.messageId = :messageId ORDER BY ra.attemptNumber ASC")
     List<RetryAttempt> findRetryHistory(@Param("messageId") String messageId);
     
-    @Query("SELECT ra.status, COUNT(ra) FROM RetryAttempt ra WHERE ra.createdAt >= :since GROUP BY ra.status")
+    // Stats read the per-minute rollups maintained by LogRollupAggregator rather than scanning retry_attempts
+    @Query(value = "SELECT status, CAST(SUM(attempt_count) AS BIGINT) FROM retry_attempt_rollups " +
+                   "WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) GROUP BY status HAVING SUM(attempt_count) <> 0", nativeQuery = true)
     List<Object[]> getRetryStatusStats(@Param("since") Instant since);
     
-    @Query("SELECT ra.errorCategory, COUNT(ra) FROM RetryAttempt ra WHERE ra.createdAt >= :since GROUP BY ra.errorCategory")
+    @Query(value = "SELECT NULLIF(error_category, '') AS error_category, CAST(SUM(attempt_count) AS BIGINT) " +
+                   "FROM retry_attempt_rollups WHERE bucket_start >= date_trunc('minute', CAST(:since AS timestamp)) " +
+                   "GROUP BY error_category HAVING SUM(attempt_count) <> 0", nativeQuery = true)
     List<Object[]> getRetryErrorCategoryStats(@Param("since") Instant since);
     
-    @Query("SELECT AVG(ra.processingTimeMs) FROM RetryAttempt ra WHERE ra.status = 'SUCCESS' AND ra.processingTimeMs IS NOT NULL AND ra.createdAt >= :since")
+    @Query(value = "SELECT CAST(SUM(total_processing_time_ms) AS DOUBLE PRECISION) / NULLIF(SUM(timed_attempt_count), 0) " +
+                   "FROM retry_attempt_rollups WHERE status = 'SUCCESS' AND bucket_start >= date_trunc('minute', CAST(:since AS timestamp))", nativeQuery = true)
     Double getAverageProcessingTime(@Param("since") Instant since);
 }
@@ -0,0 +1,139 @@
+package com.example.diagnosticservice.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency limit for one endpoint that adapts to the endpoint's latency, after TCP Vegas.
+ * The lowest observed round-trip time is taken as the no-load latency; the estimated queue at the
+ * endpoint is limit * (1 - minRtt / rtt). While that queue stays small the limit grows, when it
+ * grows past a few requests the limit shrinks, and an overload response (429/503) cuts it by 10%.
+ * The no-load latency is re-measured periodically so a lasting change in baseline latency is followed.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    // Re-measure the no-load latency after this many samples per unit of limit
+    private static final int PROBE_SAMPLES_PER_LIMIT = 30;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private long minRttNanos = Long.MAX_VALUE;
+    private int samplesSinceProbe;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Runs a call if the endpoint is below its limit and feeds the call's latency back into the limit
+     *
+     * @param call The call to the endpoint
+     * @param isOverload Whether a failure means the endpoint is overloaded, e.g. HTTP 429 or 503
+     * @throws LimitExceededException if the limit is reached
+     */
+    public <T> T execute(Supplier<T> call, Predicate<RuntimeException> isOverload) {
+        int inFlightAtStart = tryAcquire();
+        if (inFlightAtStart < 0) {
+            throw new LimitExceededException(name, getLimit());
+        }
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            onSample(System.nanoTime() - start, inFlightAtStart, false);
+            return result;
+        } catch (RuntimeException e) {
+            // Other failures say nothing reliable about the endpoint's queue and are not sampled
+            if (isOverload.test(e)) {
+                onSample(System.nanoTime() - start, inFlightAtStart, true);
+            }
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of calls in flight including this one, or -1 if the limit is reached
+     */
+    private int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Adjusts the limit for one completed call
+     *
+     * @param rttNanos Latency of the call
+     * @param inFlightAtStart Calls in flight when the call started, including itself
+     * @param overloaded Whether the endpoint answered that it is overloaded
+     */
+    synchronized void onSample(long rttNanos, int inFlightAtStart, boolean overloaded) {
+        if (overloaded) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            return;
+        }
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (++samplesSinceProbe >= PROBE_SAMPLES_PER_LIMIT * limit) {
+            samplesSinceProbe = 0;
+            minRttNanos = rttNanos;
+            return;
+        }
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+
+        // With far fewer calls in flight than allowed, latency says nothing about the limit
+        if (inFlightAtStart * 2 < limit) {
+            return;
+        }
+
+        double queueSize = limit * (1 - (double) minRttNanos / rttNanos);
+        double step = Math.max(1, Math.log10(limit));
+        double alpha = 3 * step;
+        double beta = 6 * step;
+        double newLimit = limit;
+        if (queueSize < alpha) {
+            newLimit = limit + step;
+        } else if (queueSize > beta) {
+            newLimit = limit - step;
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Thrown when a call is rejected because the endpoint's concurrency limit is reached
+     */
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(String name, int limit) {
+            super("Concurrency limit " + limit + " reached for " + name);
+        }
+    }
+}
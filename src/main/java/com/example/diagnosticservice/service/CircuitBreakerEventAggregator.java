@@ -0,0 +1,238 @@
+package com.example.diagnosticservice.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces high-frequency circuit breaker events (rejected calls, failure and slow call rate
+ * notifications) into one circuit_breaker_events row per breaker, event type and second.
+ * While a breaker is OPEN every rejected message raises an event, so writing each one would add
+ * database load exactly during an outage. Events are counted on the calling thread and the
+ * summary rows are written from the scheduler thread. Each row also carries the number of calls
+ * of that breaker that failed or were slow during the same second.
+ */
+@Component
+@Slf4j
+public class CircuitBreakerEventAggregator {
+
+    public static final String CALL_NOT_PERMITTED = "CALL_NOT_PERMITTED";
+    public static final String FAILURE_RATE_EXCEEDED = "FAILURE_RATE_EXCEEDED";
+    public static final String SLOW_CALL_RATE_EXCEEDED = "SLOW_CALL_RATE_EXCEEDED";
+
+    // A window is written once this many seconds have passed since it ended, so a thread that read the
+    // clock just before the second rolled over still lands its increment in time
+    private static final long GRACE_SECONDS = 1;
+    // Event type of the windows counting the failed and slow calls of a breaker
+    private static final String CALLS = "CALLS";
+
+    private final DatabaseLoggingService databaseLoggingService;
+    private final Map<WindowKey, Window> windows = new ConcurrentHashMap<>();
+
+    public CircuitBreakerEventAggregator(DatabaseLoggingService databaseLoggingService) {
+        this.databaseLoggingService = databaseLoggingService;
+    }
+
+    /**
+     * Counts an event in the window of the current second
+     *
+     * @param rate The failure or slow call rate reported with the event, or null
+     */
+    public void record(CircuitBreaker circuitBreaker, String eventType, Float rate) {
+        record(circuitBreaker, eventType, rate, Instant.now().getEpochSecond());
+    }
+
+    void record(CircuitBreaker circuitBreaker, String eventType, Float rate, long epochSecond) {
+        WindowKey key = new WindowKey(circuitBreaker.getName(), eventType, epochSecond);
+        Window window = windows.computeIfAbsent(key, k -> new Window(circuitBreaker));
+        window.count.increment();
+        if (rate != null) {
+            window.maxRate.accumulate(rate);
+        }
+    }
+
+    /**
+     * Counts a completed call in the window of the current second if it failed or was slow
+     *
+     * @param elapsed How long the call took, compared with the breaker's slow call duration threshold
+     */
+    public void recordCall(CircuitBreaker circuitBreaker, Duration elapsed, boolean failed) {
+        recordCall(circuitBreaker, elapsed, failed, Instant.now().getEpochSecond());
+    }
+
+    void recordCall(CircuitBreaker circuitBreaker, Duration elapsed, boolean failed, long epochSecond) {
+        boolean slow = elapsed.compareTo(circuitBreaker.getCircuitBreakerConfig().getSlowCallDurationThreshold()) > 0;
+        if (!failed && !slow) {
+            return;
+        }
+        WindowKey key = new WindowKey(circuitBreaker.getName(), CALLS, epochSecond);
+        Window window = windows.computeIfAbsent(key, k -> new Window(circuitBreaker));
+        if (failed) {
+            window.failureCount.increment();
+        }
+        if (slow) {
+            window.slowCallCount.increment();
+        }
+    }
+
+    /**
+     * Writes one summary row for every window that has ended
+     */
+    @Scheduled(fixedRateString = "${diagnostic.service.circuit-breaker.event-flush-interval-ms:1000}")
+    public void flush() {
+        for (Summary summary : drainEnded(Instant.now().getEpochSecond())) {
+            log.warn("Circuit breaker {}: {} {} events in the second starting {}", summary.circuitBreakerName,
+                    summary.eventCount, summary.eventType, summary.windowStart);
+            databaseLoggingService.logCircuitBreakerEvent(
+                summary.circuitBreakerName, summary.eventType,
+                null, null, summary.failureRate, summary.slowCallRate,
+                summary.eventCount, summary.failureCount, summary.slowCallCount,
+                String.format("%d %s events in 1s window starting %s (state %s)", summary.eventCount,
+                        summary.eventType, summary.windowStart, summary.state)
+            );
+        }
+    }
+
+    /**
+     * Removes the windows that ended before the grace period and summarizes them
+     */
+    List<Summary> drainEnded(long nowEpochSecond) {
+        Map<WindowKey, Window> ended = new HashMap<>();
+        for (WindowKey key : windows.keySet()) {
+            if (key.epochSecond >= nowEpochSecond - GRACE_SECONDS) {
+                continue;
+            }
+            Window window = windows.remove(key);
+            if (window != null) {
+                ended.put(key, window);
+            }
+        }
+
+        List<Summary> summaries = new ArrayList<>();
+        ended.forEach((key, window) -> {
+            // Call counts without events of the same second have no row to go to
+            if (!CALLS.equals(key.eventType)) {
+                Window calls = ended.get(new WindowKey(key.circuitBreakerName, CALLS, key.epochSecond));
+                summaries.add(summarize(key, window, calls));
+            }
+        });
+        return summaries;
+    }
+
+    private Summary summarize(WindowKey key, Window window, Window calls) {
+        CircuitBreaker.Metrics metrics = window.circuitBreaker.getMetrics();
+        double maxRate = window.maxRate.get();
+
+        Summary summary = new Summary();
+        summary.circuitBreakerName = key.circuitBreakerName;
+        summary.eventType = key.eventType;
+        summary.windowStart = Instant.ofEpochSecond(key.epochSecond);
+        summary.state = window.circuitBreaker.getState().name();
+        summary.eventCount = window.count.sum();
+        // The highest rate reported with the events if any, otherwise the breaker's current rate
+        summary.failureRate = rateOrNull(FAILURE_RATE_EXCEEDED.equals(key.eventType) && maxRate >= 0
+                ? maxRate : metrics.getFailureRate());
+        summary.slowCallRate = rateOrNull(SLOW_CALL_RATE_EXCEEDED.equals(key.eventType) && maxRate >= 0
+                ? maxRate : metrics.getSlowCallRate());
+        summary.failureCount = calls != null ? calls.failureCount.sum() : 0L;
+        summary.slowCallCount = calls != null ? calls.slowCallCount.sum() : 0L;
+        return summary;
+    }
+
+    // Resilience4j reports -1 until the sliding window has the minimum number of calls
+    private static Double rateOrNull(double rate) {
+        return rate >= 0 ? rate : null;
+    }
+
+    public int getOpenWindowCount() {
+        return windows.size();
+    }
+
+    private static final class WindowKey {
+        private final String circuitBreakerName;
+        private final String eventType;
+        private final long epochSecond;
+
+        WindowKey(String circuitBreakerName, String eventType, long epochSecond) {
+            this.circuitBreakerName = circuitBreakerName;
+            this.eventType = eventType;
+            this.epochSecond = epochSecond;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WindowKey other)) {
+                return false;
+            }
+            return epochSecond == other.epochSecond && circuitBreakerName.equals(other.circuitBreakerName)
+                    && eventType.equals(other.eventType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(circuitBreakerName, eventType, epochSecond);
+        }
+    }
+
+    private static final class Window {
+        private final CircuitBreaker circuitBreaker;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAccumulator maxRate = new DoubleAccumulator(Math::max, -1);
+        private final LongAdder failureCount = new LongAdder();
+        private final LongAdder slowCallCount = new LongAdder();
+
+        Window(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+        }
+    }
+
+    /**
+     * One circuit_breaker_events row summarizing a window
+     */
+    static final class Summary {
+        private String circuitBreakerName;
+        private String eventType;
+        private Instant windowStart;
+        private String state;
+        private long eventCount;
+        private Double failureRate;
+        private Double slowCallRate;
+        private Long failureCount;
+        private Long slowCallCount;
+
+        String getEventType() {
+            return eventType;
+        }
+
+        long getEventCount() {
+            return eventCount;
+        }
+
+        Double getFailureRate() {
+            return failureRate;
+        }
+
+        Long getFailureCount() {
+            return failureCount;
+        }
+
+        Long getSlowCallCount() {
+            return slowCallCount;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.CircuitBreakerEvent;
+import com.example.diagnosticservice.entity.DeadLetterMessage;
+import com.example.diagnosticservice.entity.MessageLog;
+import com.example.diagnosticservice.entity.RetryAttempt;
+import com.example.diagnosticservice.model.MessageStatusUpdate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes buffered log events to the database using JDBC batches.
+ * Events are grouped by table; payloads are inserted first and all inserts run before status updates
+ * so an update never overtakes the insert of the row it targets. Lifecycle message logs are upserted by message ID
+ * (through message_lifecycle_keys, see V20 migration), and large batches of other message logs are written with COPY.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DatabaseLogBatchWriter {
+
+    private static final String INSERT_MESSAGE_LOG =
+            "INSERT INTO message_logs (message_id, topic, partition, \"offset\", message_key, original_message, " +
+            "error_message, error_category, processing_status, attempt_count, max_retries, circuit_breaker_state, " +
+            "failure_reason, processing_time_ms, source_service, stack_trace, created_at, updated_at, processed_at, " +
+            "retry_scheduled_at, dlq_sent_at, payload_hash) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Lifecycle rows are written once at the terminal state. The conflict target includes created_at
+    // because message_logs is partitioned by it, so rows are written with the created_at claimed in
+    // message_lifecycle_keys; a replayed write only updates the outcome columns and original_message is never rewritten
+    private static final String UPSERT_LIFECYCLE_MESSAGE_LOG =
+            "INSERT INTO message_logs (message_id, topic, partition, \"offset\", message_key, original_message, " +
+            "error_message, error_category, processing_status, attempt_count, max_retries, circuit_breaker_state, " +
+            "failure_reason, processing_time_ms, source_service, stack_trace, created_at, updated_at, processed_at, " +
+            "retry_scheduled_at, dlq_sent_at, payload_hash, lifecycle_row) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE) " +
+            "ON CONFLICT (message_id, created_at) WHERE lifecycle_row DO UPDATE SET " +
+            "processing_status = EXCLUDED.processing_status, error_category = EXCLUDED.error_category, " +
+            "circuit_breaker_state = EXCLUDED.circuit_breaker_state, failure_reason = EXCLUDED.failure_reason, " +
+            "processing_time_ms = EXCLUDED.processing_time_ms, processed_at = EXCLUDED.processed_at, " +
+            "updated_at = EXCLUDED.updated_at";
+
+    // Returns the created_at of each message's lifecycle row, claiming it for messages written for the first time;
+    // the no-op update makes RETURNING include existing keys and locks them until the rows are written
+    private static final String CLAIM_LIFECYCLE_KEYS =
+            "INSERT INTO message_lifecycle_keys (message_id, created_at) SELECT * FROM unnest(?::varchar[], ?::timestamp[]) " +
+            "ON CONFLICT (message_id) DO UPDATE SET message_id = EXCLUDED.message_id RETURNING message_id, created_at";
+
+    private static final String INSERT_RETRY_ATTEMPT =
+            "INSERT INTO retry_attempts (message_id, attempt_number, status, error_message, error_category, delay_ms, " +
+            "processing_time_ms, original_message, retry_message, topic, partition, \"offset\", failure_reason, " +
+            "stack_trace, created_at, scheduled_at, started_at, completed_at, payload_hash) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_CIRCUIT_BREAKER_EVENT =
+            "INSERT INTO circuit_breaker_events (circuit_breaker_name, event_type, from_state, to_state, failure_rate, " +
+            "slow_call_rate, call_count, failure_count, slow_call_count, details, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_DEAD_LETTER_MESSAGE =
+            "INSERT INTO dead_letter_messages (message_id, original_message, failure_reason, attempt_count, " +
+            "error_category, source_topic, partition, \"offset\", source_service, stack_trace, dlq_message, " +
+            "processing_status, created_at, sent_at, failed_at, payload_hash) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // A reused payload gets a fresh created_at, so the orphan purge does not delete it before the row
+    // referencing it again commits
+    private static final String INSERT_PAYLOAD =
+            "INSERT INTO payloads (hash, compression, original_size, data, created_at) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (hash) DO UPDATE SET created_at = EXCLUDED.created_at";
+
+    private static final String UPDATE_MESSAGE_STATUS =
+            "UPDATE message_logs SET processing_status = ?, error_category = ?, circuit_breaker_state = ?, " +
+            "processing_time_ms = ?, failure_reason = ?, processed_at = ?, updated_at = ? WHERE message_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PostgresCopyWriter copyWriter;
+    private final PayloadStore payloadStore;
+
+    /**
+     * Writes a batch of log events in a single transaction
+     *
+     * @param events Entities or status updates produced by DatabaseLoggingService
+     */
+    public void write(List<Object> events) {
+        List<MessageLog> messageLogs = new ArrayList<>();
+        List<MessageLog> lifecycleLogs = new ArrayList<>();
+        List<RetryAttempt> retryAttempts = new ArrayList<>();
+        List<CircuitBreakerEvent> circuitBreakerEvents = new ArrayList<>();
+        List<DeadLetterMessage> deadLetterMessages = new ArrayList<>();
+        List<MessageStatusUpdate> statusUpdates = new ArrayList<>();
+        Map<String, PayloadStore.StoredPayload> payloads = new LinkedHashMap<>();
+
+        for (Object event : events) {
+            if (event instanceof MessageLog messageLog) {
+                if (messageLog.isLifecycleRow()) {
+                    lifecycleLogs.add(messageLog);
+                } else {
+                    messageLogs.add(messageLog);
+                }
+            } else if (event instanceof RetryAttempt retryAttempt) {
+                retryAttempts.add(retryAttempt);
+            } else if (event instanceof CircuitBreakerEvent circuitBreakerEvent) {
+                circuitBreakerEvents.add(circuitBreakerEvent);
+            } else if (event instanceof DeadLetterMessage deadLetterMessage) {
+                deadLetterMessages.add(deadLetterMessage);
+            } else if (event instanceof MessageStatusUpdate statusUpdate) {
+                statusUpdates.add(statusUpdate);
+            } else if (event instanceof PayloadStore.StoredPayload payload) {
+                payloads.putIfAbsent(payload.getHash(), payload);
+            } else {
+                log.warn("Ignoring unsupported log event type: {}", event.getClass().getName());
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                insertPayloads(payloads.values());
+                insertMessageLogs(messageLogs);
+                upsertLifecycleLogs(lifecycleLogs);
+                insertRetryAttempts(retryAttempts);
+                insertCircuitBreakerEvents(circuitBreakerEvents);
+                insertDeadLetterMessages(deadLetterMessages);
+                updateMessageStatuses(statusUpdates);
+            });
+        } catch (RuntimeException e) {
+            // Let the next reference to these payloads write them again
+            payloadStore.forget(payloads.keySet());
+            throw e;
+        }
+
+        log.debug("Wrote log batch: {} payloads, {} message logs, {} lifecycle logs, {} retry attempts, " +
+                "{} circuit breaker events, {} dead letter messages, {} status updates", payloads.size(), messageLogs.size(),
+                lifecycleLogs.size(), retryAttempts.size(), circuitBreakerEvents.size(), deadLetterMessages.size(),
+                statusUpdates.size());
+    }
+
+    private void insertPayloads(Collection<PayloadStore.StoredPayload> payloads) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        jdbcTemplate.batchUpdate(INSERT_PAYLOAD, payloads, payloads.size(), (ps, payload) -> {
+            ps.setString(1, payload.getHash());
+            ps.setString(2, payload.getCompression());
+            ps.setInt(3, payload.getOriginalSize());
+            ps.setBytes(4, payload.getData());
+            setTimestamp(ps, 5, now);
+        });
+    }
+
+    private void insertMessageLogs(List<MessageLog> messageLogs) {
+        if (messageLogs.isEmpty()) {
+            return;
+        }
+        if (copyWriter.shouldUseCopy(messageLogs.size())) {
+            copyWriter.copyMessageLogs(messageLogs);
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_MESSAGE_LOG, messageLogs, messageLogs.size(), this::bindMessageLog);
+    }
+
+    private void upsertLifecycleLogs(List<MessageLog> lifecycleLogs) {
+        if (lifecycleLogs.isEmpty()) {
+            return;
+        }
+        // A single statement may not upsert the same row twice, so keep the latest outcome per message
+        Map<String, MessageLog> latestByMessageId = new LinkedHashMap<>();
+        for (MessageLog messageLog : lifecycleLogs) {
+            latestByMessageId.put(messageLog.getMessageId(), messageLog);
+        }
+        List<MessageLog> rows = new ArrayList<>(latestByMessageId.values());
+        // A redelivered message has a new receive time; its row keeps the one it was first written with
+        Map<String, Instant> createdAtByMessageId = claimLifecycleKeys(rows);
+        for (MessageLog row : rows) {
+            Instant createdAt = createdAtByMessageId.get(row.getMessageId());
+            if (createdAt != null) {
+                row.setCreatedAt(createdAt);
+            }
+        }
+        jdbcTemplate.batchUpdate(UPSERT_LIFECYCLE_MESSAGE_LOG, rows, rows.size(), this::bindMessageLog);
+    }
+
+    private Map<String, Instant> claimLifecycleKeys(List<MessageLog> rows) {
+        String[] messageIds = new String[rows.size()];
+        Timestamp[] createdAts = new Timestamp[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            MessageLog row = rows.get(i);
+            if (row.getCreatedAt() == null) {
+                row.setCreatedAt(Instant.now());
+            }
+            messageIds[i] = row.getMessageId();
+            createdAts[i] = Timestamp.from(row.getCreatedAt());
+        }
+        Map<String, Instant> createdAtByMessageId = new HashMap<>();
+        jdbcTemplate.query(CLAIM_LIFECYCLE_KEYS, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("varchar", messageIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("timestamp", createdAts));
+        }, rs -> {
+            createdAtByMessageId.put(rs.getString(1), rs.getTimestamp(2).toInstant());
+        });
+        return createdAtByMessageId;
+    }
+
+    private void bindMessageLog(PreparedStatement ps, MessageLog messageLog) throws SQLException {
+        Instant createdAt = messageLog.getCreatedAt() != null ? messageLog.getCreatedAt() : Instant.now();
+        ps.setString(1, messageLog.getMessageId());
+        ps.setString(2, messageLog.getTopic());
+        setInteger(ps, 3, messageLog.getPartition());
+        setLong(ps, 4, messageLog.getOffset());
+        ps.setString(5, messageLog.getMessageKey());
+        ps.setString(6, messageLog.getOriginalMessage());
+        ps.setString(7, messageLog.getErrorMessage());
+        ps.setString(8, messageLog.getErrorCategory());
+        ps.setString(9, messageLog.getProcessingStatus());
+        setInteger(ps, 10, messageLog.getAttemptCount());
+        setInteger(ps, 11, messageLog.getMaxRetries());
+        ps.setString(12, messageLog.getCircuitBreakerState());
+        ps.setString(13, messageLog.getFailureReason());
+        setLong(ps, 14, messageLog.getProcessingTimeMs());
+        ps.setString(15, messageLog.getSourceService());
+        ps.setString(16, messageLog.getStackTrace());
+        setTimestamp(ps, 17, createdAt);
+        setTimestamp(ps, 18, messageLog.getUpdatedAt() != null ? messageLog.getUpdatedAt() : createdAt);
+        setTimestamp(ps, 19, messageLog.getProcessedAt());
+        setTimestamp(ps, 20, messageLog.getRetryScheduledAt());
+        setTimestamp(ps, 21, messageLog.getDlqSentAt());
+        ps.setString(22, messageLog.getPayloadHash());
+    }
+
+    private void insertRetryAttempts(List<RetryAttempt> retryAttempts) {
+        if (retryAttempts.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_RETRY_ATTEMPT, retryAttempts, retryAttempts.size(), (ps, attempt) -> {
+            ps.setString(1, attempt.getMessageId());
+            setInteger(ps, 2, attempt.getAttemptNumber());
+            ps.setString(3, attempt.getStatus());
+            ps.setString(4, attempt.getErrorMessage());
+            ps.setString(5, attempt.getErrorCategory());
+            setLong(ps, 6, attempt.getDelayMs());
+            setLong(ps, 7, attempt.getProcessingTimeMs());
+            ps.setString(8, attempt.getOriginalMessage());
+            ps.setString(9, attempt.getRetryMessage());
+            ps.setString(10, attempt.getTopic());
+            setInteger(ps, 11, attempt.getPartition());
+            setLong(ps, 12, attempt.getOffset());
+            ps.setString(13, attempt.getFailureReason());
+            ps.setString(14, attempt.getStackTrace());
+            setTimestamp(ps, 15, attempt.getCreatedAt() != null ? attempt.getCreatedAt() : Instant.now());
+            setTimestamp(ps, 16, attempt.getScheduledAt());
+            setTimestamp(ps, 17, attempt.getStartedAt());
+            setTimestamp(ps, 18, attempt.getCompletedAt());
+            ps.setString(19, attempt.getPayloadHash());
+        });
+    }
+
+    private void insertCircuitBreakerEvents(List<CircuitBreakerEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_CIRCUIT_BREAKER_EVENT, events, events.size(), (ps, event) -> {
+            ps.setString(1, event.getCircuitBreakerName());
+            ps.setString(2, event.getEventType());
+            ps.setString(3, event.getFromState());
+            ps.setString(4, event.getToState());
+            setDouble(ps, 5, event.getFailureRate());
+            setDouble(ps, 6, event.getSlowCallRate());
+            setLong(ps, 7, event.getCallCount());
+            setLong(ps, 8, event.getFailureCount());
+            setLong(ps, 9, event.getSlowCallCount());
+            ps.setString(10, event.getDetails());
+            setTimestamp(ps, 11, event.getCreatedAt() != null ? event.getCreatedAt() : Instant.now());
+        });
+    }
+
+    private void insertDeadLetterMessages(List<DeadLetterMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_DEAD_LETTER_MESSAGE, messages, messages.size(), (ps, message) -> {
+            ps.setString(1, message.getMessageId());
+            ps.setString(2, message.getOriginalMessage());
+            ps.setString(3, message.getFailureReason());
+            setInteger(ps, 4, message.getAttemptCount());
+            ps.setString(5, message.getErrorCategory());
+            ps.setString(6, message.getSourceTopic());
+            setInteger(ps, 7, message.getPartition());
+            setLong(ps, 8, message.getOffset());
+            ps.setString(9, message.getSourceService());
+            ps.setString(10, message.getStackTrace());
+            ps.setString(11, message.getDlqMessage());
+            ps.setString(12, message.getProcessingStatus());
+            setTimestamp(ps, 13, message.getCreatedAt() != null ? message.getCreatedAt() : Instant.now());
+            setTimestamp(ps, 14, message.getSentAt());
+            setTimestamp(ps, 15, message.getFailedAt());
+            ps.setString(16, message.getPayloadHash());
+        });
+    }
+
+    private void updateMessageStatuses(List<MessageStatusUpdate> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPDATE_MESSAGE_STATUS, updates, updates.size(), (ps, update) -> {
+            Instant processedAt = update.getProcessedAt() != null ? update.getProcessedAt() : Instant.now();
+            ps.setString(1, update.getProcessingStatus());
+            ps.setString(2, update.getErrorCategory());
+            ps.setString(3, update.getCircuitBreakerState());
+            setLong(ps, 4, update.getProcessingTimeMs());
+            ps.setString(5, update.getFailureReason());
+            setTimestamp(ps, 6, processedAt);
+            setTimestamp(ps, 7, processedAt);
+            ps.setString(8, update.getMessageId());
+        });
+    }
+
+    static void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+
+    static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value != null) {
+            ps.setLong(index, value);
+        } else {
+            ps.setNull(index, Types.BIGINT);
+        }
+    }
+
+    static void setDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value != null) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    static void setTimestamp(PreparedStatement ps, int index, Instant value) throws SQLException {
+        if (value != null) {
+            ps.setTimestamp(index, Timestamp.from(value));
+        } else {
+            ps.setNull(index, Types.TIMESTAMP);
+        }
+    }
+}
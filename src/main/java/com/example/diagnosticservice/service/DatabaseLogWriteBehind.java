@@ -0,0 +1,389 @@
+package com.example.diagnosticservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Optional write-behind pipeline for database logging.
+ * Log events are placed in bounded lock-free ring buffers and written by a small set of
+ * drainer threads in JDBC batches, so Kafka listener threads never wait on the database.
+ * Events are sharded by routing key (message ID) so all events of one message are written
+ * by the same drainer, in order. A batch that fails is retried once and then written one event
+ * at a time, so a bad event or a brief outage only loses the events that cannot be written.
+ */
+@Component
+@Slf4j
+public class DatabaseLogWriteBehind {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Single-event writes failing this many times in a row mean the database is down, not that one event is bad
+    private static final int MAX_CONSECUTIVE_EVENT_FAILURES = 3;
+
+    private final DatabaseLogBatchWriter batchWriter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${diagnostic.service.database-logging.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${diagnostic.service.database-logging.write-behind.buffer-capacity:65536}")
+    private int bufferCapacity;
+
+    @Value("${diagnostic.service.database-logging.write-behind.drainer-threads:2}")
+    private int drainerThreads;
+
+    @Value("${diagnostic.service.database-logging.write-behind.flush-size:500}")
+    private int flushSize;
+
+    @Value("${diagnostic.service.database-logging.write-behind.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${diagnostic.service.database-logging.write-behind.overflow-policy:DROP}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${diagnostic.service.database-logging.write-behind.block-timeout-ms:1000}")
+    private long blockTimeoutMs;
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong writtenEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+
+    private volatile boolean running;
+    private Shard[] shards;
+    private Timer flushTimer;
+    private Counter droppedCounter;
+
+    public DatabaseLogWriteBehind(DatabaseLogBatchWriter batchWriter, MeterRegistry meterRegistry) {
+        this.batchWriter = batchWriter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Database logging write-behind is disabled, log events are written synchronously");
+            return;
+        }
+
+        int shardCount = Math.max(1, drainerThreads);
+        int shardCapacity = Math.max(2, bufferCapacity / shardCount);
+        shards = new Shard[shardCount];
+        running = true;
+
+        for (int i = 0; i < shardCount; i++) {
+            Shard shard = new Shard(new BoundedRingBuffer<>(shardCapacity));
+            shard.drainer = new Thread(() -> drain(shard), "db-log-drainer-" + i);
+            shard.drainer.setDaemon(true);
+            shards[i] = shard;
+        }
+
+        Gauge.builder("diagnostic.logging.write_behind.queue.depth", this, DatabaseLogWriteBehind::getQueueDepth)
+                .description("Log events waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder("diagnostic.logging.write_behind.queue.capacity", this, DatabaseLogWriteBehind::getQueueCapacity)
+                .register(meterRegistry);
+        flushTimer = Timer.builder("diagnostic.logging.write_behind.flush")
+                .description("Latency of write-behind batch flushes")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("diagnostic.logging.write_behind.dropped")
+                .description("Log events dropped because the buffer was full")
+                .register(meterRegistry);
+
+        for (Shard shard : shards) {
+            shard.drainer.start();
+        }
+
+        log.info("Database logging write-behind started: drainerThreads={}, bufferCapacity={}, flushSize={}, " +
+                "flushIntervalMs={}, overflowPolicy={}", shardCount, shardCapacity * shardCount, flushSize,
+                flushIntervalMs, overflowPolicy);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.drainer);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.drainer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Database logging write-behind stopped: written={}, dropped={}, failed={}",
+                writtenEvents.get(), droppedEvents.get(), failedEvents.get());
+    }
+
+    public boolean isEnabled() {
+        return enabled && running;
+    }
+
+    /**
+     * Queues a log event for asynchronous writing.
+     * Once the pipeline has stopped the event is written synchronously instead, so events submitted
+     * by listener threads during shutdown are not left behind in a buffer no drainer reads anymore.
+     *
+     * @param routingKey Key that selects the drainer; events with the same key are written in order
+     * @param event The entity or status update to write
+     */
+    public void submit(String routingKey, Object event) {
+        if (!running) {
+            writeDirectly(event);
+            return;
+        }
+
+        Shard shard = shards[Math.floorMod(routingKey != null ? routingKey.hashCode() : 0, shards.length)];
+        if (offer(shard, event)) {
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+            while (System.nanoTime() < deadline) {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                if (offer(shard, event)) {
+                    return;
+                }
+            }
+        }
+
+        droppedCounter.increment();
+        if (droppedEvents.incrementAndGet() % 1000 == 1) {
+            log.warn("Write-behind buffer full, dropping log events (policy: {}, dropped so far: {})",
+                    overflowPolicy, droppedEvents.get());
+        }
+    }
+
+    private boolean offer(Shard shard, Object event) {
+        if (!shard.buffer.offer(event)) {
+            return false;
+        }
+        if (!running) {
+            // stop() may have drained this shard for the last time before the offer landed
+            drainStopped(shard);
+        } else if (shard.parked) {
+            LockSupport.unpark(shard.drainer);
+        }
+        return true;
+    }
+
+    private void writeDirectly(Object event) {
+        try {
+            batchWriter.write(List.of(event));
+            writtenEvents.incrementAndGet();
+        } catch (Exception e) {
+            failedEvents.incrementAndGet();
+            log.error("Failed to write {} log event after write-behind stopped", event.getClass().getSimpleName(), e);
+        }
+    }
+
+    private void drain(Shard shard) {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        List<Object> batch = new ArrayList<>(flushSize);
+        long batchStartedAt = 0;
+
+        while (running) {
+            int drained = shard.buffer.drainTo(batch, flushSize - batch.size());
+            if (drained > 0 && batchStartedAt == 0) {
+                batchStartedAt = System.nanoTime();
+            }
+
+            long untilDue = flushIntervalNanos - (System.nanoTime() - batchStartedAt);
+            if (batch.size() >= flushSize || (!batch.isEmpty() && untilDue <= 0)) {
+                flush(batch);
+                batch.clear();
+                batchStartedAt = 0;
+            } else if (drained == 0) {
+                // Sleep until submit() or stop() unparks us, or until the pending batch is due
+                shard.parked = true;
+                if (running && shard.buffer.isEmpty()) {
+                    if (batch.isEmpty()) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, untilDue);
+                    }
+                }
+                shard.parked = false;
+            }
+        }
+
+        synchronized (shard) {
+            drainRemaining(shard, batch);
+            shard.stopped = true;
+        }
+    }
+
+    private void drainStopped(Shard shard) {
+        synchronized (shard) {
+            // Before the drainer's final pass the drainer picks the event up itself
+            if (shard.stopped) {
+                drainRemaining(shard, new ArrayList<>(flushSize));
+            }
+        }
+    }
+
+    private void drainRemaining(Shard shard, List<Object> batch) {
+        while (shard.buffer.drainTo(batch, flushSize - batch.size()) > 0 || !batch.isEmpty()) {
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<Object> batch) {
+        long start = System.nanoTime();
+        try {
+            batchWriter.write(batch);
+            writtenEvents.addAndGet(batch.size());
+        } catch (Exception e) {
+            log.warn("Failed to write batch of {} log events, retrying", batch.size(), e);
+            retry(batch);
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Retries a failed batch once, then writes its events one at a time in order, so payloads are still
+     * written before the rows referencing them and only events that fail on their own are dropped
+     */
+    private void retry(List<Object> batch) {
+        LockSupport.parkNanos(RETRY_DELAY_NANOS);
+        try {
+            batchWriter.write(batch);
+            writtenEvents.addAndGet(batch.size());
+            return;
+        } catch (Exception e) {
+            log.warn("Retry of batch of {} log events failed, writing them one at a time", batch.size(), e);
+        }
+
+        int consecutiveFailures = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Object event = batch.get(i);
+            try {
+                batchWriter.write(List.of(event));
+                writtenEvents.incrementAndGet();
+                consecutiveFailures = 0;
+            } catch (Exception e) {
+                failedEvents.incrementAndGet();
+                log.error("Dropping {} log event that could not be written", event.getClass().getSimpleName(), e);
+                if (++consecutiveFailures >= MAX_CONSECUTIVE_EVENT_FAILURES) {
+                    int remaining = batch.size() - i - 1;
+                    failedEvents.addAndGet(remaining);
+                    log.error("Dropping the remaining {} log events of the batch, the database keeps failing", remaining);
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        if (shards == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.buffer.size();
+        }
+        return depth;
+    }
+
+    public int getQueueCapacity() {
+        if (shards == null) {
+            return 0;
+        }
+        int capacity = 0;
+        for (Shard shard : shards) {
+            capacity += shard.buffer.capacity();
+        }
+        return capacity;
+    }
+
+    public WriteBehindStats getStats() {
+        return new WriteBehindStats(isEnabled(), getQueueDepth(), getQueueCapacity(),
+                writtenEvents.get(), droppedEvents.get(), failedEvents.get());
+    }
+
+    /**
+     * What to do with a log event when its buffer is full
+     */
+    public enum OverflowPolicy {
+        DROP,
+        BLOCK
+    }
+
+    private static class Shard {
+        private final BoundedRingBuffer<Object> buffer;
+        private Thread drainer;
+        private volatile boolean parked;
+        private boolean stopped;
+
+        Shard(BoundedRingBuffer<Object> buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Statistics class for the write-behind pipeline
+     */
+    public static class WriteBehindStats {
+        private final boolean enabled;
+        private final int queueDepth;
+        private final int queueCapacity;
+        private final long writtenEvents;
+        private final long droppedEvents;
+        private final long failedEvents;
+
+        public WriteBehindStats(boolean enabled, int queueDepth, int queueCapacity,
+                                long writtenEvents, long droppedEvents, long failedEvents) {
+            this.enabled = enabled;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.writtenEvents = writtenEvents;
+            this.droppedEvents = droppedEvents;
+            this.failedEvents = failedEvents;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public long getWrittenEvents() {
+            return writtenEvents;
+        }
+
+        public long getDroppedEvents() {
+            return droppedEvents;
+        }
+
+        public long getFailedEvents() {
+            return failedEvents;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package com.example.diagnosticservice.service;
 
 import com.example.diagnosticservice.entity.*;
+import com.example.diagnosticservice.model.MessageStatusUpdate;
 import com.example.diagnosticservice.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.util.List;
@@ -20,8 +24,17 @@ public class DatabaseLoggingService {
     private final CircuitBreakerEventRepository circuitBreakerEventRepository;
     private final RetryAttemptRepository retryAttemptRepository;
     private final DeadLetterMessageRepository deadLetterMessageRepository;
+    private final DatabaseLogWriteBehind writeBehind;
+    private final DatabaseLogBatchWriter batchWriter;
+    private final MessageLifecycleTracker lifecycleTracker;
+    private final PayloadStore payloadStore;
+    private final LoggingPolicy loggingPolicy;
+    private final LogRollupAggregator rollupAggregator;
+    private final TransactionTemplate transactionTemplate;
+    
+    @Value("${diagnostic.service.database-logging.mode:CLASSIC}")
+    private LoggingMode loggingMode;
     
-    @Transactional
     public void logMessageReceived(String messageId, String topic, Integer partition, Long offset, 
                                  String messageKey, String originalMessage, String errorMessage) {
         try {
@@ -37,30 +50,90 @@ public class DatabaseLoggingService {
                     .attemptCount(0)
                     .createdAt(Instant.now())
                     .build();
+            rollupAggregator.recordMessageReceived(topic, messageLog.getCreatedAt());
             
-            messageLogRepository.save(messageLog);
+            if (isDeferringReceivedRows()) {
+                // The row is written once the outcome is known; only write now if too many are pending
+                if (lifecycleTracker.register(messageLog)) {
+                    return;
+                }
+                messageLog.setLifecycleRow(true);
+                applyPayload(messageLog);
+                writeMessageLog(messageLog);
+            } else {
+                applyPayload(messageLog);
+                if (writeBehind.isEnabled()) {
+                    writeBehind.submit(messageId, messageLog);
+                } else {
+                    messageLogRepository.save(messageLog);
+                }
+            }
             log.debug("Logged message received: {}", messageId);
         } catch (Exception e) {
             log.error("Failed to log message received: {}", messageId, e);
         }
     }
     
-    @Transactional
     public void logMessageProcessing(String messageId, String processingStatus, String errorCategory, 
                                    String circuitBreakerState, Long processingTimeMs, String failureReason) {
+        logMessageProcessing(messageId, null, processingStatus, errorCategory, circuitBreakerState,
+                processingTimeMs, failureReason);
+    }
+    
+    public void logMessageProcessing(String messageId, String topic, String processingStatus, String errorCategory, 
+                                   String circuitBreakerState, Long processingTimeMs, String failureReason) {
         try {
-            Optional<MessageLog> existingLog = messageLogRepository.findByMessageId(messageId);
-            if (existingLog.isPresent()) {
-                MessageLog messageLog = existingLog.get();
+            Instant processedAt = Instant.now();
+            MessageLog messageLog = isDeferringReceivedRows() ? lifecycleTracker.complete(messageId) : null;
+            String messageTopic = messageLog != null ? messageLog.getTopic() : topic;
+            
+            // Counted before sampling so outcome counts stay exact. Untracked messages are counted in the
+            // bucket they completed in, which is the bucket they were received in unless processing spans a minute
+            Instant receivedAt = messageLog != null ? messageLog.getCreatedAt() : processedAt;
+            rollupAggregator.recordMessageOutcome(messageTopic, receivedAt, processingStatus, errorCategory,
+                    processingTimeMs);
+            
+            if (messageLog != null) {
+                LoggingPolicy.Decision decision = loggingPolicy.decide(messageTopic, processingStatus, messageId);
+                if (decision == LoggingPolicy.Decision.SKIP) {
+                    log.debug("Skipped unsampled message lifecycle: {} -> {}", messageId, processingStatus);
+                    return;
+                }
+                if (decision == LoggingPolicy.Decision.WITHOUT_PAYLOAD) {
+                    messageLog.setOriginalMessage(null);
+                }
                 messageLog.setProcessingStatus(processingStatus);
                 messageLog.setErrorCategory(errorCategory);
                 messageLog.setCircuitBreakerState(circuitBreakerState);
                 messageLog.setProcessingTimeMs(processingTimeMs);
                 messageLog.setFailureReason(failureReason);
-                messageLog.setProcessedAt(Instant.now());
-                messageLog.setUpdatedAt(Instant.now());
-                
-                messageLogRepository.save(messageLog);
+                messageLog.setProcessedAt(processedAt);
+                messageLog.setUpdatedAt(processedAt);
+                messageLog.setLifecycleRow(true);
+                applyPayload(messageLog);
+                writeMessageLog(messageLog);
+                log.debug("Logged message lifecycle: {} -> {}", messageId, processingStatus);
+                return;
+            }
+            
+            // Not tracked (classic mode, expired or written early): update the RECEIVED row in place
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(messageId, MessageStatusUpdate.builder()
+                        .messageId(messageId)
+                        .processingStatus(processingStatus)
+                        .errorCategory(errorCategory)
+                        .circuitBreakerState(circuitBreakerState)
+                        .processingTimeMs(processingTimeMs)
+                        .failureReason(failureReason)
+                        .processedAt(processedAt)
+                        .build());
+                log.debug("Queued message processing status: {} -> {}", messageId, processingStatus);
+                return;
+            }
+            
+            int updated = messageLogRepository.updateProcessingStatus(messageId, processingStatus, errorCategory,
+                    circuitBreakerState, processingTimeMs, failureReason, processedAt);
+            if (updated > 0) {
                 log.debug("Updated message processing status: {} -> {}", messageId, processingStatus);
             }
         } catch (Exception e) {
@@ -68,11 +141,80 @@ public class DatabaseLoggingService {
         }
     }
     
-    @Transactional
+    /**
+     * Whether RECEIVED rows are held back until the outcome is known, which the lifecycle mode
+     * and the sampling policy both need
+     */
+    private boolean isDeferringReceivedRows() {
+        return loggingMode == LoggingMode.LIFECYCLE || loggingPolicy.isEnabled();
+    }
+    
+    /**
+     * Writes messages that never reached a terminal status so they are not lost from the log
+     */
+    @Scheduled(fixedRateString = "${diagnostic.service.database-logging.lifecycle.expiry-check-interval-ms:60000}")
+    public void flushExpiredLifecycleEntries() {
+        if (!isDeferringReceivedRows()) {
+            return;
+        }
+        for (MessageLog messageLog : lifecycleTracker.removeExpired()) {
+            try {
+                messageLog.setLifecycleRow(true);
+                applyPayload(messageLog);
+                writeMessageLog(messageLog);
+            } catch (Exception e) {
+                log.error("Failed to log expired lifecycle entry: {}", messageLog.getMessageId(), e);
+            }
+        }
+    }
+    
+    /**
+     * Stores a message body in the payload store, unless the same content was stored recently
+     *
+     * @return The payload hash to reference, or null if the body should be stored inline
+     */
+    private String storePayload(String routingKey, String payload) {
+        if (!payloadStore.isEnabled()) {
+            return null;
+        }
+        PayloadStore.StoredPayload stored = payloadStore.prepare(payload);
+        if (stored == null) {
+            return null;
+        }
+        if (stored.needsWrite()) {
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(routingKey, stored);
+            } else {
+                batchWriter.write(List.of(stored));
+            }
+        }
+        return stored.getHash();
+    }
+    
+    /**
+     * Moves the inline body of a message log to the payload store
+     */
+    private void applyPayload(MessageLog messageLog) {
+        String payloadHash = storePayload(messageLog.getMessageId(), messageLog.getOriginalMessage());
+        if (payloadHash != null) {
+            messageLog.setPayloadHash(payloadHash);
+            messageLog.setOriginalMessage(null);
+        }
+    }
+    
+    private void writeMessageLog(MessageLog messageLog) {
+        if (writeBehind.isEnabled()) {
+            writeBehind.submit(messageLog.getMessageId(), messageLog);
+        } else {
+            batchWriter.write(List.of(messageLog));
+        }
+    }
+    
     public void logRetryAttempt(String messageId, Integer attemptNumber, String status, String errorMessage, 
                                String errorCategory, Long delayMs, String originalMessage, String retryMessage,
                                String topic, Integer partition, Long offset) {
         try {
+            String payloadHash = storePayload(messageId, originalMessage);
             RetryAttempt retryAttempt = RetryAttempt.builder()
                     .messageId(messageId)
                     .attemptNumber(attemptNumber)
@@ -80,7 +222,8 @@ public class DatabaseLoggingService {
                     .errorMessage(errorMessage)
                     .errorCategory(errorCategory)
                     .delayMs(delayMs)
-                    .originalMessage(originalMessage)
+                    .originalMessage(payloadHash != null ? null : originalMessage)
+                    .payloadHash(payloadHash)
                     .retryMessage(retryMessage)
                     .topic(topic)
                     .partition(partition)
@@ -88,15 +231,19 @@ public class DatabaseLoggingService {
                     .createdAt(Instant.now())
                     .scheduledAt(Instant.now())
                     .build();
+            rollupAggregator.recordRetryAttempt(topic, retryAttempt.getCreatedAt(), status, errorCategory);
             
-            retryAttemptRepository.save(retryAttempt);
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(messageId, retryAttempt);
+            } else {
+                retryAttemptRepository.save(retryAttempt);
+            }
             log.debug("Logged retry attempt: {} (attempt {})", messageId, attemptNumber);
         } catch (Exception e) {
             log.error("Failed to log retry attempt: {}", messageId, e);
         }
     }
     
-    @Transactional
     public void logCircuitBreakerEvent(String circuitBreakerName, String eventType, String fromState, 
                                      String toState, Double failureRate, Double slowCallRate, 
                                      Long callCount, Long failureCount, Long slowCallCount, String details) {
@@ -115,21 +262,26 @@ public class DatabaseLoggingService {
                     .createdAt(Instant.now())
                     .build();
             
-            circuitBreakerEventRepository.save(event);
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(circuitBreakerName, event);
+            } else {
+                circuitBreakerEventRepository.save(event);
+            }
             log.debug("Logged circuit breaker event: {} - {}", circuitBreakerName, eventType);
         } catch (Exception e) {
             log.error("Failed to log circuit breaker event: {}", circuitBreakerName, e);
         }
     }
     
-    @Transactional
     public void logDeadLetterMessage(String messageId, String originalMessage, String failureReason, 
                                    Integer attemptCount, String errorCategory, String sourceTopic,
                                    Integer partition, Long offset, String sourceService, String stackTrace) {
         try {
+            String payloadHash = storePayload(messageId, originalMessage);
             DeadLetterMessage dlqMessage = DeadLetterMessage.builder()
                     .messageId(messageId)
-                    .originalMessage(originalMessage)
+                    .originalMessage(payloadHash != null ? null : originalMessage)
+                    .payloadHash(payloadHash)
                     .failureReason(failureReason)
                     .attemptCount(attemptCount)
                     .errorCategory(errorCategory)
@@ -142,21 +294,35 @@ public class DatabaseLoggingService {
                     .createdAt(Instant.now())
                     .sentAt(Instant.now())
                     .build();
+            rollupAggregator.recordDeadLetter(sourceTopic, dlqMessage.getCreatedAt(), dlqMessage.getProcessingStatus(),
+                    errorCategory, sourceService);
             
-            deadLetterMessageRepository.save(dlqMessage);
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(messageId, dlqMessage);
+            } else {
+                deadLetterMessageRepository.save(dlqMessage);
+            }
             log.debug("Logged dead letter message: {}", messageId);
         } catch (Exception e) {
             log.error("Failed to log dead letter message: {}", messageId, e);
         }
     }
     
-    @Transactional
     public void updateRetryAttemptStatus(Long retryAttemptId, String status, Long processingTimeMs, 
                                        String failureReason, String stackTrace) {
         try {
-            Optional<RetryAttempt> retryAttempt = retryAttemptRepository.findById(retryAttemptId);
-            if (retryAttempt.isPresent()) {
+            RetryAttempt previous = transactionTemplate.execute(txStatus -> {
+                Optional<RetryAttempt> retryAttempt = retryAttemptRepository.findById(retryAttemptId);
+                if (retryAttempt.isEmpty()) {
+                    return null;
+                }
                 RetryAttempt attempt = retryAttempt.get();
+                RetryAttempt snapshot = RetryAttempt.builder()
+                        .topic(attempt.getTopic())
+                        .status(attempt.getStatus())
+                        .errorCategory(attempt.getErrorCategory())
+                        .createdAt(attempt.getCreatedAt())
+                        .build();
                 attempt.setStatus(status);
                 attempt.setProcessingTimeMs(processingTimeMs);
                 attempt.setFailureReason(failureReason);
@@ -164,6 +330,13 @@ public class DatabaseLoggingService {
                 attempt.setCompletedAt(Instant.now());
                 
                 retryAttemptRepository.save(attempt);
+                return snapshot;
+            });
+            
+            if (previous != null) {
+                // Recorded after commit so a rolled-back update does not move the attempt in the rollups
+                rollupAggregator.recordRetryCompleted(previous.getTopic(), previous.getCreatedAt(), previous.getStatus(),
+                        previous.getErrorCategory(), status, processingTimeMs);
                 log.debug("Updated retry attempt status: {} -> {}", retryAttemptId, status);
             }
         } catch (Exception e) {
@@ -172,19 +345,76 @@ public class DatabaseLoggingService {
     }
     
     // Query methods for monitoring and analytics
+    @Transactional(readOnly = true)
     public List<MessageLog> getMessageHistory(String messageId) {
-        return messageLogRepository.findMessageHistory(messageId);
+        List<MessageLog> history = messageLogRepository.findMessageHistory(messageId);
+        payloadStore.resolve(history, MessageLog::getPayloadHash, MessageLog::getOriginalMessage,
+                MessageLog::setOriginalMessage);
+        return history;
+    }
+    
+    @Transactional(readOnly = true)
+    public List<RetryAttempt> getRetryHistory(String messageId) {
+        List<RetryAttempt> attempts = retryAttemptRepository.findByMessageId(messageId);
+        payloadStore.resolve(attempts, RetryAttempt::getPayloadHash, RetryAttempt::getOriginalMessage,
+                RetryAttempt::setOriginalMessage);
+        return attempts;
+    }
+    
+    @Transactional(readOnly = true)
+    public List<DeadLetterMessage> getDeadLetterHistory(String messageId) {
+        List<DeadLetterMessage> messages = deadLetterMessageRepository.findByMessageId(messageId);
+        payloadStore.resolve(messages, DeadLetterMessage::getPayloadHash, DeadLetterMessage::getOriginalMessage,
+                DeadLetterMessage::setOriginalMessage);
+        return messages;
+    }
+    
+    @Transactional(readOnly = true)
+    public String getPayload(String payloadHash) {
+        return payloadStore.load(payloadHash);
     }
     
+    @Transactional(readOnly = true)
     public List<Object[]> getErrorCategoryStats(Instant since) {
         return messageLogRepository.getErrorCategoryStats(since);
     }
     
+    @Transactional(readOnly = true)
     public List<Object[]> getProcessingStatusStats(Instant since) {
         return messageLogRepository.getProcessingStatusStats(since);
     }
     
+    @Transactional(readOnly = true)
     public Long getMessageCountByStatus(String status, Instant since) {
         return messageLogRepository.countByProcessingStatusSince(status, since);
     }
+    
+    @Transactional(readOnly = true)
+    public List<Object[]> getRetryStatusStats(Instant since) {
+        return retryAttemptRepository.getRetryStatusStats(since);
+    }
+    
+    @Transactional(readOnly = true)
+    public List<Object[]> getDeadLetterErrorCategoryStats(Instant since) {
+        return deadLetterMessageRepository.getErrorCategoryStats(since);
+    }
+    
+    public DatabaseLogWriteBehind.WriteBehindStats getWriteBehindStats() {
+        return writeBehind.getStats();
+    }
+    
+    public int getPendingLifecycleCount() {
+        return lifecycleTracker.getPendingCount();
+    }
+    
+    /**
+     * How message_logs rows are written.
+     * CLASSIC inserts a RECEIVED row and updates it with the outcome;
+     * LIFECYCLE writes a single row per message once the outcome is known.
+     * An enabled LoggingPolicy implies LIFECYCLE, since sampling needs the outcome before writing.
+     */
+    public enum LoggingMode {
+        CLASSIC,
+        LIFECYCLE
+    }
 }
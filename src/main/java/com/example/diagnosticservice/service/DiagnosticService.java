@@ -5,7 +5,6 @@ import com.example.diagnosticservice.model.FailedProjectionMessage;
 import com.example.diagnosticservice.model.ProjectionMessage;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,6 +18,7 @@ import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -30,6 +30,8 @@ public class DiagnosticService {
     private final RetryService retryService;
     private final MessageAttemptTracker attemptTracker;
     private final DatabaseLoggingService databaseLoggingService;
+    private final FailedProjectionFlowControl flowControl;
+    private final LatencyRecorder latencyRecorder;
 
     @Value("${kafka.topics.dead-letter-queue:dead-letter-queue}")
     private String deadLetterQueueTopic;
@@ -42,13 +44,17 @@ public class DiagnosticService {
                            ErrorClassificationService errorClassificationService,
                            RetryService retryService,
                            MessageAttemptTracker attemptTracker,
-                           DatabaseLoggingService databaseLoggingService) {
+                           DatabaseLoggingService databaseLoggingService,
+                           FailedProjectionFlowControl flowControl,
+                           LatencyRecorder latencyRecorder) {
         this.kafkaTemplate = kafkaTemplate;
         this.circuitBreaker = circuitBreaker;
         this.errorClassificationService = errorClassificationService;
         this.retryService = retryService;
         this.attemptTracker = attemptTracker;
         this.databaseLoggingService = databaseLoggingService;
+        this.flowControl = flowControl;
+        this.latencyRecorder = latencyRecorder;
     }
 
     @KafkaListener(topics = "${kafka.topics.projection-processing-queue:projection-processing-queue}", 
@@ -61,6 +67,7 @@ public class DiagnosticService {
             @Header(KafkaHeaders.OFFSET) long offset,
             Acknowledgment acknowledgment) {
         
+        long handlerStart = System.nanoTime();
         String messageId = message.getId() != null ? message.getId() : 
                           (key != null ? key : generateMessageId(topic, partition, offset));
         
@@ -83,29 +90,32 @@ public class DiagnosticService {
             // Log successful processing
             long processingTime = System.currentTimeMillis() - startTime;
             databaseLoggingService.logMessageProcessing(
-                messageId, "SUCCESS", null, 
+                messageId, topic, "SUCCESS", null, 
                 circuitBreaker.getState().name(), processingTime, null
             );
             
             // Acknowledge the message only after successful processing
             acknowledgment.acknowledge();
             log.debug("Successfully processed and acknowledged message: {}", messageId);
+            latencyRecorder.record(LatencyRecorder.PROJECTION_HANDLER, System.nanoTime() - handlerStart, false);
             
         } catch (Exception e) {
             log.error("Error processing projection message: {}", messageId, e);
             long processingTime = System.currentTimeMillis() - startTime;
             databaseLoggingService.logMessageProcessing(
-                messageId, "FAILED", null, 
+                messageId, topic, "FAILED", null, 
                 circuitBreaker.getState().name(), processingTime, "Processing error: " + e.getMessage()
             );
             
             // Send to failed projection messages topic for retry logic
             sendToFailedProjectionTopic(messageId, message.toString(), "Processing error: " + e.getMessage(), topic, partition, offset);
             acknowledgment.acknowledge();
+            latencyRecorder.record(LatencyRecorder.PROJECTION_HANDLER, System.nanoTime() - handlerStart, true);
         }
     }
 
-    @KafkaListener(topics = "${kafka.topics.failed-projection-messages:failed-projection-messages}")
+    @KafkaListener(id = FailedProjectionFlowControl.LISTENER_ID, idIsGroup = false,
+                   topics = "${kafka.topics.failed-projection-messages:failed-projection-messages}")
     public void handleFailedProjectionMessage(
             @Payload FailedProjectionMessage failedMessage,
             @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
@@ -113,7 +123,27 @@ public class DiagnosticService {
             @Header(KafkaHeaders.OFFSET) long offset,
             Acknowledgment acknowledgment) {
         
+        long handlerStart = System.nanoTime();
         String messageId = failedMessage.getMessageId() != null ? failedMessage.getMessageId() : generateMessageId(topic, partition, offset);
+
+        // While the circuit breaker is HALF_OPEN only a trickle of messages is let through
+        if (!flowControl.acquirePermission()) {
+            log.debug("Throttled failed projection message {}, redelivering in {}", messageId, flowControl.getRedeliveryDelay());
+            acknowledgment.nack(flowControl.getRedeliveryDelay());
+            return;
+        }
+        
+        // Ask the breaker before anything is logged: a rejected message is redelivered, so logging it here
+        // would write rows and count an outcome again on every delivery
+        if (!circuitBreaker.tryAcquirePermission()) {
+            log.warn("Circuit breaker is {}, redelivering message {} in {}",
+                    circuitBreaker.getState(), messageId, flowControl.getRedeliveryDelay());
+            // The listener is paused while the breaker is open; the message waits in Kafka instead of going to the DLQ
+            acknowledgment.nack(flowControl.getRedeliveryDelay());
+            latencyRecorder.recordRejected(LatencyRecorder.CIRCUIT_BREAKER_CALL);
+            latencyRecorder.recordRejected(LatencyRecorder.FAILED_PROJECTION_HANDLER);
+            return;
+        }
         
         log.info("Received failed projection message: {} from topic: {}, partition: {}, offset: {}", 
                 messageId, topic, partition, offset);
@@ -128,42 +158,50 @@ public class DiagnosticService {
 
         long startTime = System.currentTimeMillis();
         try {
-            // Execute within circuit breaker
-            circuitBreaker.executeSupplier(() -> {
-                processFailedMessage(messageId, failedMessage, topic, partition, offset);
-                return null;
-            });
+            // Execute within circuit breaker, on the permission acquired above
+            executeInCircuitBreaker(() -> processFailedMessage(messageId, failedMessage, topic, partition, offset));
             
             // Log successful processing
             long processingTime = System.currentTimeMillis() - startTime;
             databaseLoggingService.logMessageProcessing(
-                messageId, "SUCCESS", null, 
+                messageId, topic, "SUCCESS", null, 
                 circuitBreaker.getState().name(), processingTime, null
             );
             
             // Acknowledge the message only after successful processing
             acknowledgment.acknowledge();
             log.debug("Successfully processed and acknowledged message: {}", messageId);
-            
-        } catch (CallNotPermittedException e) {
-            log.warn("Circuit breaker is OPEN, sending message {} to DLQ without processing", messageId);
-            long processingTime = System.currentTimeMillis() - startTime;
-            databaseLoggingService.logMessageProcessing(
-                messageId, "CIRCUIT_BREAKER_OPEN", null, 
-                circuitBreaker.getState().name(), processingTime, "Circuit breaker open - service unavailable"
-            );
-            sendToDeadLetterQueue(messageId, failedMessage.getOriginalMessage(), "Circuit breaker open - service unavailable", 0);
-            acknowledgment.acknowledge(); // Still acknowledge to prevent reprocessing
+            latencyRecorder.record(LatencyRecorder.FAILED_PROJECTION_HANDLER, System.nanoTime() - handlerStart, false);
             
         } catch (Exception e) {
             log.error("Error processing failed projection message: {}", messageId, e);
             long processingTime = System.currentTimeMillis() - startTime;
             databaseLoggingService.logMessageProcessing(
-                messageId, "FAILED", null, 
+                messageId, topic, "FAILED", null, 
                 circuitBreaker.getState().name(), processingTime, "Processing error: " + e.getMessage()
             );
             sendToDeadLetterQueue(messageId, failedMessage.getOriginalMessage(), "Processing error: " + e.getMessage(), 0);
             acknowledgment.acknowledge(); // Acknowledge to prevent infinite reprocessing
+            latencyRecorder.record(LatencyRecorder.FAILED_PROJECTION_HANDLER, System.nanoTime() - handlerStart, true);
+        }
+    }
+
+    /**
+     * Runs a call on a circuit breaker permission the caller already acquired, reporting its outcome
+     * to the breaker and recording its latency
+     */
+    private void executeInCircuitBreaker(Runnable call) {
+        long start = System.nanoTime();
+        try {
+            call.run();
+            long duration = System.nanoTime() - start;
+            circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+            latencyRecorder.record(LatencyRecorder.CIRCUIT_BREAKER_CALL, duration, false);
+        } catch (RuntimeException e) {
+            long duration = System.nanoTime() - start;
+            circuitBreaker.onError(duration, TimeUnit.NANOSECONDS, e);
+            latencyRecorder.record(LatencyRecorder.CIRCUIT_BREAKER_CALL, duration, true);
+            throw e;
         }
     }
 
@@ -398,6 +436,7 @@ public class DiagnosticService {
             @Header(KafkaHeaders.OFFSET) long offset,
             Acknowledgment acknowledgment) {
         
+        long handlerStart = System.nanoTime();
         String messageId = "raw-" + offset + "-" + partition;
         
         log.warn("Processing raw message (deserialization failed): {} from topic: {}, partition: {}, offset: {}", 
@@ -411,6 +450,7 @@ public class DiagnosticService {
             
             // If successful, process it normally
             handleProjectionMessage(message, topic, partition, key, offset, acknowledgment);
+            latencyRecorder.record(LatencyRecorder.RAW_MESSAGE_HANDLER, System.nanoTime() - handlerStart, false);
             
         } catch (Exception e) {
             log.error("Failed to parse raw message: {}", rawMessage, e);
@@ -424,7 +464,7 @@ public class DiagnosticService {
             );
             
             databaseLoggingService.logMessageProcessing(
-                messageId, "FAILED", null, 
+                messageId, topic, "FAILED", null, 
                 circuitBreaker.getState().name(), 0L, 
                 "Deserialization failed: " + e.getMessage()
             );
@@ -432,6 +472,7 @@ public class DiagnosticService {
             // Send to failed projection messages topic
             sendToFailedProjectionTopic(messageId, rawMessage, "Deserialization failed: " + e.getMessage(), topic, partition, offset);
             acknowledgment.acknowledge();
+            latencyRecorder.record(LatencyRecorder.RAW_MESSAGE_HANDLER, System.nanoTime() - handlerStart, true);
         }
     }
 }
@@ -0,0 +1,231 @@
+package com.example.diagnosticservice.service;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breakers and semaphore bulkheads for the REST endpoints packet sessions read from,
+ * one of each per endpoint host. A dead endpoint fails fast once its breaker opens, and a slow one
+ * can only hold a limited number of workers, so one vendor cannot stall every session.
+ * By default that limit adapts to the endpoint's latency and overload responses (see
+ * {@link AdaptiveConcurrencyLimiter}); with the adaptive limit disabled a fixed bulkhead is used instead.
+ * These are separate from the diagnosticService breaker that guards the Kafka path.
+ */
+@Component
+@Slf4j
+public class EndpointResilienceRegistry {
+
+    private final DatabaseLoggingService databaseLoggingService;
+    private final CircuitBreakerEventAggregator eventAggregator;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.failure-rate-threshold:50}")
+    private float failureRateThreshold = 50;
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.sliding-window-size:20}")
+    private int slidingWindowSize = 20;
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.minimum-number-of-calls:5}")
+    private int minimumNumberOfCalls = 5;
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.wait-duration-open-state:30s}")
+    private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.slow-call-duration-threshold:10s}")
+    private Duration slowCallDurationThreshold = Duration.ofSeconds(10);
+
+    @Value("${packet.processing.endpoint-resilience.circuit-breaker.slow-call-rate-threshold:80}")
+    private float slowCallRateThreshold = 80;
+
+    @Value("${packet.processing.endpoint-resilience.bulkhead.max-concurrent-calls:4}")
+    private int maxConcurrentCalls = 4;
+
+    @Value("${packet.processing.endpoint-resilience.bulkhead.max-wait-duration:500ms}")
+    private Duration maxWaitDuration = Duration.ofMillis(500);
+
+    @Value("${packet.processing.endpoint-resilience.bulkhead.backoff:5s}")
+    private Duration bulkheadBackoff = Duration.ofSeconds(5);
+
+    @Value("${packet.processing.endpoint-resilience.adaptive-limit.enabled:true}")
+    private boolean adaptiveLimitEnabled = true;
+
+    @Value("${packet.processing.endpoint-resilience.adaptive-limit.initial-limit:4}")
+    private int initialLimit = 4;
+
+    @Value("${packet.processing.endpoint-resilience.adaptive-limit.min-limit:1}")
+    private int minLimit = 1;
+
+    @Value("${packet.processing.endpoint-resilience.adaptive-limit.max-limit:32}")
+    private int maxLimit = 32;
+
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    private BulkheadRegistry bulkheadRegistry;
+
+    public EndpointResilienceRegistry(DatabaseLoggingService databaseLoggingService,
+                                      CircuitBreakerEventAggregator eventAggregator,
+                                      MeterRegistry meterRegistry) {
+        this.databaseLoggingService = databaseLoggingService;
+        this.eventAggregator = eventAggregator;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumNumberOfCalls)
+                .waitDurationInOpenState(waitDurationInOpenState)
+                .slowCallDurationThreshold(slowCallDurationThreshold)
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                // A rejected request says nothing about whether the endpoint is up
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build());
+        circuitBreakerRegistry.getEventPublisher().onEntryAdded(event -> registerListeners(event.getAddedEntry()));
+
+        bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(maxWaitDuration)
+                .build());
+
+        if (adaptiveLimitEnabled) {
+            log.info("Endpoint resilience configured with: failureRateThreshold={}%, waitDurationInOpenState={}, " +
+                    "adaptive concurrency limit {} (min {}, max {})", failureRateThreshold, waitDurationInOpenState,
+                    initialLimit, minLimit, maxLimit);
+        } else {
+            log.info("Endpoint resilience configured with: failureRateThreshold={}%, waitDurationInOpenState={}, " +
+                    "maxConcurrentCalls={}, maxWaitDuration={}", failureRateThreshold, waitDurationInOpenState,
+                    maxConcurrentCalls, maxWaitDuration);
+        }
+    }
+
+    /**
+     * Runs a call to an endpoint through the endpoint's concurrency limit and circuit breaker
+     *
+     * @throws CallNotPermittedException if the endpoint's breaker is open
+     * @throws AdaptiveConcurrencyLimiter.LimitExceededException if the endpoint's adaptive limit is reached
+     * @throws BulkheadFullException if the adaptive limit is disabled and the fixed bulkhead is full
+     */
+    public <T> T execute(String endpointUrl, Supplier<T> call) {
+        String key = "endpoint:" + endpointKey(endpointUrl);
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(key);
+        Supplier<T> guardedCall = CircuitBreaker.decorateSupplier(circuitBreaker, call);
+        // The limit sits outside the breaker, so a rejection is not counted as an endpoint failure
+        if (adaptiveLimitEnabled) {
+            return limiter(key).execute(guardedCall, EndpointResilienceRegistry::isOverload);
+        }
+        return Bulkhead.decorateSupplier(bulkheadRegistry.bulkhead(key), guardedCall).get();
+    }
+
+    /**
+     * Whether a call was rejected, or would be retried, for no other reason than a busy endpoint
+     */
+    public static boolean isRejection(Throwable ex) {
+        return ex instanceof CallNotPermittedException || ex instanceof BulkheadFullException
+                || ex instanceof AdaptiveConcurrencyLimiter.LimitExceededException;
+    }
+
+    /**
+     * How long a session should wait before calling the endpoint again after a rejection
+     */
+    public Duration backoffFor(Throwable rejection) {
+        return rejection instanceof CallNotPermittedException ? waitDurationInOpenState : bulkheadBackoff;
+    }
+
+    /**
+     * Current adaptive concurrency limit of an endpoint, or null if it has not been called yet
+     */
+    public Integer getConcurrencyLimit(String endpointUrl) {
+        AdaptiveConcurrencyLimiter limiter = limiters.get("endpoint:" + endpointKey(endpointUrl));
+        return limiter != null ? limiter.getLimit() : null;
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String key) {
+        return limiters.computeIfAbsent(key, name -> {
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(name, initialLimit, minLimit, maxLimit);
+            Gauge.builder("packet.endpoint.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                    .description("Adaptive concurrency limit of a packet endpoint")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            Gauge.builder("packet.endpoint.concurrency.in_flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            return limiter;
+        });
+    }
+
+    /**
+     * HTTP 429 and 503 are the endpoint telling us to send less
+     */
+    static boolean isOverload(RuntimeException ex) {
+        if (ex instanceof HttpStatusCodeException e) {
+            int status = e.getStatusCode().value();
+            return status == 429 || status == 503;
+        }
+        return false;
+    }
+
+    public CircuitBreaker.State getState(String endpointUrl) {
+        return circuitBreakerRegistry.circuitBreaker("endpoint:" + endpointKey(endpointUrl)).getState();
+    }
+
+    /**
+     * Endpoints are grouped by host and port, so all paths of one vendor share a breaker and bulkhead
+     */
+    static String endpointKey(String endpointUrl) {
+        try {
+            URI uri = URI.create(endpointUrl);
+            if (uri.getHost() != null) {
+                String host = uri.getHost().toLowerCase(Locale.ROOT);
+                return uri.getPort() > 0 ? host + ":" + uri.getPort() : host;
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Could not parse endpoint URL {}: {}", endpointUrl, e.getMessage());
+        }
+        return String.valueOf(endpointUrl);
+    }
+
+    private void registerListeners(CircuitBreaker circuitBreaker) {
+        String name = circuitBreaker.getName();
+        circuitBreaker.getEventPublisher()
+                .onStateTransition(event -> {
+                    log.info("Endpoint circuit breaker {} state transition: {} -> {}", name,
+                            event.getStateTransition().getFromState(), event.getStateTransition().getToState());
+                    databaseLoggingService.logCircuitBreakerEvent(
+                        name, "STATE_TRANSITION",
+                        event.getStateTransition().getFromState().name(),
+                        event.getStateTransition().getToState().name(),
+                        null, null, null, null, null,
+                        String.format("State transition from %s to %s",
+                            event.getStateTransition().getFromState(), event.getStateTransition().getToState())
+                    );
+                })
+                .onCallNotPermitted(event ->
+                        eventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED, null))
+                .onError(event -> eventAggregator.recordCall(circuitBreaker, event.getElapsedDuration(), true))
+                .onSuccess(event -> eventAggregator.recordCall(circuitBreaker, event.getElapsedDuration(), false));
+    }
+}
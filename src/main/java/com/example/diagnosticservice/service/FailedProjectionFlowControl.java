@@ -0,0 +1,125 @@
+package com.example.diagnosticservice.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Throttles the failed-projection-messages listener by the state of the diagnosticService circuit breaker.
+ * While the breaker is OPEN the container is paused, so the backlog stays in Kafka instead of turning
+ * into DLQ traffic and log rows. In HALF_OPEN consumption resumes at a trickle rate, and once the
+ * breaker CLOSES the listener runs at full rate again.
+ */
+@Component
+@Slf4j
+public class FailedProjectionFlowControl {
+
+    public static final String LISTENER_ID = "failedProjectionListener";
+
+    private final CircuitBreaker circuitBreaker;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Value("${diagnostic.service.kafka-flow-control.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${diagnostic.service.kafka-flow-control.half-open-rate-per-second:2}")
+    private int halfOpenRatePerSecond = 2;
+
+    @Value("${diagnostic.service.kafka-flow-control.permit-wait:1s}")
+    private Duration permitWait = Duration.ofSeconds(1);
+
+    @Value("${diagnostic.service.kafka-flow-control.redelivery-delay:5s}")
+    private Duration redeliveryDelay = Duration.ofSeconds(5);
+
+    private RateLimiter trickleLimiter;
+    private volatile boolean trickling;
+
+    public FailedProjectionFlowControl(CircuitBreaker circuitBreaker, KafkaListenerEndpointRegistry listenerRegistry) {
+        this.circuitBreaker = circuitBreaker;
+        this.listenerRegistry = listenerRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        trickleLimiter = RateLimiter.of(LISTENER_ID, RateLimiterConfig.custom()
+                .limitForPeriod(Math.max(1, halfOpenRatePerSecond))
+                .limitRefreshPeriod(Duration.ofSeconds(1))
+                .timeoutDuration(permitWait)
+                .build());
+        if (!enabled) {
+            return;
+        }
+        circuitBreaker.getEventPublisher().onStateTransition(event -> onStateChange(event.getStateTransition().getToState()));
+        log.info("Kafka flow control enabled for {}: paused while {} is OPEN, {} msg/s while HALF_OPEN",
+                LISTENER_ID, circuitBreaker.getName(), halfOpenRatePerSecond);
+    }
+
+    void onStateChange(CircuitBreaker.State state) {
+        try {
+            switch (state) {
+                case OPEN, FORCED_OPEN -> {
+                    trickling = false;
+                    withContainer(container -> {
+                        container.pause();
+                        log.warn("Paused {} while circuit breaker {} is {}", LISTENER_ID, circuitBreaker.getName(), state);
+                    });
+                }
+                case HALF_OPEN -> {
+                    trickling = true;
+                    withContainer(container -> {
+                        container.resume();
+                        log.info("Resumed {} at {} msg/s while circuit breaker {} is HALF_OPEN",
+                                LISTENER_ID, halfOpenRatePerSecond, circuitBreaker.getName());
+                    });
+                }
+                default -> {
+                    trickling = false;
+                    withContainer(container -> {
+                        container.resume();
+                        log.info("Resumed {} at full rate, circuit breaker {} is {}", LISTENER_ID, circuitBreaker.getName(), state);
+                    });
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply circuit breaker state {} to listener {}", state, LISTENER_ID, e);
+        }
+    }
+
+    /**
+     * Waits for permission to process a message; always granted outside HALF_OPEN
+     *
+     * @return false if the message should be redelivered later instead
+     */
+    public boolean acquirePermission() {
+        return !enabled || !trickling || trickleLimiter.acquirePermission();
+    }
+
+    /**
+     * How long a message that could not be processed because of the breaker waits before redelivery
+     */
+    public Duration getRedeliveryDelay() {
+        return redeliveryDelay;
+    }
+
+    public boolean isTrickling() {
+        return trickling;
+    }
+
+    private void withContainer(Consumer<MessageListenerContainer> action) {
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(LISTENER_ID);
+        if (container == null) {
+            log.warn("Listener container {} not found; flow control has no effect", LISTENER_ID);
+            return;
+        }
+        action.accept(container);
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.diagnosticservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms for circuit breaker calls and Kafka listener handlers.
+ * Calls are recorded into an HdrHistogram Recorder without locking; once per second the interval
+ * histogram is reduced to p50/p95/p99/max, throughput and failure rate and stored in a fixed ring of
+ * per-second slots, by default one hour deep. The ring is preallocated, and the view served to
+ * callers is rebuilt at most once per second however often it is requested.
+ */
+@Component
+@Slf4j
+public class LatencyRecorder {
+
+    public static final String CIRCUIT_BREAKER_CALL = "circuit-breaker-call";
+    public static final String PROJECTION_HANDLER = "projection-handler";
+    public static final String FAILED_PROJECTION_HANDLER = "failed-projection-handler";
+    public static final String RAW_MESSAGE_HANDLER = "raw-message-handler";
+
+    // Calls slower than this are recorded as this value
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    @Value("${diagnostic.service.latency.history-seconds:3600}")
+    private int historySeconds = 3600;
+
+    private final Map<String, OperationSeries> operations = new ConcurrentHashMap<>();
+    private volatile long tick;
+    private Map<String, Object> cachedView;
+    private long cachedViewTick = -1;
+
+    /**
+     * Records one call
+     *
+     * @param operation One of the operation constants
+     * @param durationNanos Duration of the call
+     * @param failed Whether the call failed
+     */
+    public void record(String operation, long durationNanos, boolean failed) {
+        OperationSeries series = series(operation);
+        long micros = Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos)));
+        series.recorder.recordValue(micros);
+        if (failed) {
+            series.failures.increment();
+        }
+    }
+
+    /**
+     * Counts a call that was rejected without running, e.g. by an open circuit breaker; it has no latency
+     */
+    public void recordRejected(String operation) {
+        series(operation).rejections.increment();
+    }
+
+    /**
+     * Closes the current second of every operation and stores it in the ring
+     */
+    @Scheduled(fixedRate = 1000)
+    public void tick() {
+        long second = Instant.now().getEpochSecond();
+        for (OperationSeries series : operations.values()) {
+            try {
+                series.close(second);
+            } catch (Exception e) {
+                log.error("Failed to close latency interval for {}", series.name, e);
+            }
+        }
+        tick++;
+    }
+
+    /**
+     * Per-second history of every operation, oldest first. The returned map is shared and must not be modified
+     */
+    public synchronized Map<String, Object> getView() {
+        if (cachedView == null || cachedViewTick != tick) {
+            long viewTick = tick;
+            Map<String, Object> view = new LinkedHashMap<>();
+            Map<String, Object> series = new LinkedHashMap<>();
+            operations.values().stream()
+                    .sorted((a, b) -> a.name.compareTo(b.name))
+                    .forEach(operation -> series.put(operation.name, operation.toView()));
+            view.put("operations", series);
+            view.put("historySeconds", historySeconds);
+            view.put("timestamp", Instant.now());
+            cachedView = Collections.unmodifiableMap(view);
+            cachedViewTick = viewTick;
+        }
+        return cachedView;
+    }
+
+    /**
+     * The most recent closed second of an operation, or null if it has none
+     */
+    public SecondSnapshot getLatest(String operation) {
+        OperationSeries series = operations.get(operation);
+        return series != null ? series.latest() : null;
+    }
+
+    private OperationSeries series(String operation) {
+        return operations.computeIfAbsent(operation, name -> new OperationSeries(name, Math.max(1, historySeconds)));
+    }
+
+    /**
+     * Ring of per-second slots for one operation, stored as parallel arrays so closing a second allocates nothing
+     */
+    private static class OperationSeries {
+        private final String name;
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private Histogram interval;
+
+        private final long[] epochSeconds;
+        private final long[] counts;
+        private final long[] failureCounts;
+        private final long[] rejectionCounts;
+        private final long[] p50;
+        private final long[] p95;
+        private final long[] p99;
+        private final long[] max;
+        private int next;
+        private int size;
+
+        OperationSeries(String name, int capacity) {
+            this.name = name;
+            this.epochSeconds = new long[capacity];
+            this.counts = new long[capacity];
+            this.failureCounts = new long[capacity];
+            this.rejectionCounts = new long[capacity];
+            this.p50 = new long[capacity];
+            this.p95 = new long[capacity];
+            this.p99 = new long[capacity];
+            this.max = new long[capacity];
+        }
+
+        synchronized void close(long epochSecond) {
+            interval = recorder.getIntervalHistogram(interval);
+            int slot = next;
+            epochSeconds[slot] = epochSecond;
+            counts[slot] = interval.getTotalCount();
+            failureCounts[slot] = failures.sumThenReset();
+            rejectionCounts[slot] = rejections.sumThenReset();
+            p50[slot] = interval.getValueAtPercentile(50);
+            p95[slot] = interval.getValueAtPercentile(95);
+            p99[slot] = interval.getValueAtPercentile(99);
+            max[slot] = interval.getMaxValue();
+            next = (slot + 1) % epochSeconds.length;
+            size = Math.min(size + 1, epochSeconds.length);
+        }
+
+        synchronized SecondSnapshot latest() {
+            if (size == 0) {
+                return null;
+            }
+            int slot = (next - 1 + epochSeconds.length) % epochSeconds.length;
+            return new SecondSnapshot(epochSeconds[slot], counts[slot], failureCounts[slot], rejectionCounts[slot],
+                    p50[slot], p95[slot], p99[slot], max[slot]);
+        }
+
+        synchronized Map<String, Object> toView() {
+            int start = (next - size + epochSeconds.length) % epochSeconds.length;
+            double[] failureRates = new double[size];
+            long[] orderedCounts = ordered(counts, start);
+            long[] orderedFailures = ordered(failureCounts, start);
+            for (int i = 0; i < size; i++) {
+                failureRates[i] = orderedCounts[i] > 0 ? 100.0 * orderedFailures[i] / orderedCounts[i] : 0.0;
+            }
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("epochSeconds", ordered(epochSeconds, start));
+            view.put("throughput", orderedCounts);
+            view.put("failures", orderedFailures);
+            view.put("failureRate", failureRates);
+            view.put("rejected", ordered(rejectionCounts, start));
+            view.put("p50Micros", ordered(p50, start));
+            view.put("p95Micros", ordered(p95, start));
+            view.put("p99Micros", ordered(p99, start));
+            view.put("maxMicros", ordered(max, start));
+            return view;
+        }
+
+        private long[] ordered(long[] ring, int start) {
+            long[] values = new long[size];
+            int firstPart = Math.min(size, ring.length - start);
+            System.arraycopy(ring, start, values, 0, firstPart);
+            System.arraycopy(ring, 0, values, firstPart, size - firstPart);
+            return values;
+        }
+    }
+
+    /**
+     * One closed second of an operation; latencies are in microseconds
+     */
+    public static class SecondSnapshot {
+        private final long epochSecond;
+        private final long throughput;
+        private final long failures;
+        private final long rejected;
+        private final long p50Micros;
+        private final long p95Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        SecondSnapshot(long epochSecond, long throughput, long failures, long rejected,
+                       long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+            this.epochSecond = epochSecond;
+            this.throughput = throughput;
+            this.failures = failures;
+            this.rejected = rejected;
+            this.p50Micros = p50Micros;
+            this.p95Micros = p95Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getEpochSecond() {
+            return epochSecond;
+        }
+
+        public long getThroughput() {
+            return throughput;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public double getFailureRate() {
+            return throughput > 0 ? 100.0 * failures / throughput : 0.0;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP95Micros() {
+            return p95Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SecondSnapshot{second=%d, throughput=%d, failures=%d, rejected=%d, p50=%dus, p95=%dus, p99=%dus, max=%dus}",
+                    epochSecond, throughput, failures, rejected, p50Micros, p95Micros, p99Micros, maxMicros);
+        }
+    }
+}
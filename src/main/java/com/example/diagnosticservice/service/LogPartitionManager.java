@@ -0,0 +1,322 @@
+package com.example.diagnosticservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the created_at range partitions of the log tables (see V8 migration).
+ * Future partitions are created ahead of time and partitions older than the retention
+ * period are dropped or detached, which is far cheaper than DELETE-based cleanup.
+ * Rows that landed in the DEFAULT partition because their partition did not exist yet are moved
+ * into it when it is created.
+ * Payloads older than the retention period that are no longer referenced are purged afterwards
+ * (unless expired partitions are detached, as their rows still reference payloads), and so are rollup rows and lifecycle keys older than the retention period.
+ */
+@Component
+@Slf4j
+public class LogPartitionManager {
+
+    static final List<String> PARTITIONED_TABLES =
+            List.of("message_logs", "retry_attempts", "dead_letter_messages", "circuit_breaker_events");
+
+    private static final Pattern RANGE_BOUND = Pattern.compile(
+            "FOR VALUES FROM \\((MINVALUE|'([^']+)')\\) TO \\((MAXVALUE|'([^']+)')\\)");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final String LIST_PARTITIONS =
+            "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i " +
+            "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = ?::regclass";
+
+    private static final String FIND_DEFAULT_PARTITION =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = ?::regclass AND pg_get_expr(c.relpartbound, c.oid) = 'DEFAULT'";
+
+    // Payloads are shared between rows, so they are purged once nothing references them any more
+    private static final String PURGE_ORPHANED_PAYLOADS =
+            "DELETE FROM payloads WHERE hash IN (SELECT p.hash FROM payloads p WHERE p.created_at < ? " +
+            "AND NOT EXISTS (SELECT 1 FROM message_logs m WHERE m.payload_hash = p.hash) " +
+            "AND NOT EXISTS (SELECT 1 FROM retry_attempts r WHERE r.payload_hash = p.hash) " +
+            "AND NOT EXISTS (SELECT 1 FROM dead_letter_messages d WHERE d.payload_hash = p.hash) LIMIT ?)";
+    private static final int PAYLOAD_PURGE_BATCH_SIZE = 10000;
+
+    static final List<String> ROLLUP_TABLES =
+            List.of("message_log_rollups", "retry_attempt_rollups", "dead_letter_rollups");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${diagnostic.service.partitioning.enabled:true}")
+    private boolean enabled;
+
+    @Value("${diagnostic.service.partitioning.granularity:DAILY}")
+    private Granularity granularity;
+
+    @Value("${diagnostic.service.partitioning.premake-periods:7}")
+    private int premakePeriods;
+
+    @Value("${diagnostic.service.partitioning.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${diagnostic.service.partitioning.expired-action:DROP}")
+    private ExpiredAction expiredAction;
+
+    public LogPartitionManager(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Creates upcoming partitions and removes expired ones for every log table.
+     * Runs at startup and then on the configured interval.
+     */
+    @Scheduled(fixedRateString = "${diagnostic.service.partitioning.check-interval-ms:3600000}")
+    public void maintainPartitions() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (String table : PARTITIONED_TABLES) {
+            try {
+                maintainTable(table, now);
+            } catch (Exception e) {
+                log.error("Failed to maintain partitions for table {}", table, e);
+            }
+        }
+        LocalDateTime cutoff = now.truncatedTo(ChronoUnit.DAYS).minusDays(retentionDays);
+        // Detached partitions keep their rows, and those still reference their payloads; the purge only
+        // sees the attached tables, so it would strip the archived rows of their bodies
+        if (expiredAction != ExpiredAction.DETACH) {
+            try {
+                purgeOrphanedPayloads(cutoff);
+            } catch (Exception e) {
+                log.error("Failed to purge orphaned payloads", e);
+            }
+        }
+        for (String table : ROLLUP_TABLES) {
+            try {
+                int purged = jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket_start < ?", Timestamp.valueOf(cutoff));
+                if (purged > 0) {
+                    log.info("Purged {} rollup rows from {}", purged, table);
+                }
+            } catch (Exception e) {
+                log.error("Failed to purge rollups from {}", table, e);
+            }
+        }
+        try {
+            int purged = jdbcTemplate.update("DELETE FROM message_lifecycle_keys WHERE created_at < ?", Timestamp.valueOf(cutoff));
+            if (purged > 0) {
+                log.info("Purged {} message lifecycle keys", purged);
+            }
+        } catch (Exception e) {
+            log.error("Failed to purge message lifecycle keys", e);
+        }
+    }
+
+    private void purgeOrphanedPayloads(LocalDateTime cutoff) {
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(PURGE_ORPHANED_PAYLOADS, Timestamp.valueOf(cutoff), PAYLOAD_PURGE_BATCH_SIZE);
+            purged += deleted;
+        } while (deleted == PAYLOAD_PURGE_BATCH_SIZE);
+
+        if (purged > 0) {
+            log.info("Purged {} payloads no longer referenced by any log table", purged);
+        }
+    }
+
+    private void maintainTable(String table, LocalDateTime now) {
+        List<PartitionRange> partitions = listPartitions(table);
+
+        LocalDateTime upper = partitions.stream()
+                .map(PartitionRange::getTo)
+                .filter(to -> to != null)
+                .max(LocalDateTime::compareTo)
+                .orElse(granularity.periodStart(now));
+        LocalDateTime horizon = granularity.periodStart(now).plus(premakePeriods, granularity.unit);
+
+        String defaultPartition = jdbcTemplate.queryForList(FIND_DEFAULT_PARTITION, String.class, table).stream()
+                .findFirst()
+                .orElse(null);
+        int created = 0;
+        while (upper.isBefore(horizon)) {
+            LocalDateTime next = granularity.nextBoundary(upper);
+            try {
+                createPartition(table, defaultPartition, upper, next);
+                created++;
+            } catch (Exception e) {
+                // Later ranges are still created, so one bad range does not send every new row to the default partition
+                log.error("Failed to create partition {} of {}", partitionName(table, upper), table, e);
+            }
+            upper = next;
+        }
+
+        LocalDateTime cutoff = now.truncatedTo(ChronoUnit.DAYS).minusDays(retentionDays);
+        int expired = 0;
+        for (PartitionRange partition : partitions) {
+            if (!partition.isExpired(cutoff)) {
+                continue;
+            }
+            if (expiredAction == ExpiredAction.DETACH) {
+                jdbcTemplate.execute(String.format("ALTER TABLE %s DETACH PARTITION %s", table, partition.getName()));
+            } else {
+                jdbcTemplate.execute(String.format("DROP TABLE %s", partition.getName()));
+            }
+            expired++;
+        }
+
+        if (created > 0 || expired > 0) {
+            log.info("Maintained partitions for {}: {} created, {} {} (retention {} days)",
+                    table, created, expired, expiredAction == ExpiredAction.DETACH ? "detached" : "dropped", retentionDays);
+        }
+    }
+
+    /**
+     * Creates the partition for [from, to). Postgres refuses to create it while the default partition
+     * holds rows of that range (e.g. the application was down longer than premake-periods, or a row had
+     * a future created_at), so those rows are moved into the new partition in the same transaction
+     */
+    void createPartition(String table, String defaultPartition, LocalDateTime from, LocalDateTime to) {
+        String partitionName = partitionName(table, from);
+        String create = String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                partitionName, table, BOUND_FORMAT.format(from), BOUND_FORMAT.format(to));
+        Timestamp fromBound = Timestamp.valueOf(from);
+        Timestamp toBound = Timestamp.valueOf(to);
+        transactionTemplate.executeWithoutResult(status -> {
+            boolean stranded = defaultPartition != null && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    String.format("SELECT EXISTS (SELECT 1 FROM %s WHERE created_at >= ? AND created_at < ?)", defaultPartition),
+                    Boolean.class, fromBound, toBound));
+            if (!stranded) {
+                jdbcTemplate.execute(create);
+                return;
+            }
+            jdbcTemplate.execute(String.format("ALTER TABLE %s DETACH PARTITION %s", table, defaultPartition));
+            jdbcTemplate.execute(create);
+            int moved = jdbcTemplate.update(String.format(
+                    "WITH moved AS (DELETE FROM %s WHERE created_at >= ? AND created_at < ? RETURNING *) " +
+                    "INSERT INTO %s SELECT * FROM moved", defaultPartition, partitionName), fromBound, toBound);
+            jdbcTemplate.execute(String.format("ALTER TABLE %s ATTACH PARTITION %s DEFAULT", table, defaultPartition));
+            log.warn("Moved {} rows of {} from {} into new partition {}", moved, table, defaultPartition, partitionName);
+        });
+    }
+
+    private List<PartitionRange> listPartitions(String table) {
+        List<PartitionRange> partitions = new ArrayList<>();
+        jdbcTemplate.query(LIST_PARTITIONS, rs -> {
+            PartitionRange range = parseBound(rs.getString(1), rs.getString(2));
+            if (range != null) {
+                partitions.add(range);
+            }
+        }, table);
+        return partitions;
+    }
+
+    static String partitionName(String table, LocalDateTime from) {
+        return table + "_p" + NAME_FORMAT.format(from);
+    }
+
+    /**
+     * Parses a partition bound as rendered by pg_get_expr
+     *
+     * @return The range, or null for the default partition or an unrecognised bound
+     */
+    static PartitionRange parseBound(String name, String boundExpression) {
+        if (boundExpression == null) {
+            return null;
+        }
+        Matcher matcher = RANGE_BOUND.matcher(boundExpression);
+        if (!matcher.find()) {
+            return null;
+        }
+        LocalDateTime from = matcher.group(2) != null ? parseTimestamp(matcher.group(2)) : null;
+        LocalDateTime to = matcher.group(4) != null ? parseTimestamp(matcher.group(4)) : null;
+        return new PartitionRange(name, from, to);
+    }
+
+    private static LocalDateTime parseTimestamp(String value) {
+        // pg_get_expr omits fractional seconds when they are zero
+        int fraction = value.indexOf('.');
+        return LocalDateTime.parse(fraction > 0 ? value.substring(0, fraction) : value, BOUND_FORMAT);
+    }
+
+    /**
+     * Size of each new partition
+     */
+    public enum Granularity {
+        DAILY(ChronoUnit.DAYS),
+        WEEKLY(ChronoUnit.WEEKS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        LocalDateTime periodStart(LocalDateTime time) {
+            LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+            return this == WEEKLY ? day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : day;
+        }
+
+        /**
+         * The first period boundary after the given time, so partitions realign after a granularity change
+         */
+        LocalDateTime nextBoundary(LocalDateTime time) {
+            return periodStart(time).plus(1, unit);
+        }
+    }
+
+    /**
+     * What to do with partitions older than the retention period
+     */
+    public enum ExpiredAction {
+        DROP,
+        DETACH
+    }
+
+    /**
+     * A range partition; a null bound means MINVALUE or MAXVALUE
+     */
+    static class PartitionRange {
+        private final String name;
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+
+        PartitionRange(String name, LocalDateTime from, LocalDateTime to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        LocalDateTime getFrom() {
+            return from;
+        }
+
+        LocalDateTime getTo() {
+            return to;
+        }
+
+        boolean isExpired(LocalDateTime cutoff) {
+            return to != null && !to.isAfter(cutoff);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.diagnosticservice.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains the per-minute rollup tables that back the stats queries (see V10 and V11 migrations).
+ * The write path records count changes in memory and they are periodically added to the rollups
+ * with upserts, so stats cost O(minutes) instead of O(rows) and never scan the raw log tables.
+ * Rows are bucketed by the minute they were created and a status change moves the row from its old
+ * status to the new one, so the rollups match grouping the raw tables by created_at and current status.
+ * Counts are exact even when LoggingPolicy samples the rows written to message_logs.
+ */
+@Component
+@Slf4j
+public class LogRollupAggregator {
+
+    static final String RECEIVED = "RECEIVED";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<RollupKey, Rollup> rollups = new ConcurrentHashMap<>();
+
+    @Value("${diagnostic.service.rollups.enabled:true}")
+    private boolean enabled = true;
+
+    public LogRollupAggregator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void recordMessageReceived(String topic, Instant createdAt) {
+        record(RollupTable.MESSAGE_LOGS, createdAt, topic, RECEIVED, null, null, 1, null);
+    }
+
+    /**
+     * Moves a received message to its outcome status
+     *
+     * @param createdAt When the message was received; the outcome is counted in the same bucket
+     */
+    public void recordMessageOutcome(String topic, Instant createdAt, String processingStatus, String errorCategory,
+                                     Long processingTimeMs) {
+        record(RollupTable.MESSAGE_LOGS, createdAt, topic, RECEIVED, null, null, -1, null);
+        record(RollupTable.MESSAGE_LOGS, createdAt, topic, processingStatus, errorCategory, null, 1, processingTimeMs);
+    }
+
+    public void recordRetryAttempt(String topic, Instant createdAt, String status, String errorCategory) {
+        record(RollupTable.RETRY_ATTEMPTS, createdAt, topic, status, errorCategory, null, 1, null);
+    }
+
+    /**
+     * Moves a retry attempt from its previous status to its final one
+     */
+    public void recordRetryCompleted(String topic, Instant createdAt, String previousStatus, String errorCategory,
+                                     String status, Long processingTimeMs) {
+        record(RollupTable.RETRY_ATTEMPTS, createdAt, topic, previousStatus, errorCategory, null, -1, null);
+        record(RollupTable.RETRY_ATTEMPTS, createdAt, topic, status, errorCategory, null, 1, processingTimeMs);
+    }
+
+    public void recordDeadLetter(String sourceTopic, Instant createdAt, String processingStatus, String errorCategory,
+                                 String sourceService) {
+        record(RollupTable.DEAD_LETTERS, createdAt, sourceTopic, processingStatus, errorCategory, sourceService, 1, null);
+    }
+
+    private void record(RollupTable table, Instant createdAt, String topic, String status, String errorCategory,
+                        String sourceService, long countDelta, Long processingTimeMs) {
+        if (!enabled || status == null) {
+            return;
+        }
+        RollupKey key = new RollupKey(table, bucketStart(createdAt), topic, status, errorCategory, sourceService);
+        // compute holds the entry lock, so a concurrent flush either sees this change or leaves it for the next flush
+        rollups.compute(key, (k, rollup) -> {
+            Rollup current = rollup != null ? rollup : new Rollup();
+            current.count += countDelta;
+            if (processingTimeMs != null) {
+                current.totalProcessingTimeMs += processingTimeMs;
+                current.timedCount++;
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Adds the changes recorded since the last flush to the rollup tables
+     */
+    @Scheduled(fixedDelayString = "${diagnostic.service.rollups.flush-interval-ms:10000}")
+    public void flush() {
+        Map<RollupKey, Rollup> drained = drain();
+        if (drained.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        Map<RollupTable, List<Object[]>> batches = new EnumMap<>(RollupTable.class);
+        drained.forEach((key, rollup) -> {
+            if (!rollup.isEmpty()) {
+                batches.computeIfAbsent(key.table, table -> new ArrayList<>()).add(key.table.parameters(key, rollup, now));
+            }
+        });
+
+        batches.forEach((table, batch) -> {
+            try {
+                jdbcTemplate.batchUpdate(table.upsertSql, batch);
+                log.debug("Flushed {} {} rollups", batch.size(), table.tableName);
+            } catch (Exception e) {
+                log.error("Failed to flush {} {} rollups, keeping them for the next flush", batch.size(), table.tableName, e);
+                drained.forEach((key, rollup) -> {
+                    if (key.table == table) {
+                        merge(key, rollup);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Flushes the remaining changes on shutdown, so a redeploy does not lose the last interval's counts.
+     * Beans are destroyed after the context has stopped its lifecycle beans, so the Kafka listener
+     * containers have already stopped and no more changes are recorded after this flush.
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+        int pending = getPendingRollupCount();
+        if (pending > 0) {
+            log.error("Lost {} rollup changes on shutdown, rollups drift from the raw log tables", pending);
+        }
+    }
+
+    /**
+     * Removes and returns the changes recorded so far
+     */
+    Map<RollupKey, Rollup> drain() {
+        Map<RollupKey, Rollup> drained = new HashMap<>();
+        for (RollupKey key : rollups.keySet()) {
+            Rollup rollup = rollups.remove(key);
+            if (rollup != null) {
+                drained.put(key, rollup);
+            }
+        }
+        return drained;
+    }
+
+    private void merge(RollupKey key, Rollup failed) {
+        rollups.compute(key, (k, rollup) -> {
+            Rollup current = rollup != null ? rollup : new Rollup();
+            current.count += failed.count;
+            current.totalProcessingTimeMs += failed.totalProcessingTimeMs;
+            current.timedCount += failed.timedCount;
+            return current;
+        });
+    }
+
+    public int getPendingRollupCount() {
+        return rollups.size();
+    }
+
+    static LocalDateTime bucketStart(Instant createdAt) {
+        Instant at = createdAt != null ? createdAt : Instant.now();
+        // Local time, like the other TIMESTAMP columns written through JDBC
+        return LocalDateTime.ofInstant(at, ZoneId.systemDefault()).truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    /**
+     * The rollup tables and how a rollup is written to each
+     */
+    enum RollupTable {
+        MESSAGE_LOGS("message_log_rollups",
+                "INSERT INTO message_log_rollups (bucket_start, topic, processing_status, error_category, message_count, " +
+                "total_processing_time_ms, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (bucket_start, topic, processing_status, error_category) DO UPDATE SET " +
+                "message_count = message_log_rollups.message_count + EXCLUDED.message_count, " +
+                "total_processing_time_ms = message_log_rollups.total_processing_time_ms + EXCLUDED.total_processing_time_ms, " +
+                "updated_at = EXCLUDED.updated_at"),
+        RETRY_ATTEMPTS("retry_attempt_rollups",
+                "INSERT INTO retry_attempt_rollups (bucket_start, topic, status, error_category, attempt_count, " +
+                "total_processing_time_ms, timed_attempt_count, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (bucket_start, topic, status, error_category) DO UPDATE SET " +
+                "attempt_count = retry_attempt_rollups.attempt_count + EXCLUDED.attempt_count, " +
+                "total_processing_time_ms = retry_attempt_rollups.total_processing_time_ms + EXCLUDED.total_processing_time_ms, " +
+                "timed_attempt_count = retry_attempt_rollups.timed_attempt_count + EXCLUDED.timed_attempt_count, " +
+                "updated_at = EXCLUDED.updated_at"),
+        DEAD_LETTERS("dead_letter_rollups",
+                "INSERT INTO dead_letter_rollups (bucket_start, source_topic, processing_status, error_category, " +
+                "source_service, message_count, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT (bucket_start, source_topic, processing_status, error_category, source_service) DO UPDATE SET " +
+                "message_count = dead_letter_rollups.message_count + EXCLUDED.message_count, " +
+                "updated_at = EXCLUDED.updated_at");
+
+        private final String tableName;
+        private final String upsertSql;
+
+        RollupTable(String tableName, String upsertSql) {
+            this.tableName = tableName;
+            this.upsertSql = upsertSql;
+        }
+
+        String getTableName() {
+            return tableName;
+        }
+
+        Object[] parameters(RollupKey key, Rollup rollup, Timestamp now) {
+            Timestamp bucketStart = Timestamp.valueOf(key.bucketStart);
+            return switch (this) {
+                case MESSAGE_LOGS -> new Object[] {bucketStart, key.topic, key.status, key.errorCategory,
+                        rollup.count, rollup.totalProcessingTimeMs, now};
+                case RETRY_ATTEMPTS -> new Object[] {bucketStart, key.topic, key.status, key.errorCategory,
+                        rollup.count, rollup.totalProcessingTimeMs, rollup.timedCount, now};
+                case DEAD_LETTERS -> new Object[] {bucketStart, key.topic, key.status, key.errorCategory,
+                        key.sourceService, rollup.count, now};
+            };
+        }
+    }
+
+    /**
+     * One row of a rollup table; missing dimensions are stored as ''
+     */
+    static final class RollupKey {
+        private final RollupTable table;
+        private final LocalDateTime bucketStart;
+        private final String topic;
+        private final String status;
+        private final String errorCategory;
+        private final String sourceService;
+
+        RollupKey(RollupTable table, LocalDateTime bucketStart, String topic, String status, String errorCategory,
+                  String sourceService) {
+            this.table = table;
+            this.bucketStart = bucketStart;
+            this.topic = topic != null ? topic : "";
+            this.status = status;
+            this.errorCategory = errorCategory != null ? errorCategory : "";
+            this.sourceService = sourceService != null ? sourceService : "";
+        }
+
+        RollupTable getTable() {
+            return table;
+        }
+
+        LocalDateTime getBucketStart() {
+            return bucketStart;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        String getStatus() {
+            return status;
+        }
+
+        String getErrorCategory() {
+            return errorCategory;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RollupKey other)) {
+                return false;
+            }
+            return table == other.table && bucketStart.equals(other.bucketStart) && topic.equals(other.topic)
+                    && status.equals(other.status) && errorCategory.equals(other.errorCategory)
+                    && sourceService.equals(other.sourceService);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, bucketStart, topic, status, errorCategory, sourceService);
+        }
+    }
+
+    /**
+     * Count changes for one key; only mutated inside ConcurrentHashMap.compute
+     */
+    static final class Rollup {
+        private long count;
+        private long totalProcessingTimeMs;
+        private long timedCount;
+
+        long getCount() {
+            return count;
+        }
+
+        long getTotalProcessingTimeMs() {
+            return totalProcessingTimeMs;
+        }
+
+        long getTimedCount() {
+            return timedCount;
+        }
+
+        /**
+         * Whether the changes cancel out, like RECEIVED for a message received and completed within one flush
+         */
+        boolean isEmpty() {
+            return count == 0 && timedCount == 0;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.config.LoggingPolicyProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Decides how much of a message outcome is written to message_logs.
+ * Failures, retries and DLQ events are always logged in full; other statuses can be sampled per
+ * topic and status, with the payload dropped from sampled rows. Sampling is deterministic per
+ * message ID, so a message is either logged on every instance or on none.
+ * Exact counts of every outcome are kept by LogRollupAggregator regardless of sampling.
+ */
+@Component
+public class LoggingPolicy {
+
+    private static final int SAMPLE_RESOLUTION = 1_000_000;
+
+    private final LoggingPolicyProperties properties;
+
+    public LoggingPolicy(LoggingPolicyProperties properties) {
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Decides how to log the outcome of a message
+     *
+     * @param topic The topic the message was consumed from, or null if unknown
+     * @param processingStatus The terminal processing status
+     * @param messageId The message identifier, used as the sampling key
+     */
+    public Decision decide(String topic, String processingStatus, String messageId) {
+        if (!properties.isEnabled() || processingStatus == null
+                || properties.getAlwaysLogStatuses().contains(processingStatus)) {
+            return Decision.FULL;
+        }
+
+        double rate = sampleRate(topic, processingStatus);
+        if (rate >= 1.0) {
+            return Decision.FULL;
+        }
+        if (rate <= 0.0 || !isSampled(messageId, rate)) {
+            return Decision.SKIP;
+        }
+        return properties.isDropSampledPayloads() ? Decision.WITHOUT_PAYLOAD : Decision.FULL;
+    }
+
+    double sampleRate(String topic, String processingStatus) {
+        if (topic != null) {
+            Map<String, Double> topicRates = properties.getTopics().get(topic);
+            if (topicRates != null && topicRates.containsKey(processingStatus)) {
+                return topicRates.get(processingStatus);
+            }
+        }
+        return properties.getSampleRates().getOrDefault(processingStatus, 1.0);
+    }
+
+    static boolean isSampled(String messageId, double rate) {
+        int bucket = messageId != null ? Math.floorMod(mix(messageId.hashCode()), SAMPLE_RESOLUTION) : 0;
+        return bucket < rate * SAMPLE_RESOLUTION;
+    }
+
+    // Spreads similar message IDs (sequential offsets, shared prefixes) evenly over the buckets
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * How a message outcome is written
+     */
+    public enum Decision {
+        FULL,
+        WITHOUT_PAYLOAD,
+        SKIP
+    }
+}
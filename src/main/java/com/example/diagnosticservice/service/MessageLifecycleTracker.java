@@ -0,0 +1,81 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.MessageLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds received messages in memory until they reach a terminal processing state,
+ * so lifecycle logging can write one row per message instead of an insert followed by an update.
+ */
+@Component
+@Slf4j
+public class MessageLifecycleTracker {
+
+    private final ConcurrentHashMap<String, MessageLog> pendingMessages = new ConcurrentHashMap<>();
+
+    @Value("${diagnostic.service.database-logging.lifecycle.max-pending:100000}")
+    private int maxPending = 100000;
+
+    @Value("${diagnostic.service.database-logging.lifecycle.pending-ttl-minutes:10}")
+    private long pendingTtlMinutes = 10;
+
+    /**
+     * Remembers a received message until its outcome is known
+     *
+     * @param received The message log built when the message was received
+     * @return false if too many messages are pending; the caller should write the row immediately
+     */
+    public boolean register(MessageLog received) {
+        if (pendingMessages.size() >= maxPending && !pendingMessages.containsKey(received.getMessageId())) {
+            return false;
+        }
+        pendingMessages.put(received.getMessageId(), received);
+        return true;
+    }
+
+    /**
+     * Removes and returns the received message so its terminal row can be written
+     *
+     * @param messageId The message identifier
+     * @return The pending message log, or null if the message is not tracked
+     */
+    public MessageLog complete(String messageId) {
+        return pendingMessages.remove(messageId);
+    }
+
+    /**
+     * Removes messages that have been pending longer than the TTL
+     *
+     * @return The expired message logs, still in RECEIVED state
+     */
+    public List<MessageLog> removeExpired() {
+        Instant cutoffTime = Instant.now().minus(Duration.ofMinutes(pendingTtlMinutes));
+        List<MessageLog> expired = new ArrayList<>();
+
+        var iterator = pendingMessages.values().iterator();
+        while (iterator.hasNext()) {
+            MessageLog messageLog = iterator.next();
+            if (messageLog.getCreatedAt().isBefore(cutoffTime)) {
+                iterator.remove();
+                expired.add(messageLog);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            log.info("Expired {} pending lifecycle entries without a terminal status", expired.size());
+        }
+        return expired;
+    }
+
+    public int getPendingCount() {
+        return pendingMessages.size();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.diagnosticservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Fetches the packets of one session ahead of the packet being processed.
+ * When a fetch completes, the fetch of the following packet (at the position the response points to)
+ * is started right away, up to depth packets ahead, so network and upstream time overlap with
+ * record processing. Closing the prefetcher cancels the fetches that have not been consumed,
+ * which is what happens when the session is paused, cancelled or backs off.
+ */
+@Slf4j
+class PacketPrefetcher implements AutoCloseable {
+
+    private final Function<PagePosition, RestClientService.RestClientResponse> fetcher;
+    private final Function<RestClientService.RestClientResponse, PagePosition> followingPosition;
+    private final ExecutorService executor;
+    private final int depth;
+    private final int maxPackets;
+    private int scheduledCount;
+
+    private final Deque<Future<RestClientService.RestClientResponse>> pending = new ArrayDeque<>();
+    // Position to fetch once a slot frees up, or null if nothing is waiting
+    private PagePosition deferredPosition;
+    private boolean closed;
+
+    /**
+     * @param fetcher Fetches the packet at a position
+     * @param followingPosition Position of the packet after a fetched one, or null if there is none
+     * @param depth Maximum number of fetched or in-flight packets ahead of the one being processed
+     * @param maxPackets Maximum number of packets fetched in total, so nothing is fetched that will not be processed
+     */
+    PacketPrefetcher(Function<PagePosition, RestClientService.RestClientResponse> fetcher,
+                     Function<RestClientService.RestClientResponse, PagePosition> followingPosition,
+                     ExecutorService executor, int depth, int maxPackets, PagePosition startPosition) {
+        this.fetcher = fetcher;
+        this.followingPosition = followingPosition;
+        this.executor = executor;
+        this.depth = Math.max(1, depth);
+        this.maxPackets = maxPackets;
+        this.deferredPosition = startPosition;
+    }
+
+    /**
+     * Waits for the next packet in order
+     *
+     * @return The response, or null if the previous packet was the last one
+     */
+    RestClientService.RestClientResponse next() throws InterruptedException {
+        Future<RestClientService.RestClientResponse> head;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                scheduleDeferred();
+            }
+            head = pending.pollFirst();
+            // Taking the head frees a slot for a fetch that was waiting
+            scheduleDeferred();
+        }
+        if (head == null) {
+            return null;
+        }
+        try {
+            return head.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtimeException ? runtimeException : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Number of fetched or in-flight packets not yet consumed
+     */
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        deferredPosition = null;
+        int cancelled = 0;
+        for (Future<RestClientService.RestClientResponse> fetch : pending) {
+            if (fetch.cancel(true)) {
+                cancelled++;
+            }
+        }
+        pending.clear();
+        if (cancelled > 0) {
+            log.debug("Cancelled {} prefetched packets", cancelled);
+        }
+    }
+
+    private void scheduleDeferred() {
+        if (deferredPosition != null && !closed && pending.size() < depth && scheduledCount < maxPackets) {
+            PagePosition position = deferredPosition;
+            deferredPosition = null;
+            scheduledCount++;
+            pending.addLast(executor.submit(() -> fetch(position)));
+        }
+    }
+
+    private RestClientService.RestClientResponse fetch(PagePosition position) {
+        RestClientService.RestClientResponse response = fetcher.apply(position);
+        PagePosition nextPosition = followingPosition.apply(response);
+        synchronized (this) {
+            if (nextPosition != null && !closed) {
+                deferredPosition = nextPosition;
+                scheduleDeferred();
+            }
+        }
+        return response;
+    }
+}
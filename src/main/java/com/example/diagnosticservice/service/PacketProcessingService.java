@@ -2,18 +2,30 @@ package com.example.diagnosticservice.service;
 
 import com.example.diagnosticservice.entity.PacketProcessingRecord;
 import com.example.diagnosticservice.entity.PacketProcessingSession;
+import com.example.diagnosticservice.entity.PacketProcessingShard;
 import com.example.diagnosticservice.repository.PacketProcessingRecordRepository;
 import com.example.diagnosticservice.repository.PacketProcessingSessionRepository;
+import com.example.diagnosticservice.repository.PacketProcessingShardRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @Slf4j
@@ -22,8 +34,14 @@ public class PacketProcessingService {
     private final RestClientService restClientService;
     private final PacketProcessingSessionRepository sessionRepository;
     private final PacketProcessingRecordRepository recordRepository;
+    private final PacketProcessingShardRepository shardRepository;
     private final ErrorClassificationService errorClassificationService;
     private final ObjectMapper objectMapper;
+    private final PostgresCopyWriter copyWriter;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final PacketSessionControlChannel controlChannel;
+    private final PacketSessionLeaseManager leaseManager;
 
     @Value("${packet.processing.default-packet-size:10}")
     private int defaultPacketSize;
@@ -34,25 +52,111 @@ public class PacketProcessingService {
     @Value("${packet.processing.retry-delay-ms:5000}")
     private long retryDelayMs;
 
+    @Value("${packet.processing.prefetch.enabled:true}")
+    private boolean prefetchEnabled;
+
+    @Value("${packet.processing.prefetch.depth:1}")
+    private int prefetchDepth;
+
+    @Value("${packet.processing.record-parallelism.default:1}")
+    private int defaultRecordParallelism = 1;
+
+    @Value("${packet.processing.record-parallelism.max:32}")
+    private int maxRecordParallelism = 32;
+
+    @Value("${packet.processing.adaptive-packet-size.enabled:false}")
+    private boolean adaptivePacketSize;
+
+    @Value("${packet.processing.adaptive-packet-size.min-size:10}")
+    private int minPacketSize = 10;
+
+    @Value("${packet.processing.adaptive-packet-size.max-size:1000}")
+    private int maxPacketSize = 1000;
+
+    @Value("${packet.processing.adaptive-packet-size.target-latency-ms:2000}")
+    private long targetFetchLatencyMs = 2000;
+
+    @Value("${packet.processing.adaptive-packet-size.max-response-bytes:5242880}")
+    private long maxResponseBytes = 5242880;
+
+    @Value("${packet.processing.pagination.default-strategy:NEXT_OFFSET}")
+    private PaginationStrategy defaultPaginationStrategy = PaginationStrategy.NEXT_OFFSET;
+
+    @Value("${packet.processing.record-write-strategy:PER_PACKET}")
+    private RecordWriteStrategy recordWriteStrategy = RecordWriteStrategy.PER_PACKET;
+
+    @Value("${packet.processing.sharding.default-shards:1}")
+    private int defaultShardCount = 1;
+
+    @Value("${packet.processing.sharding.max-shards:16}")
+    private int maxShardCount = 16;
+
+    @Value("${packet.processing.sharding.min-packets-per-shard:10}")
+    private int minPacketsPerShard = 10;
+
+    @Value("${packet.processing.sharding.max-concurrent-shards:4}")
+    private int maxConcurrentShards = 4;
+
+    private final ThreadFactory recordThreadFactory = Thread.ofVirtual().name("packet-record-", 0).factory();
+
+    private final ThreadFactory shardThreadFactory = Thread.ofVirtual().name("packet-shard-", 0).factory();
+
+    // Prefetches spend their time waiting on the endpoint, so each runs on its own virtual thread
+    private final ExecutorService prefetchExecutor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("packet-prefetch-", 0).factory());
+
     public PacketProcessingService(RestClientService restClientService,
                                  PacketProcessingSessionRepository sessionRepository,
                                  PacketProcessingRecordRepository recordRepository,
+                                 PacketProcessingShardRepository shardRepository,
                                  ErrorClassificationService errorClassificationService,
-                                 ObjectMapper objectMapper) {
+                                 ObjectMapper objectMapper,
+                                 PostgresCopyWriter copyWriter,
+                                 ApplicationEventPublisher eventPublisher,
+                                 TransactionTemplate transactionTemplate,
+                                 PacketSessionControlChannel controlChannel,
+                                 PacketSessionLeaseManager leaseManager) {
         this.restClientService = restClientService;
         this.sessionRepository = sessionRepository;
         this.recordRepository = recordRepository;
+        this.shardRepository = shardRepository;
         this.errorClassificationService = errorClassificationService;
         this.objectMapper = objectMapper;
+        this.copyWriter = copyWriter;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.controlChannel = controlChannel;
+        this.leaseManager = leaseManager;
+    }
+
+    @PreDestroy
+    void shutdownPrefetch() {
+        prefetchExecutor.shutdownNow();
     }
 
     /**
-     * Starts a new packet processing session
+     * Starts a new packet processing session with the default record parallelism
      */
     @Transactional
     public String startPacketProcessing(String endpointUrl, int packetSize, Map<String, String> headers, 
                                       String activityId, java.time.LocalDate applicationDate, 
                                       String activityType, String activityStatus) {
+        return startPacketProcessing(endpointUrl, packetSize, headers, activityId, applicationDate,
+                activityType, activityStatus, null, null, null);
+    }
+
+    /**
+     * Starts a new packet processing session
+     *
+     * @param recordParallelism Records of a packet processed concurrently, or null for the configured default
+     * @param paginationStrategy How to page through the endpoint, or null for the configured default
+     * @param shardCount Offset ranges fetched concurrently once the total is known, or null for the configured default
+     */
+    @Transactional
+    public String startPacketProcessing(String endpointUrl, int packetSize, Map<String, String> headers, 
+                                      String activityId, java.time.LocalDate applicationDate, 
+                                      String activityType, String activityStatus, Integer recordParallelism,
+                                      PaginationStrategy paginationStrategy, Integer shardCount) {
         
         log.info("Starting packet processing for activity {} on {} for endpoint: {}", 
                 activityId, applicationDate, endpointUrl);
@@ -63,7 +167,8 @@ public class PacketProcessingService {
         
         if (existingSession.isPresent()) {
             PacketProcessingSession existing = existingSession.get();
-            if ("ACTIVE".equals(existing.getStatus()) || "PAUSED".equals(existing.getStatus())) {
+            if ("ACTIVE".equals(existing.getStatus()) || "PAUSED".equals(existing.getStatus())
+                    || "BACKOFF".equals(existing.getStatus())) {
                 log.warn("Session already exists for activity {} on {}", 
                         activityId, applicationDate);
                 return activityId + "-" + applicationDate;
@@ -77,26 +182,33 @@ public class PacketProcessingService {
             .activityStatus(activityStatus)
             .endpointUrl(endpointUrl)
             .packetSize(packetSize > 0 ? packetSize : defaultPacketSize)
+            .recordParallelism(recordParallelism != null && recordParallelism > 0 ? recordParallelism : null)
+            .paginationStrategy(paginationStrategy != null ? paginationStrategy.name() : null)
+            .shardCount(shardCount != null && shardCount > 0 ? shardCount : null)
+            .sharded(false)
             .totalRecords(0)
             .processedRecords(0)
             .failedRecords(0)
             .currentOffset(0)
+            .packetsProcessed(0)
             .status("ACTIVE")
             .requestHeaders(convertHeadersToString(headers))
             .createdAt(Instant.now())
             .startedAt(Instant.now())
             .build();
+        // Processed by this instance, unless it stops renewing the lease
+        leaseManager.acquire(session);
         
         sessionRepository.save(session);
         
-        // Start processing asynchronously
-        processPacketsAsync(activityId, applicationDate);
+        // Queue the session; it is picked up by the session engine once this transaction commits
+        eventPublisher.publishEvent(new PacketSessionReadyEvent(activityId, applicationDate, session.getEndpointUrl()));
         
         return activityId + "-" + applicationDate;
     }
 
     /**
-     * Resumes a paused or failed packet processing session
+     * Resumes a paused, failed or backed-off packet processing session
      */
     @Transactional
     public boolean resumePacketProcessing(String activityId, java.time.LocalDate applicationDate) {
@@ -110,7 +222,8 @@ public class PacketProcessingService {
         
         PacketProcessingSession session = sessionOpt.get();
         
-        if (!"PAUSED".equals(session.getStatus()) && !"FAILED".equals(session.getStatus())) {
+        if (!"PAUSED".equals(session.getStatus()) && !"FAILED".equals(session.getStatus())
+                && !"BACKOFF".equals(session.getStatus())) {
             log.warn("Session for activity {} on {} is not in a resumable state: {}", 
                     activityId, applicationDate, session.getStatus());
             return false;
@@ -119,11 +232,44 @@ public class PacketProcessingService {
         log.info("Resuming packet processing for activity {} on {}", activityId, applicationDate);
         
         session.setStatus("ACTIVE");
+        session.setBackoffUntil(null);
         session.setUpdatedAt(Instant.now());
+        leaseManager.acquire(session);
         sessionRepository.save(session);
+        controlChannel.publish(activityId, applicationDate, "ACTIVE");
+        
+        // Queue the session; it is picked up by the session engine once this transaction commits
+        eventPublisher.publishEvent(new PacketSessionReadyEvent(activityId, applicationDate, session.getEndpointUrl()));
+        
+        return true;
+    }
+
+    /**
+     * Reactivates a session whose backoff has expired, without starting processing
+     *
+     * @return true if the session was reactivated and should be processed
+     */
+    @Transactional
+    public boolean reactivateBackedOffSession(String activityId, java.time.LocalDate applicationDate) {
+        Optional<PacketProcessingSession> sessionOpt = sessionRepository
+            .findByActivityIdAndApplicationDate(activityId, applicationDate);
+        
+        if (sessionOpt.isEmpty() || !"BACKOFF".equals(sessionOpt.get().getStatus())) {
+            return false;
+        }
         
-        // Resume processing asynchronously
-        processPacketsAsync(activityId, applicationDate);
+        PacketProcessingSession session = sessionOpt.get();
+        if (session.getBackoffUntil() != null && session.getBackoffUntil().isAfter(Instant.now())) {
+            return false;
+        }
+        
+        log.info("Backoff expired, resuming packet processing for activity {} on {}", activityId, applicationDate);
+        
+        session.setStatus("ACTIVE");
+        session.setBackoffUntil(null);
+        session.setUpdatedAt(Instant.now());
+        leaseManager.acquire(session);
+        sessionRepository.save(session);
         
         return true;
     }
@@ -155,6 +301,8 @@ public class PacketProcessingService {
         session.setPausedAt(Instant.now());
         session.setUpdatedAt(Instant.now());
         sessionRepository.save(session);
+        // Workers processing the session stop after their current packet once this commits
+        controlChannel.publish(activityId, applicationDate, "PAUSED");
         
         return true;
     }
@@ -186,6 +334,7 @@ public class PacketProcessingService {
         session.setCancelledAt(Instant.now());
         session.setUpdatedAt(Instant.now());
         sessionRepository.save(session);
+        controlChannel.publish(activityId, applicationDate, "CANCELLED");
         
         return true;
     }
@@ -193,6 +342,7 @@ public class PacketProcessingService {
     /**
      * Gets the status of a packet processing session by activity attributes
      */
+    @Transactional(readOnly = true)
     public Optional<PacketProcessingSession> getSessionStatus(String activityId, java.time.LocalDate applicationDate) {
         return sessionRepository.findByActivityIdAndApplicationDate(activityId, applicationDate);
     }
@@ -200,6 +350,7 @@ public class PacketProcessingService {
     /**
      * Gets all active or paused sessions
      */
+    @Transactional(readOnly = true)
     public List<PacketProcessingSession> getActiveSessions() {
         return sessionRepository.findActiveOrPausedSessions();
     }
@@ -244,6 +395,7 @@ public class PacketProcessingService {
     /**
      * Gets sessions by activity ID
      */
+    @Transactional(readOnly = true)
     public List<PacketProcessingSession> getSessionsByActivity(String activityId) {
         return sessionRepository.findByActivityId(activityId);
     }
@@ -251,6 +403,7 @@ public class PacketProcessingService {
     /**
      * Gets sessions by application date
      */
+    @Transactional(readOnly = true)
     public List<PacketProcessingSession> getSessionsByApplicationDate(java.time.LocalDate applicationDate) {
         return sessionRepository.findByApplicationDate(applicationDate);
     }
@@ -258,34 +411,40 @@ public class PacketProcessingService {
     /**
      * Gets sessions by activity type
      */
+    @Transactional(readOnly = true)
     public List<PacketProcessingSession> getSessionsByActivityType(String activityType) {
         return sessionRepository.findByActivityType(activityType);
     }
 
     /**
-     * Asynchronously processes packets for a session
+     * Processes all remaining packets of a session
      */
-    @Async
-    public CompletableFuture<Void> processPacketsAsync(String activityId, java.time.LocalDate applicationDate) {
-        try {
-            processPackets(activityId, applicationDate);
-        } catch (Exception e) {
-            log.error("Error processing packets for activity {} on {}", activityId, applicationDate, e);
-        }
-        return CompletableFuture.completedFuture(null);
+    public void processPackets(String activityId, java.time.LocalDate applicationDate) {
+        processPacketTurn(activityId, applicationDate, Integer.MAX_VALUE);
     }
 
     /**
-     * Main packet processing logic
+     * Main packet processing logic. Processes up to maxPackets packets of a session, so the session
+     * engine can take turns between sessions; progress is kept on the session between turns.
+     * Each packet is committed in its own transaction together with the session offset, so memory
+     * stays bounded and a restarted session continues after the last committed packet.
+     *
+     * @return true if the session is still active and has more packets to process
      */
-    @Transactional
-    public void processPackets(String activityId, java.time.LocalDate applicationDate) {
-        Optional<PacketProcessingSession> sessionOpt = sessionRepository
-            .findByActivityIdAndApplicationDate(activityId, applicationDate);
+    public boolean processPacketTurn(String activityId, java.time.LocalDate applicationDate, int maxPackets) {
+        // Watch before the session is read, so a pause committed after the read is not missed
+        try (PacketSessionControlChannel.SessionControl control = controlChannel.watch(activityId, applicationDate)) {
+            return processPacketTurn(activityId, applicationDate, maxPackets, control);
+        }
+    }
+
+    private boolean processPacketTurn(String activityId, java.time.LocalDate applicationDate, int maxPackets,
+                                      PacketSessionControlChannel.SessionControl control) {
+        Optional<PacketProcessingSession> sessionOpt = sessionRepository.findCurrent(activityId, applicationDate);
         
         if (sessionOpt.isEmpty()) {
             log.error("Session not found for activity {} on {}", activityId, applicationDate);
-            return;
+            return false;
         }
         
         PacketProcessingSession session = sessionOpt.get();
@@ -293,41 +452,91 @@ public class PacketProcessingService {
         if (!"ACTIVE".equals(session.getStatus())) {
             log.debug("Session for activity {} on {} is not active, skipping processing: {}", 
                     activityId, applicationDate, session.getStatus());
-            return;
+            return false;
         }
         
-        log.info("Processing packets for activity {} on {}", activityId, applicationDate);
+        if (!leaseManager.holdsLease(session)) {
+            log.debug("Session for activity {} on {} is leased to {}, skipping processing",
+                    activityId, applicationDate, session.getLeaseOwner());
+            return false;
+        }
+        
+        if (Boolean.TRUE.equals(session.getSharded())) {
+            return processShardTurn(session, maxPackets, control);
+        }
         
-        int packetNumber = 0;
-        int totalProcessed = 0;
-        int totalFailed = 0;
-        long totalProcessingTime = 0;
+        log.debug("Processing up to {} packets for activity {} on {}", maxPackets, activityId, applicationDate);
+        
+        // Packet numbers continue from the last committed packet
+        int packetNumber = session.getPacketsProcessed() != null ? session.getPacketsProcessed() : 0;
+        PagePosition position = PagePosition.of(session.getCurrentOffset(), session.getCurrentCursor());
+        PaginationStrategy pagination = resolvePaginationStrategy(session);
+        int packetsThisTurn = 0;
+        
+        // In pipelined mode the next packet is fetched while the current one is processed
+        String endpointUrl = session.getEndpointUrl();
+        int packetSize = session.getPacketSize();
+        int recordParallelism = resolveRecordParallelism(session);
+        Map<String, String> requestHeaders = parseHeadersFromString(session.getRequestHeaders());
+        // The adaptive size continues from the last size chosen for the session
+        PacketSizeTuner sizeTuner = adaptivePacketSize
+            ? new PacketSizeTuner(session.getCurrentPacketSize() != null ? session.getCurrentPacketSize() : packetSize,
+                minPacketSize, maxPacketSize, targetFetchLatencyMs, maxResponseBytes)
+            : null;
+        PacketPrefetcher prefetcher = prefetchEnabled
+            ? new PacketPrefetcher(
+                next -> fetchPacket(endpointUrl, next, packetSize, sizeTuner, requestHeaders),
+                response -> followingPosition(response, packetSize, pagination),
+                prefetchExecutor, prefetchDepth, maxPackets, position)
+            : null;
         
         try {
             while (true) {
-                // Check if session is still active
-                session = sessionRepository.findByActivityIdAndApplicationDate(activityId, applicationDate).orElse(null);
-                if (session == null || !"ACTIVE".equals(session.getStatus())) {
+                // Pause and cancel arrive as control signals; the session row is only read if one may have been missed
+                if (packetsThisTurn > 0 && isStopRequested(control, activityId, applicationDate)) {
                     log.debug("Session for activity {} on {} is no longer active, stopping processing", activityId, applicationDate);
                     break;
                 }
                 
                 packetNumber++;
+                packetsThisTurn++;
                 long packetStartTime = System.currentTimeMillis();
                 
                 // Fetch records for this packet using aggressive retry for packet processing
-                RestClientService.RestClientResponse response = restClientService.fetchRecordsForPacketProcessing(
-                    session.getEndpointUrl(),
-                    session.getCurrentOffset(),
-                    session.getPacketSize(),
-                    parseHeadersFromString(session.getRequestHeaders())
-                );
+                RestClientService.RestClientResponse response = prefetcher != null
+                    ? prefetcher.next()
+                    : fetchPacket(endpointUrl, position, packetSize, sizeTuner, requestHeaders);
+                if (response == null) {
+                    break;
+                }
+                
+                if (!response.isSuccess() && response.isBackoff()) {
+                    // The endpoint was not called (breaker open or bulkhead full): wait and resume instead of failing
+                    log.warn("Backing off packet {} for activity {} on {} for {}ms: {}", 
+                            packetNumber, activityId, applicationDate, response.getRetryAfterMs(), response.getErrorMessage());
+                    
+                    session = reloadActiveSession(activityId, applicationDate);
+                    if (session == null) {
+                        break;
+                    }
+                    session.setStatus("BACKOFF");
+                    session.setBackoffUntil(Instant.now().plusMillis(response.getRetryAfterMs()));
+                    session.setErrorMessage(response.getErrorMessage());
+                    session.setErrorCategory(response.getErrorCategory());
+                    session.setUpdatedAt(Instant.now());
+                    sessionRepository.save(session);
+                    break;
+                }
                 
                 if (!response.isSuccess()) {
                     log.error("Failed to fetch packet {} for activity {} on {}: {}", 
                             packetNumber, activityId, applicationDate, response.getErrorMessage());
                     
                     // Update session with error
+                    session = reloadActiveSession(activityId, applicationDate);
+                    if (session == null) {
+                        break;
+                    }
                     session.setStatus("FAILED");
                     session.setErrorMessage(response.getErrorMessage());
                     session.setErrorCategory(response.getErrorCategory());
@@ -351,115 +560,660 @@ public class PacketProcessingService {
                             metadata.getNextOffset(), metadata.getServerProcessingTime());
                 }
                 
-                // Process each record in the packet
-                int packetProcessed = 0;
-                int packetFailed = 0;
-                
-                for (int i = 0; i < records.size(); i++) {
-                    Map<String, Object> record = records.get(i);
-                    String recordId = extractRecordId(record, activityId, applicationDate, packetNumber, i);
-                    
-                    PacketProcessingRecord processingRecord = PacketProcessingRecord.builder()
-                        .activityId(activityId)
-                        .applicationDate(applicationDate)
-                        .recordId(recordId)
-                        .packetNumber(packetNumber)
-                        .recordIndex(i)
-                        .status("PENDING")
-                        .recordData(convertRecordToString(record))
-                        .maxRetries(maxRetries)
-                        .retryCount(0)
-                        .createdAt(Instant.now())
-                        .build();
-                    
-                    recordRepository.save(processingRecord);
-                    
-                    // Process the record
-                    boolean success = processRecord(processingRecord, record);
-                    
-                    if (success) {
-                        packetProcessed++;
-                        totalProcessed++;
-                    } else {
-                        packetFailed++;
-                        totalFailed++;
-                    }
+                // The records and the new offset commit together; a crash before the commit refetches the packet
+                int committedPacket = packetNumber;
+                RestClientService.RestClientResponse packetResponse = response;
+                PacketProcessingSession committed = commitPacket(activityId, applicationDate, committedPacket, packetResponse,
+                    recordParallelism, packetStartTime, null);
+                position = PagePosition.of(committed.getCurrentOffset(), committed.getCurrentCursor());
+                if (!"ACTIVE".equals(committed.getStatus())) {
+                    log.debug("Session for activity {} on {} is no longer active, stopping processing", activityId, applicationDate);
+                    break;
                 }
                 
-                long packetProcessingTime = System.currentTimeMillis() - packetStartTime;
-                totalProcessingTime += packetProcessingTime;
-                
-                // Update session progress
-                session.setCurrentOffset(session.getCurrentOffset() + records.size());
-                session.setProcessedRecords(totalProcessed);
-                session.setFailedRecords(totalFailed);
-                session.setLastProcessedRecordId(extractRecordId(records.get(records.size() - 1), activityId, applicationDate, packetNumber, records.size() - 1));
-                session.setLastProcessedRecordData(convertRecordToString(records.get(records.size() - 1)));
-                session.setLastPacketProcessingTimeMs(packetProcessingTime);
-                session.setTotalProcessingTimeMs(totalProcessingTime);
-                session.setLastProcessedAt(Instant.now());
-                session.setUpdatedAt(Instant.now());
-                sessionRepository.save(session);
-                
-                log.info("Processed packet {} for activity {} on {}: {} records, {} successful, {} failed, {}ms", 
-                    packetNumber, activityId, applicationDate, records.size(), packetProcessed, packetFailed, packetProcessingTime);
-                
-                // Check if we've reached the end based on header metadata or record count
-                boolean hasMoreRecords = true;
-                if (response.getPacketMetadata() != null) {
-                    hasMoreRecords = response.getPacketMetadata().isHasMoreRecords();
-                    log.debug("Using header metadata - hasMoreRecords: {}", hasMoreRecords);
-                } else {
-                    // Fallback to record count logic
-                    hasMoreRecords = records.size() >= session.getPacketSize();
-                    log.debug("Using record count logic - hasMoreRecords: {} (records: {}, packetSize: {})", 
-                            hasMoreRecords, records.size(), session.getPacketSize());
+                if (Boolean.TRUE.equals(committed.getSharded())) {
+                    // The rest of the range was split into shards, which run from the next turn
+                    return true;
                 }
                 
-                if (!hasMoreRecords) {
+                // Check if we've reached the end based on header metadata or record count
+                if (!hasMoreRecords(response, packetSize, pagination)) {
                     log.info("Reached end of data for activity {} on {} (header metadata or record count)", activityId, applicationDate);
                     break;
                 }
-            }
-            
-            // Mark session as completed
-            session = sessionRepository.findByActivityIdAndApplicationDate(activityId, applicationDate).orElse(null);
-            if (session != null && "ACTIVE".equals(session.getStatus())) {
-                session.setStatus("COMPLETED");
-                session.setCompletedAt(Instant.now());
-                session.setUpdatedAt(Instant.now());
-                sessionRepository.save(session);
                 
-                log.info("Completed packet processing for activity {} on {}: {} total processed, {} total failed", 
-                    activityId, applicationDate, totalProcessed, totalFailed);
+                if (packetsThisTurn >= maxPackets) {
+                    // End of this turn; the session engine queues the session again
+                    return true;
+                }
             }
             
+            completeSession(activityId, applicationDate);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while processing packets for activity {} on {}", activityId, applicationDate);
+        } catch (PacketSessionLeaseManager.LeaseLostException e) {
+            log.warn("Stopped processing packets for activity {} on {}: {}", activityId, applicationDate, e.getMessage());
         } catch (Exception e) {
             log.error("Error processing packets for activity {} on {}", activityId, applicationDate, e);
             
-            // Mark session as failed
-            session = sessionRepository.findByActivityIdAndApplicationDate(activityId, applicationDate).orElse(null);
-            if (session != null) {
-                session.setStatus("FAILED");
-                session.setErrorMessage("Processing error: " + e.getMessage());
-                session.setErrorCategory("PROCESSING_ERROR");
-                session.setStackTrace(getStackTrace(e));
-                session.setUpdatedAt(Instant.now());
-                sessionRepository.save(session);
+            markSessionFailed(activityId, applicationDate, e);
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One turn of a sharded session: each unfinished shard processes up to maxPackets packets of its range,
+     * the shards running concurrently on virtual threads, at most maxConcurrentShards at a time.
+     * A shard whose fetch is rejected by the endpoint waits for the next turn; the session only backs off
+     * once every shard is waiting.
+     *
+     * @return true if the session is still active and has shards left
+     */
+    private boolean processShardTurn(PacketProcessingSession session, int maxPackets,
+                                     PacketSessionControlChannel.SessionControl control) {
+        String activityId = session.getActivityId();
+        java.time.LocalDate applicationDate = session.getApplicationDate();
+        // Shards that failed in an earlier run are retried once the session is resumed
+        List<PacketProcessingShard> shards = shardRepository
+            .findByActivityIdAndApplicationDateOrderByShardIndex(activityId, applicationDate).stream()
+            .filter(shard -> !"COMPLETED".equals(shard.getStatus()))
+            .toList();
+        log.debug("Processing up to {} packets in each of {} shards for activity {} on {}",
+                maxPackets, shards.size(), activityId, applicationDate);
+        
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrentShards));
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<Future<ShardTurnResult>> futures = new ArrayList<>(shards.size());
+        try {
+            // Closing the executor waits for every shard that was started
+            try (ExecutorService executor = Executors.newThreadPerTaskExecutor(shardThreadFactory)) {
+                for (PacketProcessingShard shard : shards) {
+                    futures.add(executor.submit(() -> {
+                        permits.acquire();
+                        try {
+                            return processShard(session, shard, maxPackets, control, stopped);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                }
+            }
+            
+            boolean more = false;
+            ShardTurnResult backoff = null;
+            for (Future<ShardTurnResult> future : futures) {
+                ShardTurnResult result = future.get();
+                switch (result.outcome) {
+                    case FAILED -> {
+                        markShardedSessionFailed(activityId, applicationDate, result);
+                        return false;
+                    }
+                    case MORE -> more = true;
+                    case BACKOFF -> {
+                        if (backoff == null || result.retryAfterMs > backoff.retryAfterMs) {
+                            backoff = result;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+            if (stopped.get()) {
+                log.debug("Session for activity {} on {} is no longer active, stopping processing", activityId, applicationDate);
+                return false;
+            }
+            if (more) {
+                // End of this turn; the session engine queues the session again
+                return true;
+            }
+            if (backoff != null) {
+                log.warn("Backing off all shards of activity {} on {} for {}ms: {}",
+                        activityId, applicationDate, backoff.retryAfterMs, backoff.errorMessage);
+                PacketProcessingSession current = reloadActiveSession(activityId, applicationDate);
+                if (current != null) {
+                    current.setStatus("BACKOFF");
+                    current.setBackoffUntil(Instant.now().plusMillis(backoff.retryAfterMs));
+                    current.setErrorMessage(backoff.errorMessage);
+                    current.setErrorCategory(backoff.errorCategory);
+                    current.setUpdatedAt(Instant.now());
+                    sessionRepository.save(current);
+                }
+                return false;
+            }
+            completeSession(activityId, applicationDate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while processing shards for activity {} on {}", activityId, applicationDate);
+        } catch (ExecutionException e) {
+            log.error("Error processing shards for activity {} on {}", activityId, applicationDate, e.getCause());
+            markSessionFailed(activityId, applicationDate, e.getCause() instanceof Exception cause ? cause : e);
+        }
+        return false;
+    }
+
+    /**
+     * Processes up to maxPackets packets of one shard, committing the shard's checkpoint with each packet
+     */
+    private ShardTurnResult processShard(PacketProcessingSession session, PacketProcessingShard shard, int maxPackets,
+                                         PacketSessionControlChannel.SessionControl control, AtomicBoolean stopped) {
+        String activityId = session.getActivityId();
+        java.time.LocalDate applicationDate = session.getApplicationDate();
+        int packetSize = session.getPacketSize();
+        int recordParallelism = resolveRecordParallelism(session);
+        Map<String, String> requestHeaders = parseHeadersFromString(session.getRequestHeaders());
+        shard.setStatus("ACTIVE");
+        
+        try {
+            for (int packets = 0; packets < maxPackets; packets++) {
+                if (stopped.get() || (packets > 0 && isStopRequested(control, activityId, applicationDate))) {
+                    stopped.set(true);
+                    return new ShardTurnResult(ShardOutcome.STOPPED, shard);
+                }
+                
+                int offset = shard.getCurrentOffset();
+                long packetStartTime = System.currentTimeMillis();
+                RestClientService.RestClientResponse response = restClientService.fetchRecordsForPacketProcessing(
+                    session.getEndpointUrl(), PagePosition.ofOffset(offset),
+                    Math.min(packetSize, shard.getEndOffset() - offset), requestHeaders);
+                
+                if (!response.isSuccess() && response.isBackoff()) {
+                    log.debug("Shard {} of activity {} on {} waits {}ms: {}",
+                            shard.getShardIndex(), activityId, applicationDate, response.getRetryAfterMs(), response.getErrorMessage());
+                    return new ShardTurnResult(ShardOutcome.BACKOFF, shard, response.getErrorMessage(),
+                        response.getErrorCategory(), response.getRetryAfterMs());
+                }
+                
+                if (!response.isSuccess()) {
+                    log.error("Failed to fetch offset {} of shard {} for activity {} on {}: {}",
+                            offset, shard.getShardIndex(), activityId, applicationDate, response.getErrorMessage());
+                    markShardFailed(shard, response.getErrorMessage());
+                    return new ShardTurnResult(ShardOutcome.FAILED, shard, response.getErrorMessage(),
+                        response.getErrorCategory(), 0);
+                }
+                
+                if (response.getRecords() == null || response.getRecords().isEmpty()) {
+                    // The upstream holds fewer records than it reported
+                    log.info("No more records in shard {} for activity {} on {}", shard.getShardIndex(), activityId, applicationDate);
+                    completeShard(shard);
+                    return new ShardTurnResult(ShardOutcome.DONE, shard);
+                }
+                
+                int packetNumber = shard.getFirstPacketNumber() + (offset - shard.getStartOffset()) / packetSize;
+                PacketProcessingSession committed = commitPacket(activityId, applicationDate, packetNumber, response,
+                    recordParallelism, packetStartTime, shard);
+                if (!"ACTIVE".equals(committed.getStatus())) {
+                    stopped.set(true);
+                    return new ShardTurnResult(ShardOutcome.STOPPED, shard);
+                }
+                if ("COMPLETED".equals(shard.getStatus())) {
+                    return new ShardTurnResult(ShardOutcome.DONE, shard);
+                }
+            }
+            return new ShardTurnResult(ShardOutcome.MORE, shard);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped.set(true);
+            return new ShardTurnResult(ShardOutcome.STOPPED, shard);
+        } catch (PacketSessionLeaseManager.LeaseLostException e) {
+            log.warn("Stopped processing shard {} for activity {} on {}: {}",
+                    shard.getShardIndex(), activityId, applicationDate, e.getMessage());
+            stopped.set(true);
+            return new ShardTurnResult(ShardOutcome.STOPPED, shard);
+        } catch (Exception e) {
+            log.error("Error processing shard {} for activity {} on {}", shard.getShardIndex(), activityId, applicationDate, e);
+            markShardFailed(shard, "Processing error: " + e.getMessage());
+            return new ShardTurnResult(ShardOutcome.FAILED, shard, "Processing error: " + e.getMessage(), "PROCESSING_ERROR", 0);
+        }
+    }
+
+    private void completeShard(PacketProcessingShard shard) {
+        shard.setCurrentOffset(shard.getEndOffset());
+        shard.setStatus("COMPLETED");
+        shard.setCompletedAt(Instant.now());
+        shard.setUpdatedAt(Instant.now());
+        shardRepository.save(shard);
+    }
+
+    private void markShardFailed(PacketProcessingShard shard, String errorMessage) {
+        try {
+            shard.setStatus("FAILED");
+            shard.setErrorMessage(errorMessage);
+            shard.setUpdatedAt(Instant.now());
+            shardRepository.save(shard);
+        } catch (Exception e) {
+            log.error("Failed to mark shard {} of activity {} on {} as failed",
+                    shard.getShardIndex(), shard.getActivityId(), shard.getApplicationDate(), e);
+        }
+    }
+
+    private void markShardedSessionFailed(String activityId, java.time.LocalDate applicationDate, ShardTurnResult result) {
+        PacketProcessingSession session = reloadActiveSession(activityId, applicationDate);
+        if (session == null) {
+            return;
+        }
+        session.setStatus("FAILED");
+        session.setErrorMessage("Shard " + result.shard.getShardIndex() + " failed: " + result.errorMessage);
+        session.setErrorCategory(result.errorCategory);
+        session.setUpdatedAt(Instant.now());
+        sessionRepository.save(session);
+    }
+
+    /**
+     * Marks the session completed unless it was paused or cancelled meanwhile
+     */
+    private void completeSession(String activityId, java.time.LocalDate applicationDate) {
+        PacketProcessingSession session = sessionRepository.findCurrent(activityId, applicationDate).orElse(null);
+        if (session != null && "ACTIVE".equals(session.getStatus())) {
+            session.setStatus("COMPLETED");
+            session.setCompletedAt(Instant.now());
+            session.setUpdatedAt(Instant.now());
+            sessionRepository.save(session);
+            
+            log.info("Completed packet processing for activity {} on {}: {} total processed, {} total failed", 
+                activityId, applicationDate, session.getProcessedRecords(), session.getFailedRecords());
+        }
+    }
+
+    private void markSessionFailed(String activityId, java.time.LocalDate applicationDate, Exception e) {
+        PacketProcessingSession session = sessionRepository.findCurrent(activityId, applicationDate).orElse(null);
+        if (session != null) {
+            session.setStatus("FAILED");
+            session.setErrorMessage("Processing error: " + e.getMessage());
+            session.setErrorCategory("PROCESSING_ERROR");
+            session.setStackTrace(getStackTrace(e));
+            session.setUpdatedAt(Instant.now());
+            sessionRepository.save(session);
+        }
+    }
+
+    /**
+     * Fetches one packet, with the adaptive size if enabled, and feeds the response back to the tuner
+     */
+    private RestClientService.RestClientResponse fetchPacket(String endpointUrl, PagePosition position, int packetSize,
+                                                             PacketSizeTuner sizeTuner, Map<String, String> requestHeaders) {
+        int limit = sizeTuner != null ? sizeTuner.nextSize() : packetSize;
+        RestClientService.RestClientResponse response =
+            restClientService.fetchRecordsForPacketProcessing(endpointUrl, position, limit, requestHeaders);
+        if (sizeTuner != null && response != null) {
+            sizeTuner.onResponse(response);
+        }
+        return response;
+    }
+
+    /**
+     * Whether the session was paused or cancelled; reads the session only if the control channel may have missed it
+     */
+    private boolean isStopRequested(PacketSessionControlChannel.SessionControl control, String activityId,
+                                    java.time.LocalDate applicationDate) {
+        if (control.isStopRequested()) {
+            return true;
+        }
+        return control.needsRecheck() && reloadActiveSession(activityId, applicationDate) == null;
+    }
+
+    /**
+     * Reads the current session row from the primary
+     *
+     * @return The session, or null if it no longer exists or is not active
+     */
+    private PacketProcessingSession reloadActiveSession(String activityId, java.time.LocalDate applicationDate) {
+        return sessionRepository.findCurrent(activityId, applicationDate)
+            .filter(current -> "ACTIVE".equals(current.getStatus()))
+            .orElse(null);
+    }
+
+    /**
+     * Processes and commits one packet with the configured record write strategy
+     *
+     * @param shard The shard the packet belongs to, or null for a sequential session
+     * @return The updated session
+     */
+    private PacketProcessingSession commitPacket(String activityId, java.time.LocalDate applicationDate, int packetNumber,
+                                                 RestClientService.RestClientResponse response, int recordParallelism,
+                                                 long packetStartTime, PacketProcessingShard shard) throws InterruptedException {
+        PacketProcessingSession committed = recordWriteStrategy == RecordWriteStrategy.PER_PACKET
+            ? processAndWritePacket(activityId, applicationDate, packetNumber, response, recordParallelism, packetStartTime, shard)
+            : transactionTemplate.execute(status ->
+                commitPacket(status, activityId, applicationDate, packetNumber, response, recordParallelism, packetStartTime, shard));
+        if (committed == null) {
+            throw new InterruptedException();
+        }
+        return committed;
+    }
+
+    /**
+     * PER_PACKET strategy: processes the records of one packet in memory, outside any transaction,
+     * then writes their final rows and the session progress in one short transaction
+     *
+     * @return The updated session
+     */
+    private PacketProcessingSession processAndWritePacket(String activityId, java.time.LocalDate applicationDate, int packetNumber,
+                                                          RestClientService.RestClientResponse response, int recordParallelism,
+                                                          long packetStartTime, PacketProcessingShard shard) throws InterruptedException {
+        List<Map<String, Object>> records = response.getRecords();
+        List<PacketProcessingRecord> packetRecords = buildPacketRecords(activityId, applicationDate, packetNumber, records);
+        AtomicInteger packetProcessed = new AtomicInteger();
+        AtomicInteger packetFailed = new AtomicInteger();
+        
+        if (recordParallelism > 1 && records.size() > 1) {
+            processRecordsInParallel(packetRecords, records, recordParallelism, packetProcessed, packetFailed);
+        } else {
+            for (int i = 0; i < records.size(); i++) {
+                (processRecord(packetRecords.get(i), records.get(i), false) ? packetProcessed : packetFailed).incrementAndGet();
+            }
+        }
+        
+        return transactionTemplate.execute(status -> {
+            writePacketRecords(packetRecords);
+            return updateSessionProgress(activityId, applicationDate, packetNumber, response,
+                packetProcessed.get(), packetFailed.get(), packetStartTime, shard);
+        });
+    }
+
+    /**
+     * PER_RECORD strategy: processes the records of one packet and saves them together with the session progress.
+     * Runs in the packet's transaction and saves each record status change as it happens,
+     * unless the packet is processed in parallel or is large enough for COPY.
+     *
+     * @return The updated session, or null if interrupted, in which case the packet is rolled back
+     */
+    private PacketProcessingSession commitPacket(TransactionStatus status, String activityId, java.time.LocalDate applicationDate,
+                                                 int packetNumber, RestClientService.RestClientResponse response,
+                                                 int recordParallelism, long packetStartTime, PacketProcessingShard shard) {
+        List<Map<String, Object>> records = response.getRecords();
+        List<PacketProcessingRecord> packetRecords = buildPacketRecords(activityId, applicationDate, packetNumber, records);
+        AtomicInteger packetProcessed = new AtomicInteger();
+        AtomicInteger packetFailed = new AtomicInteger();
+        // Large packets keep record state in memory and write the final rows with a single COPY
+        boolean bulkWrite = copyWriter.shouldUseCopy(records.size());
+        
+        if (recordParallelism > 1 && records.size() > 1) {
+            if (!bulkWrite) {
+                recordRepository.saveAll(packetRecords);
+            }
+            try {
+                processRecordsInParallel(packetRecords, records, recordParallelism, packetProcessed, packetFailed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                status.setRollbackOnly();
+                return null;
+            }
+        } else {
+            for (int i = 0; i < records.size(); i++) {
+                PacketProcessingRecord processingRecord = packetRecords.get(i);
+                if (!bulkWrite) {
+                    recordRepository.save(processingRecord);
+                }
+                (processRecord(processingRecord, records.get(i), !bulkWrite) ? packetProcessed : packetFailed).incrementAndGet();
+            }
+        }
+        
+        if (bulkWrite) {
+            writePacketRecords(packetRecords);
+        } else if (recordParallelism > 1 && records.size() > 1) {
+            // Workers only change the in-memory rows; their final state is saved from this thread
+            recordRepository.saveAll(packetRecords);
+        }
+        
+        return updateSessionProgress(activityId, applicationDate, packetNumber, response,
+            packetProcessed.get(), packetFailed.get(), packetStartTime, shard);
+    }
+
+    /**
+     * Creates the PENDING rows for the records of a packet
+     */
+    private List<PacketProcessingRecord> buildPacketRecords(String activityId, java.time.LocalDate applicationDate,
+                                                            int packetNumber, List<Map<String, Object>> records) {
+        List<PacketProcessingRecord> packetRecords = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Map<String, Object> record = records.get(i);
+            packetRecords.add(PacketProcessingRecord.builder()
+                .activityId(activityId)
+                .applicationDate(applicationDate)
+                .recordId(extractRecordId(record, activityId, applicationDate, packetNumber, i))
+                .packetNumber(packetNumber)
+                .recordIndex(i)
+                .status("PENDING")
+                .recordData(convertRecordToString(record))
+                .maxRetries(maxRetries)
+                .retryCount(0)
+                .createdAt(Instant.now())
+                .build());
+        }
+        return packetRecords;
+    }
+
+    /**
+     * Inserts the final rows of a packet: with COPY for large packets, otherwise as JDBC batches
+     */
+    private void writePacketRecords(List<PacketProcessingRecord> packetRecords) {
+        if (copyWriter.shouldUseCopy(packetRecords.size())) {
+            // Pending inserts (including the session row the records reference) must reach the database first
+            recordRepository.flush();
+            copyWriter.copyPacketRecords(packetRecords);
+        } else {
+            recordRepository.saveAll(packetRecords);
+        }
+    }
+
+    /**
+     * Adds a packet to the session progress. The session is reloaded with a row lock in the packet's
+     * transaction, so counters add to the committed totals, a concurrent pause or cancel is kept and
+     * the shards of a session add their counters one after another. A shard packet moves the shard's
+     * checkpoint instead of the session offset.
+     * The lease is checked under the same lock: a claim by another instance either committed before
+     * the read, and the packet is rolled back, or waits for this transaction and then sees its renewed
+     * progress, so the full-row save can never write this instance's lease over the other's.
+     */
+    private PacketProcessingSession updateSessionProgress(String activityId, java.time.LocalDate applicationDate, int packetNumber,
+                                                          RestClientService.RestClientResponse response, int packetProcessed,
+                                                          int packetFailed, long packetStartTime, PacketProcessingShard shard) {
+        List<Map<String, Object>> records = response.getRecords();
+        long packetProcessingTime = System.currentTimeMillis() - packetStartTime;
+        
+        PacketProcessingSession session = sessionRepository.findForUpdate(activityId, applicationDate)
+            .orElseThrow(() -> new IllegalStateException("Session disappeared for activity " + activityId + " on " + applicationDate));
+        leaseManager.checkLease(session);
+        Map<String, Object> lastRecord = records.get(records.size() - 1);
+        PaginationStrategy pagination = resolvePaginationStrategy(session);
+        if (shard != null) {
+            updateShardProgress(shard, response, pagination, packetProcessed, packetFailed);
+            session.setPacketsProcessed(valueOrZero(session.getPacketsProcessed()) + 1);
+        } else {
+            PagePosition next = pagination.following(response);
+            session.setCurrentOffset(next.getOffset());
+            session.setCurrentCursor(next.getCursor());
+            session.setPacketsProcessed(packetNumber);
+            if (adaptivePacketSize && response.getLimit() > 0) {
+                session.setCurrentPacketSize(response.getLimit());
+            }
+            splitIntoShards(session, response, pagination, next);
+        }
+        session.setProcessedRecords(valueOrZero(session.getProcessedRecords()) + packetProcessed);
+        session.setFailedRecords(valueOrZero(session.getFailedRecords()) + packetFailed);
+        session.setLastProcessedRecordId(extractRecordId(lastRecord, activityId, applicationDate, packetNumber, records.size() - 1));
+        session.setLastProcessedRecordData(convertRecordToString(lastRecord));
+        session.setLastPacketProcessingTimeMs(packetProcessingTime);
+        session.setTotalProcessingTimeMs((session.getTotalProcessingTimeMs() != null ? session.getTotalProcessingTimeMs() : 0) + packetProcessingTime);
+        session.setLastProcessedAt(Instant.now());
+        session.setUpdatedAt(Instant.now());
+        sessionRepository.save(session);
+        
+        log.info("Processed packet {} for activity {} on {}: {} records, {} successful, {} failed, {}ms", 
+            packetNumber, activityId, applicationDate, records.size(), packetProcessed, packetFailed, packetProcessingTime);
+        return session;
+    }
+
+    /**
+     * Moves a shard's checkpoint past a committed packet; a short packet or reaching the end offset completes it
+     */
+    private void updateShardProgress(PacketProcessingShard shard, RestClientService.RestClientResponse response,
+                                     PaginationStrategy pagination, int packetProcessed, int packetFailed) {
+        int received = response.getRecords().size();
+        int next = Math.max(shard.getCurrentOffset() + received, pagination.following(response).getOffset());
+        shard.setCurrentOffset(Math.min(next, shard.getEndOffset()));
+        shard.setPacketsProcessed(valueOrZero(shard.getPacketsProcessed()) + 1);
+        shard.setProcessedRecords(valueOrZero(shard.getProcessedRecords()) + packetProcessed);
+        shard.setFailedRecords(valueOrZero(shard.getFailedRecords()) + packetFailed);
+        shard.setErrorMessage(null);
+        shard.setUpdatedAt(Instant.now());
+        if (shard.getCurrentOffset() >= shard.getEndOffset() || (response.getLimit() > 0 && received < response.getLimit())) {
+            shard.setCurrentOffset(shard.getEndOffset());
+            shard.setStatus("COMPLETED");
+            shard.setCompletedAt(Instant.now());
+        }
+        shardRepository.save(shard);
+    }
+
+    /**
+     * Splits the rest of a session's offset range into shards once the upstream reports its total,
+     * if the session asks for more than one shard and the range is long enough.
+     * Shards are whole packets long, so packet numbers stay the ones sequential processing would use.
+     */
+    private void splitIntoShards(PacketProcessingSession session, RestClientService.RestClientResponse response,
+                                 PaginationStrategy pagination, PagePosition next) {
+        int requested = Math.min(session.getShardCount() != null ? session.getShardCount() : defaultShardCount, maxShardCount);
+        RestClientService.PacketMetadata metadata = response.getPacketMetadata();
+        int packetSize = session.getPacketSize();
+        // Cursor pages can only be reached one after another
+        if (requested <= 1 || Boolean.TRUE.equals(session.getSharded()) || pagination == PaginationStrategy.CURSOR
+                || metadata == null || metadata.getTotalRecords() <= next.getOffset()
+                || !hasMoreRecords(response, packetSize, pagination)) {
+            return;
+        }
+        
+        int start = next.getOffset();
+        int total = metadata.getTotalRecords();
+        int remainingPackets = (int) ((total - (long) start + packetSize - 1) / packetSize);
+        int shardCount = Math.min(requested, remainingPackets / Math.max(1, minPacketsPerShard));
+        if (shardCount <= 1) {
+            return;
+        }
+        int packetsPerShard = (remainingPackets + shardCount - 1) / shardCount;
+        int firstPacketNumber = valueOrZero(session.getPacketsProcessed()) + 1;
+        
+        List<PacketProcessingShard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            long from = start + (long) i * packetsPerShard * packetSize;
+            if (from >= total) {
+                break;
+            }
+            shards.add(PacketProcessingShard.builder()
+                .activityId(session.getActivityId())
+                .applicationDate(session.getApplicationDate())
+                .shardIndex(i)
+                .startOffset((int) from)
+                .endOffset((int) Math.min(total, from + (long) packetsPerShard * packetSize))
+                .currentOffset((int) from)
+                .firstPacketNumber(firstPacketNumber + i * packetsPerShard)
+                .status("ACTIVE")
+                .packetsProcessed(0)
+                .processedRecords(0)
+                .failedRecords(0)
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build());
+        }
+        shardRepository.saveAll(shards);
+        session.setSharded(true);
+        session.setShardCount(shards.size());
+        session.setTotalRecords(total);
+        
+        log.info("Split offsets {}-{} of activity {} on {} into {} shards of {} packets",
+                start, total, session.getActivityId(), session.getApplicationDate(), shards.size(), packetsPerShard);
+    }
+
+    private static int valueOrZero(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private int resolveRecordParallelism(PacketProcessingSession session) {
+        int parallelism = session.getRecordParallelism() != null ? session.getRecordParallelism() : defaultRecordParallelism;
+        return Math.max(1, Math.min(parallelism, maxRecordParallelism));
+    }
+
+    /**
+     * Processes the records of a packet concurrently on virtual threads, at most parallelism at a time.
+     * Records are only changed in memory; the caller persists them once all have finished.
+     */
+    private void processRecordsInParallel(List<PacketProcessingRecord> processingRecords, List<Map<String, Object>> records,
+                                          int parallelism, AtomicInteger processed, AtomicInteger failed) throws InterruptedException {
+        Semaphore permits = new Semaphore(parallelism);
+        // Closing the executor waits for every record that was started
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(recordThreadFactory)) {
+            for (int i = 0; i < processingRecords.size(); i++) {
+                PacketProcessingRecord processingRecord = processingRecords.get(i);
+                Map<String, Object> record = records.get(i);
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        (processRecord(processingRecord, record, false) ? processed : failed).incrementAndGet();
+                    } finally {
+                        permits.release();
+                    }
+                });
             }
         }
     }
 
+    private PaginationStrategy resolvePaginationStrategy(PacketProcessingSession session) {
+        return session.getPaginationStrategy() != null
+            ? PaginationStrategy.valueOf(session.getPaginationStrategy())
+            : defaultPaginationStrategy;
+    }
+
+    /**
+     * Whether another packet follows this one, based on the pagination strategy, header metadata or record count
+     */
+    private boolean hasMoreRecords(RestClientService.RestClientResponse response, int packetSize, PaginationStrategy pagination) {
+        Boolean hasNextPage = pagination.hasNextPage(response);
+        if (hasNextPage != null) {
+            log.debug("Using {} pagination - hasMoreRecords: {}", pagination, hasNextPage);
+            return hasNextPage;
+        }
+        if (response.getPacketMetadata() != null) {
+            log.debug("Using header metadata - hasMoreRecords: {}", response.getPacketMetadata().isHasMoreRecords());
+            return response.getPacketMetadata().isHasMoreRecords();
+        }
+        // Fallback to record count logic, against the limit the packet was requested with
+        int recordCount = response.getRecords() != null ? response.getRecords().size() : 0;
+        int limit = response.getLimit() > 0 ? response.getLimit() : packetSize;
+        log.debug("Using record count logic - records: {}, packetSize: {}", recordCount, limit);
+        return recordCount >= limit;
+    }
+
+    /**
+     * Position of the packet after this one, or null if processing stops after it
+     */
+    private PagePosition followingPosition(RestClientService.RestClientResponse response, int packetSize,
+                                           PaginationStrategy pagination) {
+        if (!response.isSuccess() || response.getRecords() == null || response.getRecords().isEmpty()
+                || !hasMoreRecords(response, packetSize, pagination)) {
+            return null;
+        }
+        return pagination.following(response);
+    }
+
     /**
      * Processes a single record
+     *
+     * @param persistProgress Whether to save each status change; false when the record is written in bulk afterwards
      */
-    private boolean processRecord(PacketProcessingRecord record, Map<String, Object> recordData) {
+    private boolean processRecord(PacketProcessingRecord record, Map<String, Object> recordData, boolean persistProgress) {
         long startTime = System.currentTimeMillis();
         
         try {
             record.setStatus("PROCESSING");
             record.setProcessedAt(Instant.now());
-            recordRepository.save(record);
+            if (persistProgress) {
+                recordRepository.save(record);
+            }
             
             // Simulate record processing - in real implementation, this would do actual processing
             // For now, we'll just simulate some processing time and potential failures
@@ -473,7 +1227,9 @@ public class PacketProcessingService {
             record.setStatus("SUCCESS");
             record.setProcessingTimeMs(System.currentTimeMillis() - startTime);
             record.setProcessedAt(Instant.now());
-            recordRepository.save(record);
+            if (persistProgress) {
+                recordRepository.save(record);
+            }
             
             return true;
             
@@ -487,7 +1243,9 @@ public class PacketProcessingService {
             record.setProcessingTimeMs(System.currentTimeMillis() - startTime);
             record.setFailedAt(Instant.now());
             record.setStackTrace(getStackTrace(e));
-            recordRepository.save(record);
+            if (persistProgress) {
+                recordRepository.save(record);
+            }
             
             return false;
         }
@@ -540,4 +1298,50 @@ public class PacketProcessingService {
         e.printStackTrace(pw);
         return sw.toString();
     }
+
+    /**
+     * How a shard's turn ended
+     */
+    private enum ShardOutcome {
+        // The shard has packets left for the next turn
+        MORE,
+        // The shard reached the end of its range
+        DONE,
+        // The session was paused or cancelled
+        STOPPED,
+        // The endpoint rejected the fetch; the shard waits for the next turn
+        BACKOFF,
+        FAILED
+    }
+
+    private static final class ShardTurnResult {
+        private final ShardOutcome outcome;
+        private final PacketProcessingShard shard;
+        private final String errorMessage;
+        private final String errorCategory;
+        private final long retryAfterMs;
+
+        private ShardTurnResult(ShardOutcome outcome, PacketProcessingShard shard) {
+            this(outcome, shard, null, null, 0);
+        }
+
+        private ShardTurnResult(ShardOutcome outcome, PacketProcessingShard shard, String errorMessage,
+                                String errorCategory, long retryAfterMs) {
+            this.outcome = outcome;
+            this.shard = shard;
+            this.errorMessage = errorMessage;
+            this.errorCategory = errorCategory;
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    /**
+     * How the rows of processed records are written
+     */
+    public enum RecordWriteStrategy {
+        // Each status change (PENDING, PROCESSING, SUCCESS/FAILED) is saved as it happens
+        PER_RECORD,
+        // Records are processed in memory and only their final rows are written, once per packet
+        PER_PACKET
+    }
 }
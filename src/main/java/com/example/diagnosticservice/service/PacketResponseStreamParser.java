@@ -0,0 +1,119 @@
+package com.example.diagnosticservice.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a packet response body from its stream with a Jackson JsonParser, one record at a time.
+ * Each record is materialized once, as the Map the packet pipeline processes, instead of first
+ * buffering the body as a String and parsing it into a tree of the whole response.
+ * Records are taken from the data, records or items array (in that order of preference, like
+ * {@link RestClientService} does for buffered bodies) or from a top-level array; the other
+ * top-level fields form the envelope, which holds e.g. the cursor field. A body without a record
+ * array is returned as a single record, as before.
+ */
+class PacketResponseStreamParser {
+
+    private static final List<String> RECORD_FIELDS = List.of("data", "records", "items");
+    private static final TypeReference<Map<String, Object>> RECORD_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+
+    PacketResponseStreamParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Parses a response body; the caller closes the stream
+     */
+    ParsedBody parse(InputStream body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return new ParsedBody(List.of(), null, 0);
+            }
+            if (token == JsonToken.START_ARRAY) {
+                List<Map<String, Object>> records = readRecords(parser);
+                return new ParsedBody(records, null, parser.currentLocation().getByteOffset());
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object or array but found " + token);
+            }
+
+            Map<String, Object> envelope = new LinkedHashMap<>();
+            Map<String, List<Map<String, Object>>> recordArrays = new HashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_ARRAY && RECORD_FIELDS.contains(name)) {
+                    recordArrays.put(name, readRecords(parser));
+                } else {
+                    envelope.put(name, objectMapper.readValue(parser, Object.class));
+                }
+            }
+            long bytes = parser.currentLocation().getByteOffset();
+
+            for (String field : RECORD_FIELDS) {
+                if (recordArrays.containsKey(field)) {
+                    return new ParsedBody(recordArrays.get(field), envelope, bytes);
+                }
+                if (envelope.containsKey(field)) {
+                    // The preferred field is not an array, so the response is a single record
+                    break;
+                }
+            }
+            envelope.putAll(recordArrays);
+            return new ParsedBody(List.of(envelope), envelope, bytes);
+        }
+    }
+
+    private List<Map<String, Object>> readRecords(JsonParser parser) throws IOException {
+        List<Map<String, Object>> records = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            records.add(objectMapper.readValue(parser, RECORD_TYPE));
+        }
+        return records;
+    }
+
+    /**
+     * The records of a response body and its other top-level fields
+     */
+    static final class ParsedBody {
+        private final List<Map<String, Object>> records;
+        private final Map<String, Object> envelope;
+        private final long bytesRead;
+
+        ParsedBody(List<Map<String, Object>> records, Map<String, Object> envelope, long bytesRead) {
+            this.records = records;
+            this.envelope = envelope;
+            this.bytesRead = bytesRead;
+        }
+
+        List<Map<String, Object>> getRecords() {
+            return records;
+        }
+
+        /**
+         * Top-level fields other than the records, or null for an empty body or a top-level array
+         */
+        Map<String, Object> getEnvelope() {
+            return envelope;
+        }
+
+        long getBytesRead() {
+            return bytesRead;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.PacketProcessingSession;
+import com.example.diagnosticservice.repository.PacketProcessingSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Resumes packet sessions in BACKOFF once their backoff has expired.
+ * Reactivated sessions are queued on the session engine, so a long session never holds up the scheduler thread.
+ */
+@Component
+@Slf4j
+public class PacketSessionBackoffScheduler {
+
+    private final PacketProcessingService packetProcessingService;
+    private final PacketProcessingSessionRepository sessionRepository;
+    private final PacketSessionEngine sessionEngine;
+
+    public PacketSessionBackoffScheduler(PacketProcessingService packetProcessingService,
+                                         PacketProcessingSessionRepository sessionRepository,
+                                         PacketSessionEngine sessionEngine) {
+        this.packetProcessingService = packetProcessingService;
+        this.sessionRepository = sessionRepository;
+        this.sessionEngine = sessionEngine;
+    }
+
+    @Scheduled(fixedDelayString = "${packet.processing.endpoint-resilience.backoff-check-interval-ms:5000}")
+    public void resumeDueSessions() {
+        List<PacketProcessingSession> dueSessions = sessionRepository.findDueBackoffSessions(Instant.now());
+        for (PacketProcessingSession session : dueSessions) {
+            String activityId = session.getActivityId();
+            LocalDate applicationDate = session.getApplicationDate();
+            try {
+                if (packetProcessingService.reactivateBackedOffSession(activityId, applicationDate)) {
+                    sessionEngine.submit(activityId, applicationDate, session.getEndpointUrl());
+                }
+            } catch (Exception e) {
+                log.error("Failed to resume backed-off session for activity {} on {}", activityId, applicationDate, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.diagnosticservice.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes session status changes (pause, resume, cancel) to the workers processing those sessions.
+ * A status change is announced with NOTIFY in the transaction that writes it, so it is delivered
+ * on commit to every instance; each instance LISTENs on a dedicated connection and flips an
+ * in-memory flag of the running session, which the worker checks between packets instead of
+ * reading the session row.
+ * While the listener is not connected, signals can be missed, so workers fall back to reading the row.
+ */
+@Component
+@Slf4j
+public class PacketSessionControlChannel {
+
+    static final String CHANNEL = "packet_session_control";
+    private static final char SEPARATOR = '|';
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${packet.processing.control-channel.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${packet.processing.control-channel.poll-timeout-ms:500}")
+    private int pollTimeoutMs = 500;
+
+    @Value("${packet.processing.control-channel.reconnect-delay-ms:5000}")
+    private long reconnectDelayMs = 5000;
+
+    private final Map<SessionKey, SessionControl> watched = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private Thread listener;
+
+    public PacketSessionControlChannel(DataSource dataSource, JdbcTemplate jdbcTemplate) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Packet session control channel is disabled, workers read the session status between packets");
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "packet-session-control");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Announces a status change of a session; must run in the transaction that writes the status,
+     * so the signal is only delivered if that transaction commits
+     */
+    public void publish(String activityId, LocalDate applicationDate, String status) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> {
+        }, CHANNEL, encode(activityId, applicationDate, status));
+    }
+
+    /**
+     * Starts tracking the signals of a session this instance is about to process.
+     * Callers must call {@link SessionControl#close()} once they stop processing it.
+     */
+    public SessionControl watch(String activityId, LocalDate applicationDate) {
+        SessionKey key = new SessionKey(activityId, applicationDate);
+        SessionControl control = new SessionControl(key);
+        watched.put(key, control);
+        return control;
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    int getWatchedCount() {
+        return watched.size();
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                // Signals sent while disconnected were lost, so running sessions check their row once
+                watched.values().forEach(SessionControl::requestRecheck);
+                listening = true;
+                log.info("Listening for packet session control signals on channel {}", CHANNEL);
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        onSignal(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                log.error("Packet session control listener failed, reconnecting in {}ms: {}", reconnectDelayMs, e.getMessage());
+            } finally {
+                listening = false;
+            }
+            try {
+                Thread.sleep(reconnectDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Applies a received signal to the watched session it refers to, if any
+     */
+    void onSignal(String payload) {
+        int statusStart = payload != null ? payload.lastIndexOf(SEPARATOR) : -1;
+        int dateStart = statusStart > 0 ? payload.lastIndexOf(SEPARATOR, statusStart - 1) : -1;
+        if (dateStart < 0) {
+            log.warn("Ignoring malformed packet session control signal: {}", payload);
+            return;
+        }
+        SessionKey key;
+        try {
+            key = new SessionKey(payload.substring(0, dateStart), LocalDate.parse(payload.substring(dateStart + 1, statusStart)));
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed packet session control signal: {}", payload);
+            return;
+        }
+        SessionControl control = watched.get(key);
+        if (control != null) {
+            String status = payload.substring(statusStart + 1);
+            log.debug("Session for activity {} on {} signalled {}", key.activityId, key.applicationDate, status);
+            control.status = status;
+        }
+    }
+
+    static String encode(String activityId, LocalDate applicationDate, String status) {
+        // Activity IDs may contain the separator, so the date and status are taken from the end
+        return activityId + SEPARATOR + applicationDate + SEPARATOR + status;
+    }
+
+    /**
+     * The signals received for one running session
+     */
+    public class SessionControl implements AutoCloseable {
+        private final SessionKey key;
+        private volatile String status;
+        private volatile boolean recheck;
+
+        private SessionControl(SessionKey key) {
+            this.key = key;
+        }
+
+        /**
+         * Whether a status other than ACTIVE was signalled, i.e. the session was paused or cancelled
+         */
+        public boolean isStopRequested() {
+            String signalled = status;
+            return signalled != null && !"ACTIVE".equals(signalled);
+        }
+
+        /**
+         * Whether the worker has to read the session status itself because signals may have been missed
+         */
+        public boolean needsRecheck() {
+            if (!listening) {
+                return true;
+            }
+            if (recheck) {
+                recheck = false;
+                return true;
+            }
+            return false;
+        }
+
+        private void requestRecheck() {
+            recheck = true;
+        }
+
+        @Override
+        public void close() {
+            watched.remove(key, this);
+        }
+    }
+
+    private static final class SessionKey {
+        private final String activityId;
+        private final LocalDate applicationDate;
+
+        private SessionKey(String activityId, LocalDate applicationDate) {
+            this.activityId = activityId;
+            this.applicationDate = applicationDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey other)) {
+                return false;
+            }
+            return activityId.equals(other.activityId) && applicationDate.equals(other.applicationDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(activityId, applicationDate);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.diagnosticservice.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs packet sessions off the request thread with round-robin scheduling.
+ * Sessions wait in a run queue; a session gets a turn of packets-per-turn packets on a worker and,
+ * if it has more, goes to the back of the queue. At most max-concurrent-sessions turns run at once,
+ * and at most max-sessions-per-endpoint of them against the same endpoint host, so hundreds of
+ * sessions share the workers fairly and one vendor cannot take all of them.
+ */
+@Component
+@Slf4j
+public class PacketSessionEngine {
+
+    private final PacketProcessingService packetProcessingService;
+
+    @Value("${packet.processing.engine.max-concurrent-sessions:16}")
+    private int maxConcurrentSessions = 16;
+
+    @Value("${packet.processing.engine.max-sessions-per-endpoint:4}")
+    private int maxSessionsPerEndpoint = 4;
+
+    @Value("${packet.processing.engine.packets-per-turn:5}")
+    private int packetsPerTurn = 5;
+
+    // Turns mostly wait on endpoints and the database, so each runs on its own virtual thread
+    private final ExecutorService workers =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("packet-session-", 0).factory());
+
+    private final Deque<SessionKey> runQueue = new ArrayDeque<>();
+    // Sessions that are queued or running; a session is never queued twice
+    private final Set<SessionKey> scheduled = new HashSet<>();
+    // Running sessions that were submitted again, e.g. resumed while their turn was finishing
+    private final Set<SessionKey> resubmitted = new HashSet<>();
+    private final Map<String, Integer> runningPerEndpoint = new HashMap<>();
+    private int running;
+    private boolean shutdown;
+
+    public PacketSessionEngine(PacketProcessingService packetProcessingService) {
+        this.packetProcessingService = packetProcessingService;
+    }
+
+    /**
+     * Queues a started or resumed session once the transaction that activated it has committed
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSessionReady(PacketSessionReadyEvent event) {
+        submit(event.getActivityId(), event.getApplicationDate(), event.getEndpointUrl());
+    }
+
+    /**
+     * Queues a session for processing
+     *
+     * @return false if the session is already queued, or running and will get another turn
+     */
+    public synchronized boolean submit(String activityId, LocalDate applicationDate, String endpointUrl) {
+        SessionKey key = new SessionKey(activityId, applicationDate, EndpointResilienceRegistry.endpointKey(endpointUrl));
+        if (shutdown) {
+            return false;
+        }
+        if (!scheduled.add(key)) {
+            // A running turn may already have seen the session as inactive, so it gets one more turn
+            return !runQueue.contains(key) && resubmitted.add(key);
+        }
+        runQueue.addLast(key);
+        log.debug("Queued session for activity {} on {} ({} queued, {} running)",
+                activityId, applicationDate, runQueue.size(), running);
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Whether a session is queued or running on this engine
+     */
+    public synchronized boolean isScheduled(String activityId, LocalDate applicationDate) {
+        return scheduled.contains(new SessionKey(activityId, applicationDate, null));
+    }
+
+    public synchronized int getQueuedCount() {
+        return runQueue.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            runQueue.clear();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Starts turns for queued sessions while workers are free, skipping sessions whose endpoint is at its cap
+     */
+    private void dispatch() {
+        while (!shutdown && running < maxConcurrentSessions) {
+            SessionKey next = pollRunnable();
+            if (next == null) {
+                return;
+            }
+            running++;
+            runningPerEndpoint.merge(next.endpoint, 1, Integer::sum);
+            workers.execute(() -> runTurn(next));
+        }
+    }
+
+    private SessionKey pollRunnable() {
+        Iterator<SessionKey> iterator = runQueue.iterator();
+        while (iterator.hasNext()) {
+            SessionKey key = iterator.next();
+            if (runningPerEndpoint.getOrDefault(key.endpoint, 0) < maxSessionsPerEndpoint) {
+                iterator.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private void runTurn(SessionKey key) {
+        boolean hasMore = false;
+        try {
+            hasMore = packetProcessingService.processPacketTurn(key.activityId, key.applicationDate, packetsPerTurn);
+        } catch (Exception e) {
+            log.error("Error processing packets for activity {} on {}", key.activityId, key.applicationDate, e);
+        } finally {
+            synchronized (this) {
+                running--;
+                runningPerEndpoint.computeIfPresent(key.endpoint, (endpoint, count) -> count > 1 ? count - 1 : null);
+                boolean again = resubmitted.remove(key);
+                if ((hasMore || again) && !shutdown) {
+                    runQueue.addLast(key);
+                } else {
+                    scheduled.remove(key);
+                }
+                dispatch();
+            }
+        }
+    }
+
+    private static class SessionKey {
+        private final String activityId;
+        private final LocalDate applicationDate;
+        private final String endpoint;
+
+        SessionKey(String activityId, LocalDate applicationDate, String endpoint) {
+            this.activityId = activityId;
+            this.applicationDate = applicationDate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey other)) {
+                return false;
+            }
+            return activityId.equals(other.activityId) && applicationDate.equals(other.applicationDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(activityId, applicationDate);
+        }
+    }
+}
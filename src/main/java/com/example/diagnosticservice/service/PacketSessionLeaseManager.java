@@ -0,0 +1,162 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.PacketProcessingSession;
+import com.example.diagnosticservice.repository.PacketProcessingSessionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Leases ACTIVE packet sessions to the instance processing them, so each session runs on exactly one
+ * instance of the cluster. The instance that starts or resumes a session takes its lease; leases are
+ * renewed by {@link PacketSessionLeaseScheduler} while the session runs, and a session whose lease
+ * has expired (its instance died or stopped renewing) is claimed by another instance.
+ * Claims lock the session rows with FOR UPDATE SKIP LOCKED, so instances claiming at the same
+ * time each get different sessions without waiting on each other.
+ */
+@Component
+@Slf4j
+public class PacketSessionLeaseManager {
+
+    private final PacketProcessingSessionRepository sessionRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${packet.processing.lease.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${packet.processing.lease.instance-id:}")
+    private String configuredInstanceId = "";
+
+    @Value("${packet.processing.lease.duration-ms:30000}")
+    private long leaseDurationMs = 30000;
+
+    @Value("${packet.processing.lease.max-sessions-per-instance:64}")
+    private int maxSessionsPerInstance = 64;
+
+    private String instanceId = generateInstanceId();
+
+    public PacketSessionLeaseManager(PacketProcessingSessionRepository sessionRepository,
+                                     TransactionTemplate transactionTemplate) {
+        this.sessionRepository = sessionRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    void init() {
+        if (configuredInstanceId != null && !configuredInstanceId.isBlank()) {
+            instanceId = configuredInstanceId;
+        }
+        if (enabled) {
+            log.info("Packet sessions are leased to instance {} for {}ms at a time", instanceId, leaseDurationMs);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Gives this instance the lease of a session it activates; the caller saves the session
+     */
+    public void acquire(PacketProcessingSession session) {
+        session.setLeaseOwner(instanceId);
+        session.setLeaseExpiresAt(Instant.now().plusMillis(leaseDurationMs));
+    }
+
+    /**
+     * Whether this instance may process the session, i.e. it holds the session's lease
+     */
+    public boolean holdsLease(PacketProcessingSession session) {
+        return !enabled || instanceId.equals(session.getLeaseOwner());
+    }
+
+    /**
+     * Fails a packet commit if the session was claimed by another instance meanwhile, rolling the packet back
+     */
+    public void checkLease(PacketProcessingSession session) {
+        if (!holdsLease(session)) {
+            throw new LeaseLostException("Session for activity " + session.getActivityId() + " on "
+                    + session.getApplicationDate() + " is now leased to " + session.getLeaseOwner());
+        }
+    }
+
+    /**
+     * ACTIVE sessions this instance holds the lease of
+     */
+    public List<PacketProcessingSession> findOwnedSessions() {
+        return sessionRepository.findByLeaseOwnerAndStatus(instanceId, "ACTIVE");
+    }
+
+    /**
+     * Extends the leases of sessions this instance is processing; leases taken over by another instance are left alone
+     *
+     * @return The number of leases renewed
+     */
+    public int renew(List<PacketProcessingSession> sessions) {
+        if (sessions.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = sessions.stream().map(PacketProcessingSession::getId).toList();
+        return sessionRepository.renewLeases(ids, instanceId, Instant.now().plusMillis(leaseDurationMs));
+    }
+
+    /**
+     * Takes over ACTIVE sessions without a live lease, up to this instance's share
+     *
+     * @param ownedCount Sessions this instance already holds
+     * @return The claimed sessions
+     */
+    public List<PacketProcessingSession> claim(int ownedCount) {
+        int capacity = maxSessionsPerInstance - ownedCount;
+        if (capacity <= 0) {
+            return Collections.emptyList();
+        }
+        List<PacketProcessingSession> claimed = transactionTemplate.execute(status -> {
+            Instant now = Instant.now();
+            List<PacketProcessingSession> sessions = sessionRepository.findClaimableSessions(now, capacity);
+            for (PacketProcessingSession session : sessions) {
+                if (session.getLeaseOwner() != null) {
+                    log.info("Taking over session for activity {} on {} from {}, whose lease expired at {}",
+                            session.getActivityId(), session.getApplicationDate(), session.getLeaseOwner(),
+                            session.getLeaseExpiresAt());
+                }
+                acquire(session);
+            }
+            sessionRepository.saveAll(sessions);
+            return sessions;
+        });
+        return claimed != null ? claimed : Collections.emptyList();
+    }
+
+    private static String generateInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "instance";
+        }
+        // Unique per process, so a restarted instance does not continue the previous process's leases blindly
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Thrown when a session's lease passed to another instance while this one was processing it
+     */
+    public static class LeaseLostException extends RuntimeException {
+        public LeaseLostException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.PacketProcessingSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Heartbeat of this instance's packet session leases. Each beat renews the leases of the sessions this
+ * instance holds, queues any of them the session engine is not running, and claims unleased or expired
+ * ACTIVE sessions, e.g. those of a crashed instance, onto the local engine.
+ */
+@Component
+@Slf4j
+public class PacketSessionLeaseScheduler {
+
+    private final PacketSessionLeaseManager leaseManager;
+    private final PacketSessionEngine sessionEngine;
+
+    public PacketSessionLeaseScheduler(PacketSessionLeaseManager leaseManager, PacketSessionEngine sessionEngine) {
+        this.leaseManager = leaseManager;
+        this.sessionEngine = sessionEngine;
+    }
+
+    @Scheduled(fixedDelayString = "${packet.processing.lease.heartbeat-interval-ms:10000}")
+    public void heartbeat() {
+        if (!leaseManager.isEnabled()) {
+            return;
+        }
+        try {
+            List<PacketProcessingSession> owned = leaseManager.findOwnedSessions();
+            for (PacketProcessingSession session : owned) {
+                // E.g. a turn that ended on an error; the lease would otherwise be renewed with nobody processing
+                if (!sessionEngine.isScheduled(session.getActivityId(), session.getApplicationDate())) {
+                    sessionEngine.submit(session.getActivityId(), session.getApplicationDate(), session.getEndpointUrl());
+                }
+            }
+            leaseManager.renew(owned);
+
+            List<PacketProcessingSession> claimed = leaseManager.claim(owned.size());
+            for (PacketProcessingSession session : claimed) {
+                sessionEngine.submit(session.getActivityId(), session.getApplicationDate(), session.getEndpointUrl());
+            }
+            if (!claimed.isEmpty()) {
+                log.info("Claimed {} packet sessions for instance {}", claimed.size(), leaseManager.getInstanceId());
+            }
+        } catch (Exception e) {
+            log.error("Packet session lease heartbeat failed for instance {}", leaseManager.getInstanceId(), e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.diagnosticservice.service;
+
+import java.time.LocalDate;
+
+/**
+ * Published when a session is started or resumed and should be queued for processing
+ */
+public class PacketSessionReadyEvent {
+
+    private final String activityId;
+    private final LocalDate applicationDate;
+    private final String endpointUrl;
+
+    public PacketSessionReadyEvent(String activityId, LocalDate applicationDate, String endpointUrl) {
+        this.activityId = activityId;
+        this.applicationDate = applicationDate;
+        this.endpointUrl = endpointUrl;
+    }
+
+    public String getActivityId() {
+        return activityId;
+    }
+
+    public LocalDate getApplicationDate() {
+        return applicationDate;
+    }
+
+    public String getEndpointUrl() {
+        return endpointUrl;
+    }
+}
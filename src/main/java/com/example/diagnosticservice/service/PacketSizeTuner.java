@@ -0,0 +1,97 @@
+package com.example.diagnosticservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chooses the fetch limit of a session's packets from the responses seen so far.
+ * A fetch is modelled as a fixed per-request overhead plus a per-record cost: the upstream's
+ * X-Server-Processing-Time header separates the two (overhead = round trip - server time), and
+ * without it the whole round trip is treated as per-record cost, which still converges on the target.
+ * The next size is the largest whose predicted round trip meets the latency target and whose
+ * predicted response stays under the byte limit, changing by at most a factor of two per packet.
+ */
+@Slf4j
+class PacketSizeTuner {
+
+    // Weight of the newest sample in the moving averages
+    private static final double SMOOTHING = 0.3;
+    private static final int MAX_STEP_FACTOR = 2;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatencyMs;
+    private final long maxResponseBytes;
+
+    private int size;
+    private double overheadMs = -1;
+    private double perRecordMs = -1;
+    private double bytesPerRecord = -1;
+
+    /**
+     * @param initialSize Size of the first packet, e.g. the last size chosen for the session
+     * @param targetLatencyMs Round trip a packet fetch should take
+     * @param maxResponseBytes Largest response body to ask for, or 0 for no limit
+     */
+    PacketSizeTuner(int initialSize, int minSize, int maxSize, long targetLatencyMs, long maxResponseBytes) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxResponseBytes = maxResponseBytes;
+        this.size = clamp(initialSize, this.minSize, this.maxSize);
+    }
+
+    /**
+     * Fetch limit for the next packet
+     */
+    synchronized int nextSize() {
+        return size;
+    }
+
+    /**
+     * Updates the model from a fetched packet and chooses the size of the next one
+     */
+    synchronized void onResponse(RestClientService.RestClientResponse response) {
+        int recordCount = response.getRecords() != null ? response.getRecords().size() : 0;
+        if (!response.isSuccess() || recordCount == 0 || response.getResponseTimeMs() <= 0) {
+            return;
+        }
+
+        long roundTripMs = response.getResponseTimeMs();
+        long serverMs = response.getPacketMetadata() != null ? response.getPacketMetadata().getServerProcessingTime() : 0;
+        if (serverMs > 0 && serverMs <= roundTripMs) {
+            overheadMs = smooth(overheadMs, roundTripMs - serverMs);
+            perRecordMs = smooth(perRecordMs, (double) serverMs / recordCount);
+        } else {
+            overheadMs = smooth(overheadMs, 0);
+            perRecordMs = smooth(perRecordMs, (double) roundTripMs / recordCount);
+        }
+        if (response.getResponseBytes() > 0) {
+            bytesPerRecord = smooth(bytesPerRecord, (double) response.getResponseBytes() / recordCount);
+        }
+
+        int previous = size;
+        size = clamp(desiredSize(), Math.max(minSize, previous / MAX_STEP_FACTOR), Math.min(maxSize, previous * MAX_STEP_FACTOR));
+        if (size != previous) {
+            log.debug("Packet size {} -> {} (round trip {}ms, server {}ms, {} records, {} bytes)",
+                    previous, size, roundTripMs, serverMs, recordCount, response.getResponseBytes());
+        }
+    }
+
+    private int desiredSize() {
+        double budgetMs = targetLatencyMs - overheadMs;
+        // If the overhead alone exceeds the target, larger packets at least amortise it
+        double bySize = budgetMs > 0 && perRecordMs > 0 ? budgetMs / perRecordMs : maxSize;
+        if (maxResponseBytes > 0 && bytesPerRecord > 0) {
+            bySize = Math.min(bySize, maxResponseBytes / bytesPerRecord);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.floor(bySize));
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.diagnosticservice.service;
+
+import java.util.Objects;
+
+/**
+ * Where a packet starts in the upstream's result set: an offset, and with cursor pagination
+ * the continuation token the upstream returned for it. The offset is always kept, as the
+ * number of records before the page, even when the cursor is what is sent.
+ */
+public final class PagePosition {
+
+    private final int offset;
+    private final String cursor;
+
+    private PagePosition(int offset, String cursor) {
+        this.offset = offset;
+        this.cursor = cursor;
+    }
+
+    public static PagePosition ofOffset(int offset) {
+        return new PagePosition(offset, null);
+    }
+
+    public static PagePosition of(int offset, String cursor) {
+        return new PagePosition(offset, cursor);
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * The continuation token, or null to request the page by offset
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PagePosition other)) {
+            return false;
+        }
+        return offset == other.offset && Objects.equals(cursor, other.cursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, cursor);
+    }
+
+    @Override
+    public String toString() {
+        return cursor != null ? "offset=" + offset + ", cursor=" + cursor : "offset=" + offset;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.diagnosticservice.service;
+
+/**
+ * How a session pages through its endpoint, i.e. where the packet after a fetched one starts
+ */
+public enum PaginationStrategy {
+
+    /**
+     * offset and limit; the next offset is the current one plus the records received, whatever the upstream says
+     */
+    OFFSET {
+        @Override
+        PagePosition following(RestClientService.RestClientResponse response) {
+            return PagePosition.ofOffset(response.getOffset() + recordCount(response));
+        }
+    },
+
+    /**
+     * offset and limit, continuing at the X-Next-Offset the upstream returns, if any
+     */
+    NEXT_OFFSET {
+        @Override
+        PagePosition following(RestClientService.RestClientResponse response) {
+            return PagePosition.ofOffset(response.getNextOffset());
+        }
+    },
+
+    /**
+     * Keyset pagination with an opaque continuation token from a response header or body field;
+     * the data ends when the upstream stops returning a token
+     */
+    CURSOR {
+        @Override
+        PagePosition following(RestClientService.RestClientResponse response) {
+            return PagePosition.of(response.getOffset() + recordCount(response), response.getNextCursor());
+        }
+
+        @Override
+        Boolean hasNextPage(RestClientService.RestClientResponse response) {
+            return response.getNextCursor() != null && !response.getNextCursor().isEmpty();
+        }
+    };
+
+    /**
+     * Position of the packet after a fetched one
+     */
+    abstract PagePosition following(RestClientService.RestClientResponse response);
+
+    /**
+     * Whether another packet follows a fetched one, or null when the strategy cannot tell
+     * and the header metadata or record count decide
+     */
+    Boolean hasNextPage(RestClientService.RestClientResponse response) {
+        return null;
+    }
+
+    private static int recordCount(RestClientService.RestClientResponse response) {
+        return response.getRecords() != null ? response.getRecords().size() : 0;
+    }
+}
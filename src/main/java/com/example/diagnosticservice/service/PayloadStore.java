@@ -0,0 +1,243 @@
+package com.example.diagnosticservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Array;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed, compressed store for message bodies.
+ * Log rows reference a payload by the SHA-256 of its content, so a body that is logged on
+ * every hop (received, retried, dead-lettered) is written once. Bodies are gzip-compressed
+ * unless they are too small to benefit.
+ */
+@Component
+@Slf4j
+public class PayloadStore {
+
+    static final String COMPRESSION_GZIP = "GZIP";
+    static final String COMPRESSION_NONE = "NONE";
+
+    private static final int MIN_COMPRESSIBLE_SIZE = 128;
+    // Hashes written this recently are assumed to still exist and are not written again
+    private static final Duration RECENTLY_WRITTEN_TTL = Duration.ofHours(1);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${diagnostic.service.payload-store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${diagnostic.service.payload-store.cache-size:10000}")
+    private int cacheSize = 10000;
+
+    private Map<String, Instant> recentlyWritten;
+
+    public PayloadStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Hashes and compresses a payload
+     *
+     * @param payload The message body
+     * @return The payload to reference; its data is null if the same content was written recently
+     *         and the insert can be skipped, or null if the payload itself is null
+     */
+    public StoredPayload prepare(String payload) {
+        if (payload == null) {
+            return null;
+        }
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        String hash = hash(bytes);
+
+        if (markWritten(hash)) {
+            return new StoredPayload(hash, null, null, bytes.length);
+        }
+        if (bytes.length < MIN_COMPRESSIBLE_SIZE) {
+            return new StoredPayload(hash, COMPRESSION_NONE, bytes, bytes.length);
+        }
+        return new StoredPayload(hash, COMPRESSION_GZIP, gzip(bytes), bytes.length);
+    }
+
+    /**
+     * Loads and decompresses a single payload
+     *
+     * @return The payload, or null if it is not stored
+     */
+    public String load(String hash) {
+        return loadAll(List.of(hash)).get(hash);
+    }
+
+    /**
+     * Loads and decompresses several payloads in one query
+     */
+    public Map<String, String> loadAll(Collection<String> hashes) {
+        Map<String, String> payloads = new HashMap<>();
+        if (hashes.isEmpty()) {
+            return payloads;
+        }
+        jdbcTemplate.query(con -> {
+            Array hashArray = con.createArrayOf("varchar", hashes.toArray());
+            var ps = con.prepareStatement("SELECT hash, compression, data FROM payloads WHERE hash = ANY(?)");
+            ps.setArray(1, hashArray);
+            return ps;
+        }, rs -> {
+            payloads.put(rs.getString(1), decode(rs.getString(2), rs.getBytes(3)));
+        });
+        return payloads;
+    }
+
+    /**
+     * Fills in the body of rows that only carry a payload hash
+     *
+     * @param rows Rows read from a log table
+     * @param hashGetter Returns the payload hash of a row
+     * @param bodyGetter Returns the inline body of a row, if any
+     * @param bodySetter Sets the resolved body on a row
+     */
+    public <T> void resolve(List<T> rows, Function<T, String> hashGetter, Function<T, String> bodyGetter,
+                            BiConsumer<T, String> bodySetter) {
+        List<String> hashes = rows.stream()
+                .filter(row -> bodyGetter.apply(row) == null && hashGetter.apply(row) != null)
+                .map(hashGetter)
+                .distinct()
+                .toList();
+        if (hashes.isEmpty()) {
+            return;
+        }
+        Map<String, String> payloads = loadAll(hashes);
+        for (T row : rows) {
+            String hash = hashGetter.apply(row);
+            if (bodyGetter.apply(row) == null && hash != null) {
+                bodySetter.accept(row, payloads.get(hash));
+            }
+        }
+    }
+
+    /**
+     * Records that a hash is being written
+     *
+     * @return true if it was already written recently
+     */
+    private synchronized boolean markWritten(String hash) {
+        if (recentlyWritten == null) {
+            int maxEntries = Math.max(1, cacheSize);
+            recentlyWritten = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Instant> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+        Instant now = Instant.now();
+        Instant writtenAt = recentlyWritten.get(hash);
+        if (writtenAt != null && writtenAt.isAfter(now.minus(RECENTLY_WRITTEN_TTL))) {
+            return true;
+        }
+        recentlyWritten.put(hash, now);
+        return false;
+    }
+
+    /**
+     * Forgets hashes whose insert failed so the next reference writes them again
+     */
+    public synchronized void forget(Collection<String> hashes) {
+        if (recentlyWritten != null) {
+            hashes.forEach(recentlyWritten::remove);
+        }
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compress payload", e);
+        }
+        return out.toByteArray();
+    }
+
+    static String decode(String compression, byte[] data) {
+        if (!COMPRESSION_GZIP.equals(compression)) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decompress payload", e);
+        }
+    }
+
+    /**
+     * A payload ready to be written to the payloads table
+     */
+    public static class StoredPayload {
+        private final String hash;
+        private final String compression;
+        private final byte[] data;
+        private final int originalSize;
+
+        public StoredPayload(String hash, String compression, byte[] data, int originalSize) {
+            this.hash = hash;
+            this.compression = compression;
+            this.data = data;
+            this.originalSize = originalSize;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getCompression() {
+            return compression;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOriginalSize() {
+            return originalSize;
+        }
+
+        /**
+         * Whether the payload still has to be inserted
+         */
+        public boolean needsWrite() {
+            return data != null;
+        }
+    }
+}
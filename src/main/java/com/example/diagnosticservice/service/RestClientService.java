@@ -1,9 +1,13 @@
 package com.example.diagnosticservice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
@@ -13,6 +17,9 @@ import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +30,8 @@ public class RestClientService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final EndpointResilienceRegistry endpointResilience;
+    private final PacketResponseStreamParser responseParser;
 
     @Value("${packet.processing.timeout.connect:5000}")
     private int connectTimeoutMs;
@@ -33,14 +42,30 @@ public class RestClientService {
     @Value("${packet.processing.max-retries:3}")
     private int maxRetries;
 
-    public RestClientService(RestTemplate restTemplate, ObjectMapper objectMapper) {
+    @Value("${packet.processing.pagination.cursor-param:cursor}")
+    private String cursorParam = "cursor";
+
+    @Value("${packet.processing.pagination.cursor-header:X-Next-Cursor}")
+    private String cursorHeader = "X-Next-Cursor";
+
+    @Value("${packet.processing.pagination.cursor-field:nextCursor}")
+    private String cursorField = "nextCursor";
+
+    @Value("${packet.processing.streaming-parse.enabled:true}")
+    private boolean streamingParse = true;
+
+    public RestClientService(RestTemplate restTemplate, ObjectMapper objectMapper,
+                             EndpointResilienceRegistry endpointResilience) {
         this.restTemplate = restTemplate;
         this.objectMapper = objectMapper;
+        this.endpointResilience = endpointResilience;
+        this.responseParser = new PacketResponseStreamParser(objectMapper);
     }
 
     /**
      * Fetches records from a REST endpoint with pagination support
-     * Uses @Retryable annotation for automatic retry with exponential backoff
+     * Uses @Retryable annotation for automatic retry with exponential backoff.
+     * Each attempt goes through the endpoint's concurrency limit and circuit breaker; rejections are not retried
      *
      * @param endpointUrl The REST endpoint URL
      * @param offset The offset for pagination
@@ -50,12 +75,18 @@ public class RestClientService {
      */
     @Retryable(
         value = {HttpServerErrorException.class, ResourceAccessException.class, Exception.class},
-        exclude = {HttpClientErrorException.class},
+        exclude = {HttpClientErrorException.class, CallNotPermittedException.class, BulkheadFullException.class,
+                   AdaptiveConcurrencyLimiter.LimitExceededException.class},
         maxAttempts = 3,
         backoff = @Backoff(delay = 1000, multiplier = 2.0, maxDelay = 10000)
     )
     public RestClientResponse fetchRecords(String endpointUrl, int offset, int limit, Map<String, String> headers) {
         log.debug("Fetching records from {} with offset={}, limit={}", endpointUrl, offset, limit);
+        return exchange(endpointUrl, PagePosition.ofOffset(offset), limit, headers);
+    }
+
+    private RestClientResponse exchange(String endpointUrl, PagePosition position, int limit, Map<String, String> headers) {
+        int offset = position.getOffset();
 
         // Prepare headers
         HttpHeaders httpHeaders = new HttpHeaders();
@@ -69,19 +100,30 @@ public class RestClientService {
         addPacketTrackingHeaders(httpHeaders, offset, limit);
 
         // Add pagination parameters to URL
-        String urlWithParams = buildUrlWithPagination(endpointUrl, offset, limit);
+        String urlWithParams = buildUrlWithPagination(endpointUrl, position, limit);
         
         HttpEntity<String> entity = new HttpEntity<>(httpHeaders);
 
         // Make the request
-        ResponseEntity<String> response = restTemplate.exchange(
+        long requestStart = System.nanoTime();
+        if (streamingParse) {
+            // Records are parsed straight from the response stream; the body is never held as a String
+            return endpointResilience.execute(endpointUrl, () -> restTemplate.execute(
+                urlWithParams,
+                HttpMethod.GET,
+                restTemplate.httpEntityCallback(entity),
+                response -> streamResponse(response, endpointUrl, offset, limit, requestStart)
+            ));
+        }
+        ResponseEntity<String> response = endpointResilience.execute(endpointUrl, () -> restTemplate.exchange(
             urlWithParams, 
             HttpMethod.GET, 
             entity, 
             String.class
-        );
+        ));
+        long responseTimeMs = (System.nanoTime() - requestStart) / 1_000_000;
 
-        return processResponse(response, endpointUrl, offset, limit);
+        return processResponse(response, endpointUrl, offset, limit, responseTimeMs);
     }
 
     /**
@@ -90,37 +132,7 @@ public class RestClientService {
     @Recover
     public RestClientResponse recoverFetchRecords(Exception ex, String endpointUrl, int offset, int limit, Map<String, String> headers) {
         log.error("All retry attempts failed for endpoint {}: {}", endpointUrl, ex.getMessage());
-        
-        String errorMessage;
-        String errorCategory;
-        int httpStatusCode = 0;
-        
-        if (ex instanceof HttpClientErrorException e) {
-            errorMessage = "Client error: " + e.getStatusCode() + " - " + e.getResponseBodyAsString();
-            errorCategory = "CLIENT_ERROR";
-            httpStatusCode = e.getStatusCode().value();
-        } else if (ex instanceof HttpServerErrorException e) {
-            errorMessage = "Server error: " + e.getStatusCode() + " - " + e.getResponseBodyAsString();
-            errorCategory = "SERVER_ERROR";
-            httpStatusCode = e.getStatusCode().value();
-        } else if (ex instanceof ResourceAccessException) {
-            errorMessage = "Connection error: " + ex.getMessage();
-            errorCategory = "CONNECTION_ERROR";
-        } else {
-            errorMessage = "Unexpected error: " + ex.getMessage();
-            errorCategory = "UNKNOWN_ERROR";
-        }
-        
-        return RestClientResponse.builder()
-            .success(false)
-            .errorMessage(errorMessage)
-            .errorCategory(errorCategory)
-            .httpStatusCode(httpStatusCode)
-            .endpointUrl(endpointUrl)
-            .offset(offset)
-            .limit(limit)
-            .timestamp(Instant.now())
-            .build();
+        return failureResponse(ex, endpointUrl, offset, limit);
     }
 
     /**
@@ -134,30 +146,50 @@ public class RestClientService {
     /**
      * Fetches records with aggressive retry for packet processing
      * Uses more retry attempts and faster backoff for critical operations
+     *
+     * @param position The page to fetch: by cursor if the position has one, otherwise by offset
      */
     @Retryable(
         value = {HttpServerErrorException.class, ResourceAccessException.class, Exception.class},
-        exclude = {HttpClientErrorException.class},
+        exclude = {HttpClientErrorException.class, CallNotPermittedException.class, BulkheadFullException.class,
+                   AdaptiveConcurrencyLimiter.LimitExceededException.class},
         maxAttempts = 5,
         backoff = @Backoff(delay = 500, multiplier = 1.5, maxDelay = 5000)
     )
-    public RestClientResponse fetchRecordsForPacketProcessing(String endpointUrl, int offset, int limit, Map<String, String> headers) {
-        log.debug("Fetching records for packet processing from {} with offset={}, limit={}", endpointUrl, offset, limit);
-        return fetchRecords(endpointUrl, offset, limit, headers);
+    public RestClientResponse fetchRecordsForPacketProcessing(String endpointUrl, PagePosition position, int limit, Map<String, String> headers) {
+        log.debug("Fetching records for packet processing from {} with {}, limit={}", endpointUrl, position, limit);
+        return exchange(endpointUrl, position, limit, headers);
     }
 
     /**
      * Recovery method for packet processing retries
      */
     @Recover
-    public RestClientResponse recoverFetchRecordsForPacketProcessing(Exception ex, String endpointUrl, int offset, int limit, Map<String, String> headers) {
+    public RestClientResponse recoverFetchRecordsForPacketProcessing(Exception ex, String endpointUrl, PagePosition position, int limit, Map<String, String> headers) {
         log.error("All packet processing retry attempts failed for endpoint {}: {}", endpointUrl, ex.getMessage());
-        
+        return failureResponse(ex, endpointUrl, position.getOffset(), limit);
+    }
+
+    private RestClientResponse failureResponse(Exception ex, String endpointUrl, int offset, int limit) {
         String errorMessage;
         String errorCategory;
         int httpStatusCode = 0;
+        long retryAfterMs = 0;
         
-        if (ex instanceof HttpClientErrorException e) {
+        if (EndpointResilienceRegistry.isRejection(ex)) {
+            // The endpoint was not called; the caller should back off rather than fail
+            if (ex instanceof CallNotPermittedException) {
+                errorMessage = "Circuit breaker open for endpoint: " + ex.getMessage();
+                errorCategory = "CIRCUIT_BREAKER_OPEN";
+            } else if (ex instanceof BulkheadFullException) {
+                errorMessage = "Too many concurrent calls to endpoint: " + ex.getMessage();
+                errorCategory = "BULKHEAD_FULL";
+            } else {
+                errorMessage = "Endpoint concurrency limit reached: " + ex.getMessage();
+                errorCategory = "CONCURRENCY_LIMITED";
+            }
+            retryAfterMs = endpointResilience.backoffFor(ex).toMillis();
+        } else if (ex instanceof HttpClientErrorException e) {
             errorMessage = "Client error: " + e.getStatusCode() + " - " + e.getResponseBodyAsString();
             errorCategory = "CLIENT_ERROR";
             httpStatusCode = e.getStatusCode().value();
@@ -178,6 +210,7 @@ public class RestClientService {
             .errorMessage(errorMessage)
             .errorCategory(errorCategory)
             .httpStatusCode(httpStatusCode)
+            .retryAfterMs(retryAfterMs)
             .endpointUrl(endpointUrl)
             .offset(offset)
             .limit(limit)
@@ -185,7 +218,7 @@ public class RestClientService {
             .build();
     }
 
-    private String buildUrlWithPagination(String baseUrl, int offset, int limit) {
+    private String buildUrlWithPagination(String baseUrl, PagePosition position, int limit) {
         StringBuilder url = new StringBuilder(baseUrl);
         
         if (baseUrl.contains("?")) {
@@ -194,64 +227,111 @@ public class RestClientService {
             url.append("?");
         }
         
-        url.append("offset=").append(offset)
-           .append("&limit=").append(limit);
+        // Keyset pages are requested by the upstream's continuation token instead of an offset
+        if (position.getCursor() != null) {
+            url.append(cursorParam).append("=").append(URLEncoder.encode(position.getCursor(), StandardCharsets.UTF_8));
+        } else {
+            url.append("offset=").append(position.getOffset());
+        }
+        url.append("&limit=").append(limit);
         
         return url.toString();
     }
 
-    private RestClientResponse processResponse(ResponseEntity<String> response, String endpointUrl, int offset, int limit) {
+    private RestClientResponse processResponse(ResponseEntity<String> response, String endpointUrl, int offset, int limit,
+                                               long responseTimeMs) {
         try {
             String responseBody = response.getBody();
-            HttpHeaders responseHeaders = response.getHeaders();
             
             // Parse the response to extract records
-            List<Map<String, Object>> records = parseRecordsFromResponse(responseBody);
-            
-            // Extract packet metadata from response headers
-            PacketMetadata packetMetadata = extractPacketMetadata(responseHeaders);
-            
-            // Use header metadata if available, otherwise fallback to calculated values
-            int totalRecords = packetMetadata.getTotalRecords() > 0 ? packetMetadata.getTotalRecords() : records.size();
-            boolean hasMoreRecords = packetMetadata.isHasMoreRecords() || (records.size() == limit);
+            Map<String, Object> responseMap = parseResponseBody(responseBody);
+            List<Map<String, Object>> records = extractRecords(responseMap);
             
-            return RestClientResponse.builder()
-                .success(true)
-                .records(records)
-                .totalRecords(totalRecords)
-                .hasMoreRecords(hasMoreRecords)
-                .nextOffset(packetMetadata.getNextOffset() > 0 ? packetMetadata.getNextOffset() : offset + records.size())
-                .packetMetadata(packetMetadata)
-                .httpStatusCode(response.getStatusCode().value())
-                .responseHeaders(convertHeadersToString(responseHeaders))
-                .endpointUrl(endpointUrl)
-                .offset(offset)
-                .limit(limit)
-                .timestamp(Instant.now())
-                .build();
+            return successResponse(response.getStatusCode(), response.getHeaders(), records, responseMap,
+                responseBody != null ? responseBody.length() : 0, endpointUrl, offset, limit, responseTimeMs);
 
         } catch (Exception e) {
             log.error("Error processing response from {}: {}", endpointUrl, e.getMessage(), e);
-            return RestClientResponse.builder()
-                .success(false)
-                .errorMessage("Response processing error: " + e.getMessage())
-                .errorCategory("RESPONSE_PROCESSING_ERROR")
-                .httpStatusCode(response.getStatusCode().value())
-                .endpointUrl(endpointUrl)
-                .offset(offset)
-                .limit(limit)
-                .timestamp(Instant.now())
-                .build();
+            return processingErrorResponse(e, response.getStatusCode(), endpointUrl, offset, limit);
+        }
+    }
+
+    /**
+     * Streaming counterpart of processResponse: reads the records from the response body stream one at a time.
+     * Malformed JSON is a processing error as before; I/O errors propagate and are retried like other connection errors.
+     */
+    private RestClientResponse streamResponse(ClientHttpResponse response, String endpointUrl, int offset, int limit,
+                                              long requestStart) throws IOException {
+        PacketResponseStreamParser.ParsedBody body;
+        try {
+            body = responseParser.parse(response.getBody());
+        } catch (JsonProcessingException e) {
+            log.error("Error processing response from {}: {}", endpointUrl, e.getMessage(), e);
+            return processingErrorResponse(e, response.getStatusCode(), endpointUrl, offset, limit);
         }
+        long responseTimeMs = (System.nanoTime() - requestStart) / 1_000_000;
+        return successResponse(response.getStatusCode(), response.getHeaders(), body.getRecords(), body.getEnvelope(),
+            body.getBytesRead(), endpointUrl, offset, limit, responseTimeMs);
+    }
+
+    private RestClientResponse successResponse(HttpStatusCode statusCode, HttpHeaders responseHeaders,
+                                               List<Map<String, Object>> records, Map<String, Object> responseMap,
+                                               long bodyBytes, String endpointUrl, int offset, int limit, long responseTimeMs) {
+        // Extract packet metadata from response headers
+        PacketMetadata packetMetadata = extractPacketMetadata(responseHeaders);
+        
+        // Use header metadata if available, otherwise fallback to calculated values
+        int totalRecords = packetMetadata.getTotalRecords() > 0 ? packetMetadata.getTotalRecords() : records.size();
+        boolean hasMoreRecords = packetMetadata.isHasMoreRecords() || (records.size() == limit);
+        long contentLength = responseHeaders.getContentLength();
+        long responseBytes = contentLength >= 0 ? contentLength : bodyBytes;
+        
+        return RestClientResponse.builder()
+            .success(true)
+            .records(records)
+            .totalRecords(totalRecords)
+            .hasMoreRecords(hasMoreRecords)
+            .nextOffset(packetMetadata.getNextOffset() > 0 ? packetMetadata.getNextOffset() : offset + records.size())
+            .nextCursor(extractNextCursor(responseHeaders, responseMap))
+            .packetMetadata(packetMetadata)
+            .httpStatusCode(statusCode.value())
+            .responseHeaders(convertHeadersToString(responseHeaders))
+            .responseTimeMs(responseTimeMs)
+            .responseBytes(responseBytes)
+            .endpointUrl(endpointUrl)
+            .offset(offset)
+            .limit(limit)
+            .timestamp(Instant.now())
+            .build();
+    }
+
+    private RestClientResponse processingErrorResponse(Exception e, HttpStatusCode statusCode, String endpointUrl,
+                                                       int offset, int limit) {
+        return RestClientResponse.builder()
+            .success(false)
+            .errorMessage("Response processing error: " + e.getMessage())
+            .errorCategory("RESPONSE_PROCESSING_ERROR")
+            .httpStatusCode(statusCode.value())
+            .endpointUrl(endpointUrl)
+            .offset(offset)
+            .limit(limit)
+            .timestamp(Instant.now())
+            .build();
     }
 
     @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> parseRecordsFromResponse(String responseBody) throws Exception {
+    private Map<String, Object> parseResponseBody(String responseBody) throws Exception {
         if (responseBody == null || responseBody.trim().isEmpty()) {
-            return List.of();
+            return null;
         }
+        return objectMapper.readValue(responseBody, Map.class);
+    }
 
-        Map<String, Object> responseMap = objectMapper.readValue(responseBody, Map.class);
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> extractRecords(Map<String, Object> responseMap) {
+        if (responseMap == null) {
+            return List.of();
+        }
         
         // Try to extract records from common response patterns
         if (responseMap.containsKey("data")) {
@@ -277,6 +357,26 @@ public class RestClientService {
         return List.of(responseMap);
     }
 
+    /**
+     * Continuation token for cursor pagination: the cursor header if present, otherwise the cursor
+     * body field, which may be a dotted path such as paging.next
+     */
+    @SuppressWarnings("unchecked")
+    private String extractNextCursor(HttpHeaders responseHeaders, Map<String, Object> responseMap) {
+        String headerCursor = responseHeaders.getFirst(cursorHeader);
+        if (headerCursor != null && !headerCursor.isEmpty()) {
+            return headerCursor;
+        }
+        Object value = responseMap;
+        for (String key : cursorField.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<String, Object>) value).get(key);
+        }
+        return value != null && !value.toString().isEmpty() ? value.toString() : null;
+    }
+
     private String convertHeadersToString(HttpHeaders headers) {
         try {
             return objectMapper.writeValueAsString(headers.toSingleValueMap());
@@ -366,11 +466,15 @@ public class RestClientService {
         private int totalRecords;
         private boolean hasMoreRecords;
         private int nextOffset;
+        private String nextCursor;
         private PacketMetadata packetMetadata;
         private String errorMessage;
         private String errorCategory;
         private int httpStatusCode;
         private String responseHeaders;
+        private long retryAfterMs;
+        private long responseTimeMs;
+        private long responseBytes;
         private String endpointUrl;
         private int offset;
         private int limit;
@@ -387,11 +491,15 @@ public class RestClientService {
             private int totalRecords;
             private boolean hasMoreRecords;
             private int nextOffset;
+            private String nextCursor;
             private PacketMetadata packetMetadata;
             private String errorMessage;
             private String errorCategory;
             private int httpStatusCode;
             private String responseHeaders;
+            private long retryAfterMs;
+            private long responseTimeMs;
+            private long responseBytes;
             private String endpointUrl;
             private int offset;
             private int limit;
@@ -422,6 +530,11 @@ public class RestClientService {
                 return this;
             }
 
+            public RestClientResponseBuilder nextCursor(String nextCursor) {
+                this.nextCursor = nextCursor;
+                return this;
+            }
+
             public RestClientResponseBuilder packetMetadata(PacketMetadata packetMetadata) {
                 this.packetMetadata = packetMetadata;
                 return this;
@@ -447,6 +560,21 @@ public class RestClientService {
                 return this;
             }
 
+            public RestClientResponseBuilder retryAfterMs(long retryAfterMs) {
+                this.retryAfterMs = retryAfterMs;
+                return this;
+            }
+
+            public RestClientResponseBuilder responseTimeMs(long responseTimeMs) {
+                this.responseTimeMs = responseTimeMs;
+                return this;
+            }
+
+            public RestClientResponseBuilder responseBytes(long responseBytes) {
+                this.responseBytes = responseBytes;
+                return this;
+            }
+
             public RestClientResponseBuilder endpointUrl(String endpointUrl) {
                 this.endpointUrl = endpointUrl;
                 return this;
@@ -474,11 +602,15 @@ public class RestClientService {
                 response.totalRecords = this.totalRecords;
                 response.hasMoreRecords = this.hasMoreRecords;
                 response.nextOffset = this.nextOffset;
+                response.nextCursor = this.nextCursor;
                 response.packetMetadata = this.packetMetadata;
                 response.errorMessage = this.errorMessage;
                 response.errorCategory = this.errorCategory;
                 response.httpStatusCode = this.httpStatusCode;
                 response.responseHeaders = this.responseHeaders;
+                response.retryAfterMs = this.retryAfterMs;
+                response.responseTimeMs = this.responseTimeMs;
+                response.responseBytes = this.responseBytes;
                 response.endpointUrl = this.endpointUrl;
                 response.offset = this.offset;
                 response.limit = this.limit;
@@ -493,11 +625,16 @@ public class RestClientService {
         public int getTotalRecords() { return totalRecords; }
         public boolean isHasMoreRecords() { return hasMoreRecords; }
         public int getNextOffset() { return nextOffset; }
+        public String getNextCursor() { return nextCursor; }
         public PacketMetadata getPacketMetadata() { return packetMetadata; }
         public String getErrorMessage() { return errorMessage; }
         public String getErrorCategory() { return errorCategory; }
         public int getHttpStatusCode() { return httpStatusCode; }
         public String getResponseHeaders() { return responseHeaders; }
+        public long getRetryAfterMs() { return retryAfterMs; }
+        public boolean isBackoff() { return retryAfterMs > 0; }
+        public long getResponseTimeMs() { return responseTimeMs; }
+        public long getResponseBytes() { return responseBytes; }
         public String getEndpointUrl() { return endpointUrl; }
         public int getOffset() { return offset; }
         public int getLimit() { return limit; }
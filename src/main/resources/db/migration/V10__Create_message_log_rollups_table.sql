@@ -0,0 +1,18 @@
+-- Exact per-minute counts of message outcomes, kept in memory and flushed as upserts.
+-- message_logs may only hold a sample of successful messages, so counts come from here.
+-- Missing topic or error category is stored as '' because both are part of the primary key.
+CREATE TABLE message_log_rollups (
+    bucket_start TIMESTAMP NOT NULL,
+    topic VARCHAR(255) NOT NULL DEFAULT '',
+    processing_status VARCHAR(50) NOT NULL,
+    error_category VARCHAR(50) NOT NULL DEFAULT '',
+    message_count BIGINT NOT NULL DEFAULT 0,
+    total_processing_time_ms BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (bucket_start, topic, processing_status, error_category)
+);
+
+CREATE INDEX idx_message_log_rollups_status ON message_log_rollups(processing_status, bucket_start);
+
+COMMENT ON TABLE message_log_rollups IS 'Per-minute message outcome counts by topic, status and error category';
+COMMENT ON COLUMN message_log_rollups.bucket_start IS 'Start of the minute the outcomes were recorded in';
@@ -0,0 +1,34 @@
+-- Per-minute rollups for retry attempts and dead letter messages, maintained like message_log_rollups.
+-- Rollups are bucketed by the minute the row was created and follow status changes, so they give
+-- the same counts as grouping the raw tables by created_at and current status.
+CREATE TABLE retry_attempt_rollups (
+    bucket_start TIMESTAMP NOT NULL,
+    topic VARCHAR(255) NOT NULL DEFAULT '',
+    status VARCHAR(50) NOT NULL,
+    error_category VARCHAR(50) NOT NULL DEFAULT '',
+    attempt_count BIGINT NOT NULL DEFAULT 0,
+    total_processing_time_ms BIGINT NOT NULL DEFAULT 0,
+    timed_attempt_count BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (bucket_start, topic, status, error_category)
+);
+
+CREATE TABLE dead_letter_rollups (
+    bucket_start TIMESTAMP NOT NULL,
+    source_topic VARCHAR(255) NOT NULL DEFAULT '',
+    processing_status VARCHAR(50) NOT NULL,
+    error_category VARCHAR(50) NOT NULL DEFAULT '',
+    source_service VARCHAR(255) NOT NULL DEFAULT '',
+    message_count BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (bucket_start, source_topic, processing_status, error_category, source_service)
+);
+
+-- Stats queries filter on a time range only
+CREATE INDEX idx_message_log_rollups_bucket_start ON message_log_rollups(bucket_start);
+CREATE INDEX idx_retry_attempt_rollups_bucket_start ON retry_attempt_rollups(bucket_start);
+CREATE INDEX idx_dead_letter_rollups_bucket_start ON dead_letter_rollups(bucket_start);
+
+COMMENT ON TABLE retry_attempt_rollups IS 'Per-minute retry attempt counts by topic, status and error category';
+COMMENT ON COLUMN retry_attempt_rollups.timed_attempt_count IS 'Attempts that reported a processing time, for averages';
+COMMENT ON TABLE dead_letter_rollups IS 'Per-minute dead letter counts by source topic, status, error category and source service';
@@ -0,0 +1,7 @@
+-- Sessions whose endpoint circuit breaker is open or whose bulkhead is full wait in status BACKOFF
+-- until backoff_until instead of failing, and are resumed automatically.
+ALTER TABLE packet_processing_sessions ADD COLUMN backoff_until TIMESTAMP;
+
+CREATE INDEX idx_packet_sessions_backoff_until ON packet_processing_sessions(backoff_until) WHERE status = 'BACKOFF';
+
+COMMENT ON COLUMN packet_processing_sessions.backoff_until IS 'When a BACKOFF session is resumed';
@@ -0,0 +1,4 @@
+-- Number of records of a packet a session processes concurrently; NULL uses the configured default.
+ALTER TABLE packet_processing_sessions ADD COLUMN record_parallelism INTEGER;
+
+COMMENT ON COLUMN packet_processing_sessions.record_parallelism IS 'Records of a packet processed concurrently (NULL = configured default)';
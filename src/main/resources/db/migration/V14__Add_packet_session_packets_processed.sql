@@ -0,0 +1,8 @@
+-- Sessions are processed in turns of a few packets; the packet count carries packet numbering across turns.
+ALTER TABLE packet_processing_sessions ADD COLUMN packets_processed INTEGER;
+
+UPDATE packet_processing_sessions s SET packets_processed =
+    (SELECT COALESCE(MAX(r.packet_number), 0) FROM packet_processing_records r
+     WHERE r.activity_id = s.activity_id AND r.application_date = s.application_date);
+
+COMMENT ON COLUMN packet_processing_sessions.packets_processed IS 'Packets processed so far; the next packet number is packets_processed + 1';
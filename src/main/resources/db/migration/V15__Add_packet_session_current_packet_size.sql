@@ -0,0 +1,5 @@
+-- With adaptive packet sizing the fetch limit changes during a session; the last size used is kept so
+-- later turns and resumes continue from it.
+ALTER TABLE packet_processing_sessions ADD COLUMN current_packet_size INTEGER;
+
+COMMENT ON COLUMN packet_processing_sessions.current_packet_size IS 'Fetch limit of the last packet; null until the first packet or with a fixed packet size';
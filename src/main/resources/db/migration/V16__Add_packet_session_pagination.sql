@@ -0,0 +1,7 @@
+-- Sessions can page through their endpoint by offset, by the upstream's next offset or by cursor;
+-- the cursor of the next packet is checkpointed with the offset so resumes continue from it.
+ALTER TABLE packet_processing_sessions ADD COLUMN pagination_strategy VARCHAR(20);
+ALTER TABLE packet_processing_sessions ADD COLUMN current_cursor TEXT;
+
+COMMENT ON COLUMN packet_processing_sessions.pagination_strategy IS 'OFFSET, NEXT_OFFSET or CURSOR; null uses packet.processing.pagination.default-strategy';
+COMMENT ON COLUMN packet_processing_sessions.current_cursor IS 'Continuation token of the next packet with CURSOR pagination';
@@ -0,0 +1,35 @@
+-- Sessions whose endpoint reports X-Total-Records can split the remaining offset range into shards
+-- that are fetched and processed concurrently; each shard checkpoints its own offset.
+ALTER TABLE packet_processing_sessions ADD COLUMN shard_count INTEGER;
+ALTER TABLE packet_processing_sessions ADD COLUMN sharded BOOLEAN NOT NULL DEFAULT FALSE;
+
+COMMENT ON COLUMN packet_processing_sessions.shard_count IS 'Shards requested for the session; null or 1 processes it sequentially';
+COMMENT ON COLUMN packet_processing_sessions.sharded IS 'Whether the remaining range was split into packet_processing_shards';
+
+CREATE TABLE packet_processing_shards (
+    id BIGSERIAL PRIMARY KEY,
+    activity_id VARCHAR(255) NOT NULL,
+    application_date DATE NOT NULL,
+    shard_index INTEGER NOT NULL,
+    start_offset INTEGER NOT NULL,
+    end_offset INTEGER NOT NULL,
+    current_offset INTEGER NOT NULL,
+    first_packet_number INTEGER NOT NULL,
+    status VARCHAR(50) NOT NULL DEFAULT 'ACTIVE',
+    packets_processed INTEGER NOT NULL DEFAULT 0,
+    processed_records INTEGER NOT NULL DEFAULT 0,
+    failed_records INTEGER NOT NULL DEFAULT 0,
+    error_message TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    completed_at TIMESTAMP,
+    UNIQUE(activity_id, application_date, shard_index)
+);
+
+-- Same pooled ID allocation as the other packet tables (see V7)
+ALTER SEQUENCE packet_processing_shards_id_seq INCREMENT BY 50;
+
+COMMENT ON TABLE packet_processing_shards IS 'Offset ranges of a sharded packet processing session';
+COMMENT ON COLUMN packet_processing_shards.end_offset IS 'Exclusive end of the range';
+COMMENT ON COLUMN packet_processing_shards.current_offset IS 'Offset of the next packet of the shard; equals end_offset once done';
+COMMENT ON COLUMN packet_processing_shards.first_packet_number IS 'Packet number of the packet at start_offset, so packet numbers stay unique across shards';
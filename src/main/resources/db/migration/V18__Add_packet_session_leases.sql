@@ -0,0 +1,11 @@
+-- ACTIVE sessions are leased to the instance processing them. Instances renew their leases with heartbeats
+-- and claim unleased or expired ACTIVE sessions with FOR UPDATE SKIP LOCKED, so sessions spread across
+-- the cluster and the sessions of a dead instance are picked up once its leases expire.
+ALTER TABLE packet_processing_sessions ADD COLUMN lease_owner VARCHAR(255);
+ALTER TABLE packet_processing_sessions ADD COLUMN lease_expires_at TIMESTAMP;
+
+CREATE INDEX idx_packet_sessions_lease ON packet_processing_sessions(lease_expires_at) WHERE status = 'ACTIVE';
+CREATE INDEX idx_packet_sessions_lease_owner ON packet_processing_sessions(lease_owner) WHERE status = 'ACTIVE';
+
+COMMENT ON COLUMN packet_processing_sessions.lease_owner IS 'Instance processing the session';
+COMMENT ON COLUMN packet_processing_sessions.lease_expires_at IS 'When another instance may claim the session unless the owner renews the lease';
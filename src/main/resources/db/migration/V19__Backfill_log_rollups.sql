@@ -0,0 +1,46 @@
+-- Backfill the rollup tables (V10, V11) from the rows logged before LogRollupAggregator started counting,
+-- so stats windows that reach back past the deployment keep their history. Each raw row is counted in
+-- the minute it was created under its current status, with the dimensions the aggregator uses; missing
+-- values become ''. Only rows older than the earliest rollup bucket are added, so rows the aggregator
+-- already counted are not counted twice (a few rows of the first counted minute itself stay out).
+-- Rows that were never written because logging-policy sampled them out cannot be recovered.
+
+INSERT INTO message_log_rollups (bucket_start, topic, processing_status, error_category, message_count,
+                                 total_processing_time_ms, updated_at)
+SELECT date_trunc('minute', created_at), COALESCE(topic, ''), processing_status, COALESCE(error_category, ''),
+       COUNT(*), COALESCE(SUM(processing_time_ms), 0), CURRENT_TIMESTAMP
+FROM message_logs
+WHERE processing_status IS NOT NULL
+  AND created_at < COALESCE((SELECT MIN(bucket_start) FROM message_log_rollups), 'infinity'::timestamp)
+GROUP BY date_trunc('minute', created_at), COALESCE(topic, ''), processing_status, COALESCE(error_category, '')
+ON CONFLICT (bucket_start, topic, processing_status, error_category) DO UPDATE SET
+    message_count = message_log_rollups.message_count + EXCLUDED.message_count,
+    total_processing_time_ms = message_log_rollups.total_processing_time_ms + EXCLUDED.total_processing_time_ms,
+    updated_at = EXCLUDED.updated_at;
+
+INSERT INTO retry_attempt_rollups (bucket_start, topic, status, error_category, attempt_count,
+                                   total_processing_time_ms, timed_attempt_count, updated_at)
+SELECT date_trunc('minute', created_at), COALESCE(topic, ''), status, COALESCE(error_category, ''),
+       COUNT(*), COALESCE(SUM(processing_time_ms), 0), COUNT(processing_time_ms), CURRENT_TIMESTAMP
+FROM retry_attempts
+WHERE status IS NOT NULL
+  AND created_at < COALESCE((SELECT MIN(bucket_start) FROM retry_attempt_rollups), 'infinity'::timestamp)
+GROUP BY date_trunc('minute', created_at), COALESCE(topic, ''), status, COALESCE(error_category, '')
+ON CONFLICT (bucket_start, topic, status, error_category) DO UPDATE SET
+    attempt_count = retry_attempt_rollups.attempt_count + EXCLUDED.attempt_count,
+    total_processing_time_ms = retry_attempt_rollups.total_processing_time_ms + EXCLUDED.total_processing_time_ms,
+    timed_attempt_count = retry_attempt_rollups.timed_attempt_count + EXCLUDED.timed_attempt_count,
+    updated_at = EXCLUDED.updated_at;
+
+INSERT INTO dead_letter_rollups (bucket_start, source_topic, processing_status, error_category, source_service,
+                                 message_count, updated_at)
+SELECT date_trunc('minute', created_at), COALESCE(source_topic, ''), processing_status, COALESCE(error_category, ''),
+       COALESCE(source_service, ''), COUNT(*), CURRENT_TIMESTAMP
+FROM dead_letter_messages
+WHERE processing_status IS NOT NULL
+  AND created_at < COALESCE((SELECT MIN(bucket_start) FROM dead_letter_rollups), 'infinity'::timestamp)
+GROUP BY date_trunc('minute', created_at), COALESCE(source_topic, ''), processing_status, COALESCE(error_category, ''),
+         COALESCE(source_service, '')
+ON CONFLICT (bucket_start, source_topic, processing_status, error_category, source_service) DO UPDATE SET
+    message_count = dead_letter_rollups.message_count + EXCLUDED.message_count,
+    updated_at = EXCLUDED.updated_at;
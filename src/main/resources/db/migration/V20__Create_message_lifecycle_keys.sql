@@ -0,0 +1,17 @@
+-- Keeps lifecycle logging at one row per message now that message_logs is partitioned (V8).
+-- The unique index on lifecycle rows has to include created_at, and every delivery of a message
+-- has its own receive time, so a redelivered message would get a second lifecycle row.
+-- This unpartitioned table remembers the created_at of each message's lifecycle row; the writer
+-- claims it first and writes the row with that created_at, so the upsert finds the existing row.
+-- Keys are purged with the partitions, after the retention period.
+CREATE TABLE message_lifecycle_keys (
+    message_id VARCHAR(255) PRIMARY KEY,
+    created_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_message_lifecycle_keys_created_at ON message_lifecycle_keys(created_at);
+
+INSERT INTO message_lifecycle_keys (message_id, created_at)
+SELECT message_id, MIN(created_at) FROM message_logs WHERE lifecycle_row GROUP BY message_id;
+
+COMMENT ON TABLE message_lifecycle_keys IS 'created_at of the single lifecycle message_logs row of each message';
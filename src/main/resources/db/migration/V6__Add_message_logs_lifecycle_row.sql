@@ -0,0 +1,8 @@
+-- Lifecycle logging writes a single row per message at its terminal state.
+-- Rows written that way are flagged so they can be upserted by message_id
+-- without requiring message_id to be unique across historical rows.
+ALTER TABLE message_logs ADD COLUMN lifecycle_row BOOLEAN NOT NULL DEFAULT FALSE;
+
+CREATE UNIQUE INDEX ux_message_logs_lifecycle_message_id ON message_logs(message_id) WHERE lifecycle_row;
+
+COMMENT ON COLUMN message_logs.lifecycle_row IS 'TRUE for rows written once per message by lifecycle logging mode';
@@ -0,0 +1,9 @@
+-- Hibernate allocates IDs in blocks of 50 (pooled-lo), so each sequence must advance by 50.
+-- This lets Hibernate batch inserts instead of one round trip per row for IDENTITY keys.
+-- Inserts that rely on the column default still get unique IDs, with gaps.
+ALTER SEQUENCE message_logs_id_seq INCREMENT BY 50;
+ALTER SEQUENCE circuit_breaker_events_id_seq INCREMENT BY 50;
+ALTER SEQUENCE retry_attempts_id_seq INCREMENT BY 50;
+ALTER SEQUENCE dead_letter_messages_id_seq INCREMENT BY 50;
+ALTER SEQUENCE packet_processing_sessions_id_seq INCREMENT BY 50;
+ALTER SEQUENCE packet_processing_records_id_seq INCREMENT BY 50;
@@ -0,0 +1,106 @@
+-- Convert the log tables to range-partitioned tables on created_at.
+-- Each existing table becomes the "<table>_legacy" partition covering everything up to the end of
+-- the day of its newest row, and daily partitions follow. LogPartitionManager keeps creating future
+-- partitions and drops or detaches expired ones, so retention never needs a DELETE.
+--
+-- Primary keys and unique indexes on a partitioned table must include the partition key,
+-- so the primary keys become (id, created_at).
+
+-- Moves a table out of the way so a partitioned table with the same name, indexes and sequence can replace it
+CREATE FUNCTION pg_temp.rename_to_legacy(table_name TEXT) RETURNS VOID AS $$
+DECLARE
+    idx RECORD;
+BEGIN
+    EXECUTE format('ALTER TABLE %I RENAME TO %I', table_name, table_name || '_legacy');
+    EXECUTE format('ALTER TABLE %I RENAME CONSTRAINT %I TO %I',
+                   table_name || '_legacy', table_name || '_pkey', table_name || '_legacy_pkey');
+    FOR idx IN SELECT indexname FROM pg_indexes
+               WHERE schemaname = current_schema() AND tablename = table_name || '_legacy'
+                 AND indexname <> table_name || '_legacy_pkey' LOOP
+        EXECUTE format('ALTER INDEX %I RENAME TO %I', idx.indexname, idx.indexname || '_legacy');
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitioned table, attaches the legacy table and adds daily partitions for the coming week
+CREATE FUNCTION pg_temp.partition_from_legacy(table_name TEXT) RETURNS VOID AS $$
+DECLARE
+    legacy_upper TIMESTAMP;
+    partition_start TIMESTAMP;
+BEGIN
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING COMMENTS) ' ||
+                   'PARTITION BY RANGE (created_at)', table_name, table_name || '_legacy');
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I PRIMARY KEY (id, created_at)', table_name, table_name || '_pkey');
+
+    -- The ID sequence must survive the legacy partition being dropped
+    EXECUTE format('ALTER SEQUENCE %I OWNED BY %I.id', table_name || '_id_seq', table_name);
+
+    EXECUTE format('SELECT GREATEST(date_trunc(''day'', LOCALTIMESTAMP), date_trunc(''day'', MAX(created_at))) + INTERVAL ''1 day'' FROM %I',
+                   table_name || '_legacy') INTO legacy_upper;
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (MINVALUE) TO (%L)',
+                   table_name, table_name || '_legacy', legacy_upper);
+
+    partition_start := legacy_upper;
+    WHILE partition_start < legacy_upper + INTERVAL '7 days' LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                       table_name || '_p' || to_char(partition_start, 'YYYYMMDD'), table_name,
+                       partition_start, partition_start + INTERVAL '1 day');
+        partition_start := partition_start + INTERVAL '1 day';
+    END LOOP;
+
+    -- Catches rows outside every range if the partition manager falls behind
+    EXECUTE format('CREATE TABLE %I PARTITION OF %I DEFAULT', table_name || '_default', table_name);
+END;
+$$ LANGUAGE plpgsql;
+
+-- message_logs
+SELECT pg_temp.rename_to_legacy('message_logs');
+SELECT pg_temp.partition_from_legacy('message_logs');
+
+CREATE INDEX idx_message_logs_message_id ON message_logs(message_id);
+CREATE INDEX idx_message_logs_topic_partition ON message_logs(topic, partition);
+CREATE INDEX idx_message_logs_created_at ON message_logs(created_at);
+CREATE INDEX idx_message_logs_processing_status ON message_logs(processing_status);
+CREATE INDEX idx_message_logs_error_category ON message_logs(error_category);
+CREATE INDEX idx_message_logs_circuit_breaker_state ON message_logs(circuit_breaker_state);
+-- Lifecycle rows are unique per message within a receive time; see DatabaseLogBatchWriter
+CREATE UNIQUE INDEX ux_message_logs_lifecycle_message_id ON message_logs(message_id, created_at) WHERE lifecycle_row;
+
+COMMENT ON TABLE message_logs IS 'Logs all messages consumed by the diagnostic service, partitioned by created_at';
+
+-- circuit_breaker_events
+SELECT pg_temp.rename_to_legacy('circuit_breaker_events');
+SELECT pg_temp.partition_from_legacy('circuit_breaker_events');
+
+CREATE INDEX idx_circuit_breaker_events_name ON circuit_breaker_events(circuit_breaker_name);
+CREATE INDEX idx_circuit_breaker_events_type ON circuit_breaker_events(event_type);
+CREATE INDEX idx_circuit_breaker_events_created_at ON circuit_breaker_events(created_at);
+CREATE INDEX idx_circuit_breaker_events_from_state ON circuit_breaker_events(from_state);
+CREATE INDEX idx_circuit_breaker_events_to_state ON circuit_breaker_events(to_state);
+
+COMMENT ON TABLE circuit_breaker_events IS 'Logs circuit breaker events and state changes, partitioned by created_at';
+
+-- retry_attempts
+SELECT pg_temp.rename_to_legacy('retry_attempts');
+SELECT pg_temp.partition_from_legacy('retry_attempts');
+
+CREATE INDEX idx_retry_attempts_message_id ON retry_attempts(message_id);
+CREATE INDEX idx_retry_attempts_attempt_number ON retry_attempts(attempt_number);
+CREATE INDEX idx_retry_attempts_created_at ON retry_attempts(created_at);
+CREATE INDEX idx_retry_attempts_status ON retry_attempts(status);
+CREATE INDEX idx_retry_attempts_error_category ON retry_attempts(error_category);
+
+COMMENT ON TABLE retry_attempts IS 'Logs retry attempts and their outcomes, partitioned by created_at';
+
+-- dead_letter_messages
+SELECT pg_temp.rename_to_legacy('dead_letter_messages');
+SELECT pg_temp.partition_from_legacy('dead_letter_messages');
+
+CREATE INDEX idx_dead_letter_messages_message_id ON dead_letter_messages(message_id);
+CREATE INDEX idx_dead_letter_messages_error_category ON dead_letter_messages(error_category);
+CREATE INDEX idx_dead_letter_messages_created_at ON dead_letter_messages(created_at);
+CREATE INDEX idx_dead_letter_messages_processing_status ON dead_letter_messages(processing_status);
+CREATE INDEX idx_dead_letter_messages_source_topic ON dead_letter_messages(source_topic);
+CREATE INDEX idx_dead_letter_messages_source_service ON dead_letter_messages(source_service);
+
+COMMENT ON TABLE dead_letter_messages IS 'Logs messages sent to Dead Letter Queue, partitioned by created_at';
@@ -0,0 +1,24 @@
+-- Content-addressed store for message bodies, shared by all log tables.
+-- The same payload is logged on every hop (received, retried, dead-lettered) but stored once, compressed.
+CREATE TABLE payloads (
+    hash VARCHAR(64) PRIMARY KEY,
+    compression VARCHAR(10) NOT NULL,
+    original_size INTEGER NOT NULL,
+    data BYTEA NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_payloads_created_at ON payloads(created_at);
+
+ALTER TABLE message_logs ADD COLUMN payload_hash VARCHAR(64);
+ALTER TABLE retry_attempts ADD COLUMN payload_hash VARCHAR(64);
+ALTER TABLE dead_letter_messages ADD COLUMN payload_hash VARCHAR(64);
+
+-- Used when purging payloads that are no longer referenced
+CREATE INDEX idx_message_logs_payload_hash ON message_logs(payload_hash) WHERE payload_hash IS NOT NULL;
+CREATE INDEX idx_retry_attempts_payload_hash ON retry_attempts(payload_hash) WHERE payload_hash IS NOT NULL;
+CREATE INDEX idx_dead_letter_messages_payload_hash ON dead_letter_messages(payload_hash) WHERE payload_hash IS NOT NULL;
+
+COMMENT ON TABLE payloads IS 'Message bodies keyed by SHA-256 of their content, referenced by the log tables';
+COMMENT ON COLUMN payloads.compression IS 'Encoding of data: GZIP or NONE';
+COMMENT ON COLUMN message_logs.payload_hash IS 'Hash of the original message in payloads; original_message is NULL when set';
@@ -0,0 +1,99 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void testLimitGrowsWhileLatencyStaysAtMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("endpoint:test", 4, 1, 32);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(100 * MS, limiter.getLimit(), false);
+        }
+
+        assertTrue(limiter.getLimit() > 20);
+        assertTrue(limiter.getLimit() <= 32);
+    }
+
+    @Test
+    void testLimitShrinksWhenLatencyInflates() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("endpoint:test", 20, 1, 32);
+        limiter.onSample(100 * MS, 20, false);
+        int limitAtMinimumLatency = limiter.getLimit();
+
+        // Latency at 5x the minimum means most in-flight calls are queued at the endpoint
+        for (int i = 0; i < 5; i++) {
+            limiter.onSample(500 * MS, limiter.getLimit(), false);
+        }
+
+        assertTrue(limiter.getLimit() < limitAtMinimumLatency);
+    }
+
+    @Test
+    void testOverloadCutsLimitButNotBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("endpoint:test", 10, 2, 32);
+
+        limiter.onSample(100 * MS, 10, true);
+        assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(100 * MS, 10, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testLightlyLoadedSamplesDoNotChangeLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("endpoint:test", 10, 1, 32);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(100 * MS, 1, false);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void testRejectsCallsAboveLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("endpoint:test", 1, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> limiter.execute(() -> {
+                started.countDown();
+                awaitQuietly(release);
+                return "ok";
+            }, ex -> false));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertThrows(AdaptiveConcurrencyLimiter.LimitExceededException.class,
+                    () -> limiter.execute(() -> "rejected", ex -> false));
+            assertEquals(1, limiter.getInFlight());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals("ok", limiter.execute(() -> "ok", ex -> false));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
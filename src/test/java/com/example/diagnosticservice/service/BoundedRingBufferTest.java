@@ -0,0 +1,117 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedRingBufferTest {
+
+    @Test
+    void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(8, new BoundedRingBuffer<String>(5).capacity());
+        assertEquals(8, new BoundedRingBuffer<String>(8).capacity());
+        assertEquals(2, new BoundedRingBuffer<String>(2).capacity());
+    }
+
+    @Test
+    void testOfferAndPollInOrder() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(4);
+
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        assertEquals(3, buffer.size());
+
+        assertEquals(1, buffer.poll());
+        assertEquals(2, buffer.poll());
+        assertEquals(3, buffer.poll());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void testOfferFailsWhenFull() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(99));
+        assertEquals(4, buffer.size());
+
+        // Freeing a slot makes room again, including across the wrap-around
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 10));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+    }
+
+    @Test
+    void testDrainToRespectsLimit() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(16);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i);
+        }
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(List.of(0, 1, 2), drained);
+        assertEquals(7, buffer.size());
+    }
+
+    @Test
+    void testRejectsNullElements() {
+        BoundedRingBuffer<String> buffer = new BoundedRingBuffer<>(4);
+        assertThrows(IllegalArgumentException.class, () -> buffer.offer(null));
+    }
+
+    @Test
+    void testConcurrentProducersWithSingleConsumer() throws InterruptedException {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(1024);
+        int numberOfProducers = 4;
+        int elementsPerProducer = 10_000;
+        Set<Integer> received = new HashSet<>();
+
+        Thread[] producers = new Thread[numberOfProducers];
+        for (int p = 0; p < numberOfProducers; p++) {
+            int base = p * elementsPerProducer;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < elementsPerProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+
+        Thread consumer = new Thread(() -> {
+            while (received.size() < numberOfProducers * elementsPerProducer) {
+                Integer element = buffer.poll();
+                if (element != null) {
+                    received.add(element);
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        });
+
+        consumer.start();
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        consumer.join(10_000);
+
+        // Every element is delivered exactly once
+        assertEquals(numberOfProducers * elementsPerProducer, received.size());
+        assertTrue(buffer.isEmpty());
+    }
+}
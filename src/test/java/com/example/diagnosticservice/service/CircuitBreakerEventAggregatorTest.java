@@ -0,0 +1,90 @@
+package com.example.diagnosticservice.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerEventAggregatorTest {
+
+    private CircuitBreakerEventAggregator circuitBreakerEventAggregator;
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        circuitBreakerEventAggregator = new CircuitBreakerEventAggregator(null);
+        circuitBreaker = CircuitBreaker.ofDefaults("testBreaker");
+    }
+
+    @Test
+    void testEventsAreCoalescedPerTypeAndWindow() {
+        // A fixed second, so the events cannot straddle a window boundary
+        long second = Instant.now().getEpochSecond();
+        for (int i = 0; i < 500; i++) {
+            circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED, null,
+                    second);
+        }
+        circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.FAILURE_RATE_EXCEEDED, 60f, second);
+        circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.FAILURE_RATE_EXCEEDED, 75f, second);
+
+        List<CircuitBreakerEventAggregator.Summary> summaries = circuitBreakerEventAggregator.drainEnded(second + 10);
+
+        assertEquals(2, summaries.size());
+        CircuitBreakerEventAggregator.Summary rejected = find(summaries, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED);
+        assertEquals(500, rejected.getEventCount());
+        assertEquals(0, rejected.getFailureCount());
+        CircuitBreakerEventAggregator.Summary failureRate = find(summaries, CircuitBreakerEventAggregator.FAILURE_RATE_EXCEEDED);
+        assertEquals(2, failureRate.getEventCount());
+        assertEquals(75.0, failureRate.getFailureRate());
+        assertEquals(0, circuitBreakerEventAggregator.getOpenWindowCount());
+    }
+
+    @Test
+    void testCurrentWindowIsNotDrained() {
+        circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED, null);
+
+        assertTrue(circuitBreakerEventAggregator.drainEnded(Instant.now().getEpochSecond()).isEmpty());
+        assertEquals(1, circuitBreakerEventAggregator.getOpenWindowCount());
+    }
+
+    @Test
+    void testRateIsNullBeforeMinimumNumberOfCalls() {
+        circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.CALL_NOT_PERMITTED, null);
+
+        CircuitBreakerEventAggregator.Summary summary =
+                circuitBreakerEventAggregator.drainEnded(Instant.now().getEpochSecond() + 10).get(0);
+
+        assertNull(summary.getFailureRate());
+    }
+
+    @Test
+    void testFailedAndSlowCallsAreCountedPerWindow() {
+        long second = Instant.now().getEpochSecond();
+        Duration fast = Duration.ofMillis(10);
+        Duration slow = circuitBreaker.getCircuitBreakerConfig().getSlowCallDurationThreshold().plusSeconds(1);
+        // A failure in the previous second belongs to that second's row, not this one
+        circuitBreakerEventAggregator.recordCall(circuitBreaker, fast, true, second - 1);
+        circuitBreakerEventAggregator.recordCall(circuitBreaker, fast, true, second);
+        circuitBreakerEventAggregator.recordCall(circuitBreaker, fast, true, second);
+        circuitBreakerEventAggregator.recordCall(circuitBreaker, slow, false, second);
+        circuitBreakerEventAggregator.recordCall(circuitBreaker, fast, false, second);
+        circuitBreakerEventAggregator.record(circuitBreaker, CircuitBreakerEventAggregator.FAILURE_RATE_EXCEEDED, 60f, second);
+
+        List<CircuitBreakerEventAggregator.Summary> summaries = circuitBreakerEventAggregator.drainEnded(second + 10);
+
+        assertEquals(1, summaries.size());
+        assertEquals(2, summaries.get(0).getFailureCount());
+        assertEquals(1, summaries.get(0).getSlowCallCount());
+        assertEquals(0, circuitBreakerEventAggregator.getOpenWindowCount());
+    }
+
+    private CircuitBreakerEventAggregator.Summary find(List<CircuitBreakerEventAggregator.Summary> summaries,
+                                                       String eventType) {
+        return summaries.stream().filter(s -> s.getEventType().equals(eventType)).findFirst().orElseThrow();
+    }
+}
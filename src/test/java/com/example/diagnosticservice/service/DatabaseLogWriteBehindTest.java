@@ -0,0 +1,124 @@
+package com.example.diagnosticservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class DatabaseLogWriteBehindTest {
+
+    private DatabaseLogBatchWriter batchWriter;
+    private DatabaseLogWriteBehind writeBehind;
+    private final List<Object> written = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        batchWriter = mock(DatabaseLogBatchWriter.class);
+        writeBehind = new DatabaseLogWriteBehind(batchWriter, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(writeBehind, "enabled", true);
+        ReflectionTestUtils.setField(writeBehind, "bufferCapacity", 64);
+        ReflectionTestUtils.setField(writeBehind, "drainerThreads", 1);
+        ReflectionTestUtils.setField(writeBehind, "flushSize", 10);
+        // Long enough that every event is flushed as one batch when the pipeline stops
+        ReflectionTestUtils.setField(writeBehind, "flushIntervalMs", 60000L);
+        ReflectionTestUtils.setField(writeBehind, "overflowPolicy", DatabaseLogWriteBehind.OverflowPolicy.DROP);
+    }
+
+    @Test
+    void testBadEventOnlyDropsItself() {
+        doAnswer(invocation -> {
+            List<Object> batch = invocation.getArgument(0);
+            if (batch.contains("bad")) {
+                throw new IllegalArgumentException("value too long for type character varying(255)");
+            }
+            written.addAll(batch);
+            return null;
+        }).when(batchWriter).write(anyList());
+
+        writeBehind.start();
+        for (String event : List.of("payload", "row", "bad", "update")) {
+            writeBehind.submit("message-1", event);
+        }
+        writeBehind.stop();
+
+        assertEquals(List.of("payload", "row", "update"), written);
+        DatabaseLogWriteBehind.WriteBehindStats stats = writeBehind.getStats();
+        assertEquals(3, stats.getWrittenEvents());
+        assertEquals(1, stats.getFailedEvents());
+    }
+
+    @Test
+    void testFailedBatchIsRetriedOnce() {
+        doThrow(new IllegalStateException("connection reset"))
+                .doAnswer(invocation -> written.addAll(invocation.getArgument(0)))
+                .when(batchWriter).write(anyList());
+
+        writeBehind.start();
+        for (String event : List.of("payload", "row", "update")) {
+            writeBehind.submit("message-1", event);
+        }
+        writeBehind.stop();
+
+        assertEquals(List.of("payload", "row", "update"), written);
+        verify(batchWriter, times(2)).write(anyList());
+        assertEquals(0, writeBehind.getStats().getFailedEvents());
+    }
+
+    @Test
+    void testOutageStopsWritingEventsOneAtATime() {
+        doThrow(new IllegalStateException("connection refused")).when(batchWriter).write(anyList());
+
+        writeBehind.start();
+        for (int i = 0; i < 8; i++) {
+            writeBehind.submit("message-1", "event-" + i);
+        }
+        writeBehind.stop();
+
+        // The batch, its retry and three single events before the rest is given up
+        verify(batchWriter, times(5)).write(anyList());
+        assertEquals(8, writeBehind.getStats().getFailedEvents());
+    }
+
+    @Test
+    void testIdleDrainerWaitsUntilAnEventIsSubmitted() throws InterruptedException {
+        ReflectionTestUtils.setField(writeBehind, "flushSize", 1);
+        doAnswer(invocation -> written.addAll(invocation.getArgument(0))).when(batchWriter).write(anyList());
+
+        writeBehind.start();
+        Object[] shards = (Object[]) ReflectionTestUtils.getField(writeBehind, "shards");
+        Thread drainer = (Thread) ReflectionTestUtils.getField(shards[0], "drainer");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (drainer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Parked without a timeout, not polling on a tick
+        assertEquals(Thread.State.WAITING, drainer.getState());
+
+        writeBehind.submit("message-1", "row");
+        // The drainer reuses its batch list, so check the copied events rather than the captured argument
+        verify(batchWriter, timeout(5000)).write(anyList());
+        assertEquals(List.of("row"), written);
+        writeBehind.stop();
+    }
+
+    @Test
+    void testEventsSubmittedAfterStopAreWritten() {
+        doAnswer(invocation -> written.addAll(invocation.getArgument(0))).when(batchWriter).write(anyList());
+
+        writeBehind.start();
+        writeBehind.submit("message-1", "row");
+        writeBehind.stop();
+        writeBehind.submit("message-1", "update");
+
+        assertEquals(List.of("row", "update"), written);
+        assertEquals(2, writeBehind.getStats().getWrittenEvents());
+    }
+}
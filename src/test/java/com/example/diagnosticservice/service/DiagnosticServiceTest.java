@@ -0,0 +1,76 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.model.FailedProjectionMessage;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DiagnosticServiceTest {
+
+    private static final String TOPIC = "failed-projection-messages";
+
+    private CircuitBreaker circuitBreaker;
+    private DatabaseLoggingService databaseLoggingService;
+    private Acknowledgment acknowledgment;
+    private DiagnosticService diagnosticService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        circuitBreaker = CircuitBreaker.ofDefaults("diagnosticService");
+        databaseLoggingService = mock(DatabaseLoggingService.class);
+        acknowledgment = mock(Acknowledgment.class);
+        KafkaTemplate<String, Object> kafkaTemplate = mock(KafkaTemplate.class);
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        FailedProjectionFlowControl flowControl = mock(FailedProjectionFlowControl.class);
+        when(flowControl.acquirePermission()).thenReturn(true);
+        when(flowControl.getRedeliveryDelay()).thenReturn(Duration.ofSeconds(5));
+
+        diagnosticService = new DiagnosticService(kafkaTemplate, circuitBreaker, new ErrorClassificationService(),
+                mock(RetryService.class), mock(MessageAttemptTracker.class), databaseLoggingService, flowControl,
+                mock(LatencyRecorder.class));
+    }
+
+    @Test
+    void testMessageRejectedByOpenBreakerIsRedeliveredWithoutLogging() {
+        circuitBreaker.transitionToOpenState();
+
+        diagnosticService.handleFailedProjectionMessage(failedMessage(), TOPIC, 0, 42L, acknowledgment);
+        diagnosticService.handleFailedProjectionMessage(failedMessage(), TOPIC, 0, 42L, acknowledgment);
+
+        // Each delivery waits in Kafka again; none of them is a message_logs row or a rollup count
+        verify(acknowledgment, times(2)).nack(Duration.ofSeconds(5));
+        verify(acknowledgment, never()).acknowledge();
+        verifyNoInteractions(databaseLoggingService);
+        assertEquals(2, circuitBreaker.getMetrics().getNumberOfNotPermittedCalls());
+    }
+
+    @Test
+    void testPermittedMessageIsLoggedAndReportedToBreaker() {
+        diagnosticService.handleFailedProjectionMessage(failedMessage(), TOPIC, 0, 42L, acknowledgment);
+
+        verify(databaseLoggingService).logMessageReceived(eq("message-1"), eq(TOPIC), eq(0), eq(42L),
+                anyString(), anyString(), anyString());
+        verify(databaseLoggingService).logMessageProcessing(eq("message-1"), eq(TOPIC), eq("SUCCESS"), isNull(),
+                eq("CLOSED"), anyLong(), isNull());
+        verify(acknowledgment).acknowledge();
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfSuccessfulCalls());
+    }
+
+    private FailedProjectionMessage failedMessage() {
+        return FailedProjectionMessage.builder()
+                .messageId("message-1")
+                .originalMessage("{\"id\":\"message-1\"}")
+                .errorMessage("Validation failed during projection processing")
+                .build();
+    }
+}
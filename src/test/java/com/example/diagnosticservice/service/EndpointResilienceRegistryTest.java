@@ -0,0 +1,80 @@
+package com.example.diagnosticservice.service;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class EndpointResilienceRegistryTest {
+
+    private EndpointResilienceRegistry endpointResilienceRegistry;
+
+    @BeforeEach
+    void setUp() {
+        endpointResilienceRegistry = new EndpointResilienceRegistry(
+                mock(DatabaseLoggingService.class), new CircuitBreakerEventAggregator(null), new SimpleMeterRegistry());
+        endpointResilienceRegistry.init();
+    }
+
+    @Test
+    void testEndpointKeyGroupsByHostAndPort() {
+        assertEquals("vendor.example.com", EndpointResilienceRegistry.endpointKey("https://Vendor.example.com/api/records?x=1"));
+        assertEquals("localhost:8081", EndpointResilienceRegistry.endpointKey("http://localhost:8081/records"));
+        assertEquals("not a url", EndpointResilienceRegistry.endpointKey("not a url"));
+    }
+
+    @Test
+    void testBreakerOpensPerEndpointAndFailsFast() {
+        String deadEndpoint = "http://dead.example.com/records";
+        for (int i = 0; i < 5; i++) {
+            assertThrows(ResourceAccessException.class, () -> endpointResilienceRegistry.execute(deadEndpoint, () -> {
+                throw new ResourceAccessException("Connection refused");
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, endpointResilienceRegistry.getState(deadEndpoint));
+        CallNotPermittedException rejection = assertThrows(CallNotPermittedException.class,
+                () -> endpointResilienceRegistry.execute(deadEndpoint, () -> "not called"));
+        assertEquals(Duration.ofSeconds(30), endpointResilienceRegistry.backoffFor(rejection));
+
+        // Other endpoints are unaffected
+        assertEquals("ok", endpointResilienceRegistry.execute("http://healthy.example.com/records", () -> "ok"));
+    }
+
+    @Test
+    void testClientErrorsDoNotOpenBreaker() {
+        String endpoint = "http://strict.example.com/records";
+        for (int i = 0; i < 10; i++) {
+            assertThrows(HttpClientErrorException.class, () -> endpointResilienceRegistry.execute(endpoint, () -> {
+                throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, endpointResilienceRegistry.getState(endpoint));
+    }
+
+    @Test
+    void testOverloadResponsesLowerConcurrencyLimit() {
+        String endpoint = "http://busy.example.com/records";
+        endpointResilienceRegistry.execute(endpoint, () -> "ok");
+        assertEquals(4, endpointResilienceRegistry.getConcurrencyLimit(endpoint));
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(HttpClientErrorException.class, () -> endpointResilienceRegistry.execute(endpoint, () -> {
+                throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS);
+            }));
+        }
+
+        assertEquals(2, endpointResilienceRegistry.getConcurrencyLimit(endpoint));
+        assertNull(endpointResilienceRegistry.getConcurrencyLimit("http://unused.example.com/records"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.config.CircuitBreakerConfiguration;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FailedProjectionFlowControlTest {
+
+    private CircuitBreaker circuitBreaker;
+    private MessageListenerContainer container;
+    private FailedProjectionFlowControl flowControl;
+
+    @BeforeEach
+    void setUp() {
+        circuitBreaker = CircuitBreaker.ofDefaults("diagnosticService");
+        container = mock(MessageListenerContainer.class);
+        KafkaListenerEndpointRegistry listenerRegistry = mock(KafkaListenerEndpointRegistry.class);
+        when(listenerRegistry.getListenerContainer(FailedProjectionFlowControl.LISTENER_ID)).thenReturn(container);
+
+        flowControl = new FailedProjectionFlowControl(circuitBreaker, listenerRegistry);
+        flowControl.init();
+    }
+
+    @Test
+    void testPausesWhileOpenAndTricklesWhileHalfOpen() {
+        circuitBreaker.transitionToOpenState();
+        verify(container).pause();
+        assertFalse(flowControl.isTrickling());
+
+        circuitBreaker.transitionToHalfOpenState();
+        verify(container).resume();
+        assertTrue(flowControl.isTrickling());
+
+        circuitBreaker.transitionToClosedState();
+        verify(container, times(2)).resume();
+        assertFalse(flowControl.isTrickling());
+        assertTrue(flowControl.acquirePermission());
+    }
+
+    @Test
+    void testHalfOpenPermitsAreRateLimited() {
+        circuitBreaker.transitionToOpenState();
+        circuitBreaker.transitionToHalfOpenState();
+
+        // Two permits per second by default; further messages wait up to the permit wait and are then put back
+        assertTrue(flowControl.acquirePermission());
+        assertTrue(flowControl.acquirePermission());
+        int granted = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 200_000_000L && flowControl.acquirePermission()) {
+            granted++;
+        }
+        assertTrue(granted <= 2);
+    }
+
+    @Test
+    void testPausedListenerResumesAfterWaitDurationWithoutTraffic() {
+        CircuitBreakerConfiguration configuration = new CircuitBreakerConfiguration();
+        ReflectionTestUtils.setField(configuration, "failureRateThreshold", 50f);
+        ReflectionTestUtils.setField(configuration, "waitDurationInOpenState", Duration.ofMillis(200));
+        ReflectionTestUtils.setField(configuration, "slidingWindowSize", 10);
+        ReflectionTestUtils.setField(configuration, "minimumNumberOfCalls", 5);
+        ReflectionTestUtils.setField(configuration, "permittedNumberOfCallsInHalfOpenState", 3);
+        ReflectionTestUtils.setField(configuration, "slowCallRateThreshold", 50f);
+        ReflectionTestUtils.setField(configuration, "slowCallDurationThreshold", Duration.ofSeconds(2));
+        CircuitBreaker configuredBreaker = configuration.circuitBreakerRegistry().circuitBreaker("diagnosticService");
+        MessageListenerContainer pausedContainer = mock(MessageListenerContainer.class);
+        KafkaListenerEndpointRegistry listenerRegistry = mock(KafkaListenerEndpointRegistry.class);
+        when(listenerRegistry.getListenerContainer(FailedProjectionFlowControl.LISTENER_ID)).thenReturn(pausedContainer);
+        FailedProjectionFlowControl configuredFlowControl = new FailedProjectionFlowControl(configuredBreaker, listenerRegistry);
+        configuredFlowControl.init();
+
+        configuredBreaker.transitionToOpenState();
+        verify(pausedContainer).pause();
+
+        // No message asks the breaker for permission while the listener is paused
+        verify(pausedContainer, timeout(5000)).resume();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, configuredBreaker.getState());
+        assertTrue(configuredFlowControl.isTrickling());
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecorderTest {
+
+    @Test
+    void testClosedSecondHasPercentilesAndFailures() {
+        LatencyRecorder latencyRecorder = new LatencyRecorder();
+        for (int i = 1; i <= 100; i++) {
+            latencyRecorder.record(LatencyRecorder.CIRCUIT_BREAKER_CALL, TimeUnit.MILLISECONDS.toNanos(i), i > 90);
+        }
+        latencyRecorder.recordRejected(LatencyRecorder.CIRCUIT_BREAKER_CALL);
+        latencyRecorder.tick();
+
+        LatencyRecorder.SecondSnapshot latest = latencyRecorder.getLatest(LatencyRecorder.CIRCUIT_BREAKER_CALL);
+        assertEquals(100, latest.getThroughput());
+        assertEquals(10, latest.getFailures());
+        assertEquals(1, latest.getRejected());
+        assertEquals(10.0, latest.getFailureRate(), 0.001);
+        assertEquals(50_000, latest.getP50Micros(), 100);
+        assertEquals(99_000, latest.getP99Micros(), 100);
+        assertEquals(100_000, latest.getMaxMicros(), 100);
+
+        // The next second starts empty
+        latencyRecorder.tick();
+        assertEquals(0, latencyRecorder.getLatest(LatencyRecorder.CIRCUIT_BREAKER_CALL).getThroughput());
+        assertNull(latencyRecorder.getLatest(LatencyRecorder.PROJECTION_HANDLER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRingKeepsLatestSecondsInOrderAndViewIsCachedPerTick() {
+        LatencyRecorder latencyRecorder = new LatencyRecorder();
+        ReflectionTestUtils.setField(latencyRecorder, "historySeconds", 3);
+
+        for (int second = 1; second <= 5; second++) {
+            for (int i = 0; i < second; i++) {
+                latencyRecorder.record(LatencyRecorder.PROJECTION_HANDLER, TimeUnit.MILLISECONDS.toNanos(1), false);
+            }
+            latencyRecorder.tick();
+        }
+
+        Map<String, Object> view = latencyRecorder.getView();
+        assertSame(view, latencyRecorder.getView());
+        Map<String, Object> series = (Map<String, Object>) ((Map<String, Object>) view.get("operations"))
+                .get(LatencyRecorder.PROJECTION_HANDLER);
+        assertArrayEquals(new long[]{3, 4, 5}, (long[]) series.get("throughput"));
+
+        latencyRecorder.tick();
+        assertNotSame(view, latencyRecorder.getView());
+    }
+}
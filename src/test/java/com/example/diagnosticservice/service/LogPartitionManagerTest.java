@@ -0,0 +1,117 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LogPartitionManagerTest {
+
+    @Test
+    void testParseDailyBound() {
+        LogPartitionManager.PartitionRange range = LogPartitionManager.parseBound("message_logs_p20250115",
+                "FOR VALUES FROM ('2025-01-15 00:00:00') TO ('2025-01-16 00:00:00')");
+
+        assertNotNull(range);
+        assertEquals("message_logs_p20250115", range.getName());
+        assertEquals(LocalDateTime.of(2025, 1, 15, 0, 0), range.getFrom());
+        assertEquals(LocalDateTime.of(2025, 1, 16, 0, 0), range.getTo());
+    }
+
+    @Test
+    void testParseLegacyBoundWithMinValue() {
+        LogPartitionManager.PartitionRange range = LogPartitionManager.parseBound("message_logs_legacy",
+                "FOR VALUES FROM (MINVALUE) TO ('2025-01-15 00:00:00')");
+
+        assertNotNull(range);
+        assertNull(range.getFrom());
+        assertEquals(LocalDateTime.of(2025, 1, 15, 0, 0), range.getTo());
+    }
+
+    @Test
+    void testDefaultPartitionIsIgnored() {
+        assertNull(LogPartitionManager.parseBound("message_logs_default", "DEFAULT"));
+    }
+
+    @Test
+    void testExpiry() {
+        LogPartitionManager.PartitionRange range = LogPartitionManager.parseBound("retry_attempts_p20250115",
+                "FOR VALUES FROM ('2025-01-15 00:00:00') TO ('2025-01-16 00:00:00')");
+
+        assertTrue(range.isExpired(LocalDateTime.of(2025, 1, 16, 0, 0)));
+        assertFalse(range.isExpired(LocalDateTime.of(2025, 1, 15, 12, 0)));
+    }
+
+    @Test
+    void testWeeklyBoundariesAlignToMonday() {
+        // 2025-01-15 is a Wednesday
+        LocalDateTime wednesday = LocalDateTime.of(2025, 1, 15, 0, 0);
+
+        assertEquals(LocalDateTime.of(2025, 1, 13, 0, 0), LogPartitionManager.Granularity.WEEKLY.periodStart(wednesday));
+        assertEquals(LocalDateTime.of(2025, 1, 20, 0, 0), LogPartitionManager.Granularity.WEEKLY.nextBoundary(wednesday));
+        assertEquals(LocalDateTime.of(2025, 1, 16, 0, 0), LogPartitionManager.Granularity.DAILY.nextBoundary(wednesday));
+    }
+
+    @Test
+    void testPartitionName() {
+        assertEquals("dead_letter_messages_p20250113",
+                LogPartitionManager.partitionName("dead_letter_messages", LocalDateTime.of(2025, 1, 13, 0, 0)));
+    }
+
+    @Test
+    void testRowsInDefaultPartitionAreMovedIntoNewPartition() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        LogPartitionManager manager = new LogPartitionManager(jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS (SELECT 1 FROM message_logs_default"), eq(Boolean.class),
+                any(), any())).thenReturn(true);
+
+        manager.createPartition("message_logs", "message_logs_default",
+                LocalDateTime.of(2025, 1, 15, 0, 0), LocalDateTime.of(2025, 1, 16, 0, 0));
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE message_logs DETACH PARTITION message_logs_default");
+        inOrder.verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS message_logs_p20250115 PARTITION OF message_logs " +
+                "FOR VALUES FROM ('2025-01-15 00:00:00') TO ('2025-01-16 00:00:00')");
+        inOrder.verify(jdbcTemplate).update(contains("DELETE FROM message_logs_default"),
+                eq(Timestamp.valueOf("2025-01-15 00:00:00")), eq(Timestamp.valueOf("2025-01-16 00:00:00")));
+        inOrder.verify(jdbcTemplate).execute("ALTER TABLE message_logs ATTACH PARTITION message_logs_default DEFAULT");
+    }
+
+    @Test
+    void testFailedRangeDoesNotStopLaterPartitions() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        LogPartitionManager manager = new LogPartitionManager(jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(manager, "enabled", true);
+        ReflectionTestUtils.setField(manager, "granularity", LogPartitionManager.Granularity.DAILY);
+        ReflectionTestUtils.setField(manager, "premakePeriods", 3);
+        ReflectionTestUtils.setField(manager, "retentionDays", 30);
+        ReflectionTestUtils.setField(manager, "expiredAction", LogPartitionManager.ExpiredAction.DROP);
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), anyString())).thenReturn(List.of());
+        AtomicInteger messageLogCreates = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (messageLogCreates.incrementAndGet() == 1) {
+                throw new IllegalStateException("updated partition constraint for default partition would be violated");
+            }
+            return null;
+        }).when(jdbcTemplate).execute(startsWith("CREATE TABLE IF NOT EXISTS message_logs_p"));
+
+        manager.maintainPartitions();
+
+        // Three ranges per table are attempted; only the first one of message_logs failed
+        verify(jdbcTemplate, times(3)).execute(startsWith("CREATE TABLE IF NOT EXISTS message_logs_p"));
+        verify(jdbcTemplate, times(3)).execute(startsWith("CREATE TABLE IF NOT EXISTS retry_attempts_p"));
+    }
+}
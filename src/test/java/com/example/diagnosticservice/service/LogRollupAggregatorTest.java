@@ -0,0 +1,100 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class LogRollupAggregatorTest {
+
+    private LogRollupAggregator logRollupAggregator;
+
+    @BeforeEach
+    void setUp() {
+        logRollupAggregator = new LogRollupAggregator(null);
+    }
+
+    @Test
+    void testOutcomeMovesMessageFromReceivedToStatus() {
+        Instant receivedAt = Instant.parse("2025-01-15T10:30:15Z");
+
+        logRollupAggregator.recordMessageReceived("topic", receivedAt);
+        logRollupAggregator.recordMessageReceived("topic", receivedAt);
+        logRollupAggregator.recordMessageOutcome("topic", receivedAt, "SUCCESS", null, 40L);
+
+        Map<LogRollupAggregator.RollupKey, LogRollupAggregator.Rollup> drained = logRollupAggregator.drain();
+
+        assertEquals(2, drained.size());
+        assertEquals(1, countFor(drained, "RECEIVED"));
+        assertEquals(1, countFor(drained, "SUCCESS"));
+        assertEquals(0, logRollupAggregator.getPendingRollupCount());
+    }
+
+    @Test
+    void testRowsAreBucketedByMinuteAndDimensions() {
+        Instant start = Instant.parse("2025-01-15T10:30:00Z");
+
+        logRollupAggregator.recordDeadLetter("topic", start, "SENT", "TRANSIENT_ERROR", "service-a");
+        logRollupAggregator.recordDeadLetter("topic", start.plusSeconds(59), "SENT", "TRANSIENT_ERROR", "service-a");
+        logRollupAggregator.recordDeadLetter("topic", start.plusSeconds(60), "SENT", "TRANSIENT_ERROR", "service-a");
+        logRollupAggregator.recordDeadLetter("topic", start, "SENT", "TRANSIENT_ERROR", "service-b");
+
+        Map<LogRollupAggregator.RollupKey, LogRollupAggregator.Rollup> drained = logRollupAggregator.drain();
+
+        assertEquals(3, drained.size());
+        assertEquals(4, drained.values().stream().mapToLong(LogRollupAggregator.Rollup::getCount).sum());
+        LocalDateTime firstMinute = LogRollupAggregator.bucketStart(start);
+        assertEquals(0, firstMinute.getSecond());
+        assertEquals(firstMinute, LogRollupAggregator.bucketStart(start.plusSeconds(59)));
+    }
+
+    @Test
+    void testRetryCompletionTracksProcessingTime() {
+        Instant createdAt = Instant.parse("2025-01-15T10:30:00Z");
+
+        logRollupAggregator.recordRetryAttempt("topic", createdAt, "SCHEDULED", "TRANSIENT_ERROR");
+        logRollupAggregator.recordRetryCompleted("topic", createdAt, "SCHEDULED", "TRANSIENT_ERROR", "SUCCESS", 120L);
+
+        Map<LogRollupAggregator.RollupKey, LogRollupAggregator.Rollup> drained = logRollupAggregator.drain();
+
+        assertEquals(0, countFor(drained, "SCHEDULED"));
+        LogRollupAggregator.Rollup success = drained.entrySet().stream()
+                .filter(entry -> entry.getKey().getStatus().equals("SUCCESS"))
+                .findFirst().orElseThrow().getValue();
+        assertEquals(1, success.getCount());
+        assertEquals(120, success.getTotalProcessingTimeMs());
+        assertEquals(1, success.getTimedCount());
+        assertEquals(LogRollupAggregator.RollupTable.RETRY_ATTEMPTS,
+                drained.keySet().iterator().next().getTable());
+    }
+
+    private long countFor(Map<LogRollupAggregator.RollupKey, LogRollupAggregator.Rollup> drained, String status) {
+        return drained.entrySet().stream()
+                .filter(entry -> entry.getKey().getStatus().equals(status))
+                .mapToLong(entry -> entry.getValue().getCount())
+                .sum();
+    }
+
+    @Test
+    void testShutdownFlushesPendingChanges() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        LogRollupAggregator aggregator = new LogRollupAggregator(jdbcTemplate);
+        Instant receivedAt = Instant.parse("2025-01-15T10:30:15Z");
+
+        aggregator.recordMessageReceived("topic", receivedAt);
+        aggregator.recordMessageOutcome("topic", receivedAt, "SUCCESS", null, 40L);
+        aggregator.flushOnShutdown();
+
+        verify(jdbcTemplate).batchUpdate(contains("message_log_rollups"), anyList());
+        assertEquals(0, aggregator.getPendingRollupCount());
+    }
+}
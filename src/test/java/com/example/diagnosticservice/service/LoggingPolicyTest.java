@@ -0,0 +1,78 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.config.LoggingPolicyProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoggingPolicyTest {
+
+    private LoggingPolicyProperties properties;
+    private LoggingPolicy loggingPolicy;
+
+    @BeforeEach
+    void setUp() {
+        properties = new LoggingPolicyProperties();
+        properties.setEnabled(true);
+        loggingPolicy = new LoggingPolicy(properties);
+    }
+
+    @Test
+    void testDisabledPolicyLogsEverythingInFull() {
+        properties.setEnabled(false);
+        properties.getSampleRates().put("SUCCESS", 0.0);
+
+        assertEquals(LoggingPolicy.Decision.FULL, loggingPolicy.decide("topic", "SUCCESS", "message-1"));
+    }
+
+    @Test
+    void testFailuresAreAlwaysLoggedInFull() {
+        properties.getSampleRates().put("FAILED", 0.0);
+        properties.getSampleRates().put("SUCCESS", 0.0);
+
+        assertEquals(LoggingPolicy.Decision.FULL, loggingPolicy.decide("topic", "FAILED", "message-1"));
+        assertEquals(LoggingPolicy.Decision.FULL, loggingPolicy.decide("topic", "CIRCUIT_BREAKER_OPEN", "message-1"));
+        assertEquals(LoggingPolicy.Decision.SKIP, loggingPolicy.decide("topic", "SUCCESS", "message-1"));
+    }
+
+    @Test
+    void testTopicRateOverridesDefaultRate() {
+        properties.getSampleRates().put("SUCCESS", 0.0);
+        properties.setTopics(Map.of("audited-topic", Map.of("SUCCESS", 1.0)));
+
+        assertEquals(LoggingPolicy.Decision.FULL, loggingPolicy.decide("audited-topic", "SUCCESS", "message-1"));
+        assertEquals(LoggingPolicy.Decision.SKIP, loggingPolicy.decide("other-topic", "SUCCESS", "message-1"));
+        assertEquals(LoggingPolicy.Decision.SKIP, loggingPolicy.decide(null, "SUCCESS", "message-1"));
+    }
+
+    @Test
+    void testSampledSuccessesDropPayloadAndFollowRate() {
+        properties.getSampleRates().put("SUCCESS", 0.1);
+
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            LoggingPolicy.Decision decision = loggingPolicy.decide("topic", "SUCCESS", "message-" + i);
+            assertNotEquals(LoggingPolicy.Decision.FULL, decision);
+            if (decision == LoggingPolicy.Decision.WITHOUT_PAYLOAD) {
+                sampled++;
+            }
+        }
+
+        assertTrue(sampled > 9_000 && sampled < 11_000, "sampled " + sampled);
+    }
+
+    @Test
+    void testSamplingIsDeterministicPerMessage() {
+        properties.getSampleRates().put("SUCCESS", 0.5);
+        properties.setDropSampledPayloads(false);
+
+        for (int i = 0; i < 1_000; i++) {
+            String messageId = "message-" + i;
+            assertEquals(loggingPolicy.decide("topic", "SUCCESS", messageId),
+                    loggingPolicy.decide("topic", "SUCCESS", messageId));
+        }
+    }
+}
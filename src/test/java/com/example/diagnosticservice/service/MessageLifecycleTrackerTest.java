@@ -0,0 +1,68 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.MessageLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageLifecycleTrackerTest {
+
+    private MessageLifecycleTracker messageLifecycleTracker;
+
+    @BeforeEach
+    void setUp() {
+        messageLifecycleTracker = new MessageLifecycleTracker();
+    }
+
+    @Test
+    void testCompleteReturnsRegisteredMessageOnce() {
+        MessageLog received = receivedMessage("message-1", Instant.now());
+
+        assertTrue(messageLifecycleTracker.register(received));
+        assertEquals(1, messageLifecycleTracker.getPendingCount());
+
+        assertSame(received, messageLifecycleTracker.complete("message-1"));
+        assertNull(messageLifecycleTracker.complete("message-1"));
+        assertEquals(0, messageLifecycleTracker.getPendingCount());
+    }
+
+    @Test
+    void testCompleteUnknownMessage() {
+        assertNull(messageLifecycleTracker.complete("unknown"));
+    }
+
+    @Test
+    void testRemoveExpiredOnlyReturnsOldEntries() {
+        messageLifecycleTracker.register(receivedMessage("old", Instant.now().minus(Duration.ofHours(1))));
+        messageLifecycleTracker.register(receivedMessage("fresh", Instant.now()));
+
+        List<MessageLog> expired = messageLifecycleTracker.removeExpired();
+
+        assertEquals(1, expired.size());
+        assertEquals("old", expired.get(0).getMessageId());
+        assertEquals(1, messageLifecycleTracker.getPendingCount());
+        assertNotNull(messageLifecycleTracker.complete("fresh"));
+    }
+
+    @Test
+    void testNewMessagesAreNotLifecycleRowsByDefault() {
+        assertFalse(receivedMessage("message-1", Instant.now()).isLifecycleRow());
+    }
+
+    private MessageLog receivedMessage(String messageId, Instant receivedAt) {
+        return MessageLog.builder()
+                .messageId(messageId)
+                .topic("projection-processing-queue")
+                .partition(0)
+                .offset(42L)
+                .processingStatus("RECEIVED")
+                .attemptCount(0)
+                .createdAt(receivedAt)
+                .build();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketPrefetcherTest {
+
+    private static final int PACKET_SIZE = 10;
+    private static final int TOTAL_RECORDS = 35;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Integer> fetchedOffsets = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testReturnsPacketsInOrderUntilTheLast() throws Exception {
+        try (PacketPrefetcher prefetcher = new PacketPrefetcher(this::fetch, this::followingPosition, executor, 2, Integer.MAX_VALUE, PagePosition.ofOffset(0))) {
+            assertEquals(0, prefetcher.next().getOffset());
+            assertEquals(10, prefetcher.next().getOffset());
+            assertEquals(20, prefetcher.next().getOffset());
+            RestClientService.RestClientResponse last = prefetcher.next();
+            assertEquals(30, last.getOffset());
+            assertEquals(5, last.getRecords().size());
+            assertNull(prefetcher.next());
+        }
+        assertEquals(List.of(0, 10, 20, 30), fetchedOffsets);
+    }
+
+    @Test
+    void testFetchesNextPacketWhileCurrentIsProcessedWithinDepth() throws Exception {
+        try (PacketPrefetcher prefetcher = new PacketPrefetcher(this::fetch, this::followingPosition, executor, 1, Integer.MAX_VALUE, PagePosition.ofOffset(0))) {
+            prefetcher.next();
+
+            // While packet 0 is "processed", packet 1 is fetched but not packet 2
+            awaitFetches(2);
+            Thread.sleep(50);
+            assertEquals(List.of(0, 10), fetchedOffsets);
+            assertEquals(1, prefetcher.getPendingCount());
+        }
+    }
+
+    @Test
+    void testCloseCancelsOutstandingFetches() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        PacketPrefetcher prefetcher = new PacketPrefetcher(position -> {
+            if (position.getOffset() == 0) {
+                return fetch(position);
+            }
+            blocked.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return fetch(position);
+        }, this::followingPosition, executor, 1, Integer.MAX_VALUE, PagePosition.ofOffset(0));
+
+        prefetcher.next();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        prefetcher.close();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(0, prefetcher.getPendingCount());
+        assertNull(prefetcher.next());
+    }
+
+    @Test
+    void testStopsFetchingAtMaxPackets() throws Exception {
+        try (PacketPrefetcher prefetcher = new PacketPrefetcher(this::fetch, this::followingPosition, executor, 2, 2, PagePosition.ofOffset(0))) {
+            assertEquals(0, prefetcher.next().getOffset());
+            assertEquals(10, prefetcher.next().getOffset());
+            assertNull(prefetcher.next());
+        }
+        assertEquals(List.of(0, 10), fetchedOffsets);
+    }
+
+    private RestClientService.RestClientResponse fetch(PagePosition position) {
+        int offset = position.getOffset();
+        fetchedOffsets.add(offset);
+        int count = Math.max(0, Math.min(PACKET_SIZE, TOTAL_RECORDS - offset));
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(Map.of("id", offset + i));
+        }
+        return RestClientService.RestClientResponse.builder()
+            .success(true)
+            .records(records)
+            .offset(offset)
+            .nextOffset(offset + count)
+            .hasMoreRecords(offset + count < TOTAL_RECORDS)
+            .build();
+    }
+
+    private PagePosition followingPosition(RestClientService.RestClientResponse response) {
+        return response.isHasMoreRecords() ? PagePosition.ofOffset(response.getNextOffset()) : null;
+    }
+
+    private void awaitFetches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetchedOffsets.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
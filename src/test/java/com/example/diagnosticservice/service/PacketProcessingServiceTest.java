@@ -0,0 +1,540 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.PacketProcessingRecord;
+import com.example.diagnosticservice.entity.PacketProcessingSession;
+import com.example.diagnosticservice.entity.PacketProcessingShard;
+import com.example.diagnosticservice.repository.PacketProcessingRecordRepository;
+import com.example.diagnosticservice.repository.PacketProcessingSessionRepository;
+import com.example.diagnosticservice.repository.PacketProcessingShardRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PacketProcessingServiceTest {
+
+    private static final String ACTIVITY_ID = "activity-1";
+    private static final LocalDate APPLICATION_DATE = LocalDate.of(2025, 1, 15);
+    private static final int RECORD_COUNT = 20;
+
+    private RestClientService restClientService;
+    private PacketProcessingSessionRepository sessionRepository;
+    private PacketProcessingRecordRepository recordRepository;
+    private PacketProcessingShardRepository shardRepository;
+    private PlatformTransactionManager transactionManager;
+    private PacketSessionControlChannel controlChannel;
+    private PacketSessionLeaseManager leaseManager;
+    private PacketProcessingService packetProcessingService;
+    private PacketProcessingSession session;
+
+    @BeforeEach
+    void setUp() {
+        restClientService = mock(RestClientService.class);
+        sessionRepository = mock(PacketProcessingSessionRepository.class);
+        recordRepository = mock(PacketProcessingRecordRepository.class);
+        shardRepository = mock(PacketProcessingShardRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        PostgresCopyWriter copyWriter = mock(PostgresCopyWriter.class);
+        // Not started, so it reports that it is not listening until a test says otherwise
+        controlChannel = new PacketSessionControlChannel(mock(DataSource.class), mock(JdbcTemplate.class));
+        leaseManager = new PacketSessionLeaseManager(sessionRepository, new TransactionTemplate(transactionManager));
+        packetProcessingService = new PacketProcessingService(restClientService, sessionRepository, recordRepository,
+                shardRepository, new ErrorClassificationService(), new ObjectMapper(), copyWriter, mock(ApplicationEventPublisher.class),
+                new TransactionTemplate(transactionManager), controlChannel, leaseManager);
+
+        session = PacketProcessingSession.builder()
+            .activityId(ACTIVITY_ID)
+            .applicationDate(APPLICATION_DATE)
+            .endpointUrl("http://vendor.example.com/records")
+            .packetSize(RECORD_COUNT)
+            .totalRecords(0)
+            .processedRecords(0)
+            .failedRecords(0)
+            .currentOffset(0)
+            .sharded(false)
+            .status("ACTIVE")
+            .leaseOwner(leaseManager.getInstanceId())
+            .requestHeaders("{}")
+            .createdAt(Instant.now())
+            .build();
+        when(sessionRepository.findByActivityIdAndApplicationDate(ACTIVITY_ID, APPLICATION_DATE)).thenReturn(Optional.of(session));
+        when(sessionRepository.findCurrent(ACTIVITY_ID, APPLICATION_DATE)).thenReturn(Optional.of(session));
+        when(sessionRepository.findForUpdate(ACTIVITY_ID, APPLICATION_DATE)).thenReturn(Optional.of(session));
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), eq(PagePosition.ofOffset(0)), eq(RECORD_COUNT), anyMap()))
+            .thenReturn(singlePacket());
+    }
+
+    @Test
+    void testParallelRecordsCompleteInAboutOneRecordLatency() {
+        session.setRecordParallelism(RECORD_COUNT);
+
+        long start = System.currentTimeMillis();
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Each record takes 100-300ms; sequentially the packet would take at least 2s
+        assertTrue(elapsed < 1500, "Packet took " + elapsed + "ms");
+        assertEquals("COMPLETED", session.getStatus());
+        assertEquals(RECORD_COUNT, session.getProcessedRecords() + session.getFailedRecords());
+        assertEquals(RECORD_COUNT, session.getCurrentOffset());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PacketProcessingRecord>> savedRecords = ArgumentCaptor.forClass(List.class);
+        verify(recordRepository).saveAll(savedRecords.capture());
+        List<PacketProcessingRecord> records = savedRecords.getValue();
+        assertEquals(RECORD_COUNT, records.size());
+        assertEquals((long) session.getFailedRecords(), records.stream().filter(r -> "FAILED".equals(r.getStatus())).count());
+        assertTrue(records.stream().allMatch(r -> "SUCCESS".equals(r.getStatus()) || "FAILED".equals(r.getStatus())));
+    }
+
+    @Test
+    void testPerRecordStrategySavesEachStatusChange() {
+        ReflectionTestUtils.setField(packetProcessingService, "recordWriteStrategy",
+                PacketProcessingService.RecordWriteStrategy.PER_RECORD);
+        session.setRecordParallelism(1);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), eq(PagePosition.ofOffset(0)), eq(RECORD_COUNT), anyMap()))
+            .thenReturn(singlePacket(3));
+
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+
+        assertEquals("COMPLETED", session.getStatus());
+        assertEquals(3, session.getProcessedRecords() + session.getFailedRecords());
+        // PENDING, PROCESSING and the final status of every record
+        verify(recordRepository, times(9)).save(any(PacketProcessingRecord.class));
+        verify(recordRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void testPerPacketStrategyWritesFinalRowsOnce() {
+        session.setRecordParallelism(1);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), eq(PagePosition.ofOffset(0)), eq(RECORD_COUNT), anyMap()))
+            .thenReturn(singlePacket(3));
+
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+
+        assertEquals("COMPLETED", session.getStatus());
+        assertEquals(3, session.getProcessedRecords() + session.getFailedRecords());
+        verify(recordRepository, never()).save(any(PacketProcessingRecord.class));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PacketProcessingRecord>> savedRecords = ArgumentCaptor.forClass(List.class);
+        verify(recordRepository).saveAll(savedRecords.capture());
+        assertEquals(3, savedRecords.getValue().size());
+        assertTrue(savedRecords.getValue().stream()
+            .allMatch(r -> "SUCCESS".equals(r.getStatus()) || "FAILED".equals(r.getStatus())));
+    }
+
+    @Test
+    void testTurnStopsAfterMaxPacketsAndNextTurnContinues() {
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> packetAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, true));
+
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 1));
+        assertEquals("ACTIVE", session.getStatus());
+        assertEquals(3, session.getCurrentOffset());
+        assertEquals(1, session.getPacketsProcessed());
+
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 2));
+        assertEquals(9, session.getCurrentOffset());
+        assertEquals(3, session.getPacketsProcessed());
+        // Counters accumulate across turns
+        assertEquals(9, session.getProcessedRecords() + session.getFailedRecords());
+    }
+
+    @Test
+    void testEachPacketCommitsInItsOwnTransaction() {
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                return packetAt(offset, 3, offset < 6);
+            });
+
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+
+        assertEquals("COMPLETED", session.getStatus());
+        assertEquals(3, session.getPacketsProcessed());
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(3)).commit(any());
+        verify(transactionManager, never()).rollback(any());
+    }
+
+    @Test
+    void testFailedPacketRollsBackAndKeepsLastCommittedOffset() {
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> packetAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, true));
+        when(recordRepository.saveAll(anyList()))
+            .thenAnswer(invocation -> invocation.getArgument(0))
+            .thenThrow(new IllegalStateException("Database unavailable"));
+
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+
+        assertEquals("FAILED", session.getStatus());
+        assertEquals(3, session.getCurrentOffset());
+        assertEquals(1, session.getPacketsProcessed());
+        verify(transactionManager, times(1)).commit(any());
+        verify(transactionManager, times(1)).rollback(any());
+    }
+
+    @Test
+    void testListeningControlChannelReplacesPerPacketStatusQuery() {
+        ReflectionTestUtils.setField(controlChannel, "listening", true);
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                return packetAt(offset, 3, offset < 6);
+            });
+
+        packetProcessingService.processPackets(ACTIVITY_ID, APPLICATION_DATE);
+
+        assertEquals("COMPLETED", session.getStatus());
+        // Initial read and the final completion check; each packet commit reloads the session under a row lock
+        verify(sessionRepository, times(2)).findCurrent(ACTIVITY_ID, APPLICATION_DATE);
+        verify(sessionRepository, times(3)).findForUpdate(ACTIVITY_ID, APPLICATION_DATE);
+        assertEquals(0, controlChannel.getWatchedCount());
+    }
+
+    @Test
+    void testPauseSignalStopsAfterCurrentPacket() {
+        ReflectionTestUtils.setField(controlChannel, "listening", true);
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> packetAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, true));
+        // The pause commits once the first packet has been committed
+        when(sessionRepository.save(any(PacketProcessingSession.class))).thenAnswer(invocation -> {
+            controlChannel.onSignal(PacketSessionControlChannel.encode(ACTIVITY_ID, APPLICATION_DATE, "PAUSED"));
+            return invocation.getArgument(0);
+        });
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+
+        assertEquals(1, session.getPacketsProcessed());
+        assertEquals(3, session.getCurrentOffset());
+    }
+
+    @Test
+    void testAdaptivePacketSizeGrowsAndIsRecordedOnSession() {
+        ReflectionTestUtils.setField(packetProcessingService, "adaptivePacketSize", true);
+        ReflectionTestUtils.setField(packetProcessingService, "prefetchEnabled", false);
+        session.setRecordParallelism(10);
+        session.setPacketSize(10);
+        List<Integer> limits = new ArrayList<>();
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), anyInt(), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                int limit = invocation.getArgument(2);
+                limits.add(limit);
+                List<Map<String, Object>> records = new ArrayList<>();
+                for (int i = 0; i < limit; i++) {
+                    records.add(Map.of("id", "record-" + (offset + i)));
+                }
+                // A fast upstream, so the tuner doubles the size after each packet
+                return RestClientService.RestClientResponse.builder()
+                    .success(true)
+                    .records(records)
+                    .offset(offset)
+                    .limit(limit)
+                    .nextOffset(offset + limit)
+                    .responseTimeMs(limit)
+                    .build();
+            });
+
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 3));
+
+        assertEquals(List.of(10, 20, 40), limits);
+        assertEquals(40, session.getCurrentPacketSize());
+        assertEquals(70, session.getCurrentOffset());
+    }
+
+    @Test
+    void testCursorPaginationFollowsAndCheckpointsTokens() {
+        session.setPaginationStrategy(PaginationStrategy.CURSOR.name());
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        List<PagePosition> positions = new ArrayList<>();
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> {
+                PagePosition position = invocation.getArgument(1);
+                positions.add(position);
+                int page = position.getCursor() == null ? 0 : Integer.parseInt(position.getCursor().substring(5));
+                // The upstream reports a misleading next offset and no X-Has-More-Records, neither of which cursor
+                // pagination uses; like RestClientService, the response always carries header metadata
+                return RestClientService.RestClientResponse.builder()
+                    .success(true)
+                    .records(packetAt(page * 3, 3, true).getRecords())
+                    .offset(position.getOffset())
+                    .nextOffset(0)
+                    .nextCursor(page < 2 ? "page-" + (page + 1) : null)
+                    .packetMetadata(RestClientService.PacketMetadata.builder().build())
+                    .build();
+            });
+
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 2));
+        assertEquals("page-2", session.getCurrentCursor());
+        assertEquals(6, session.getCurrentOffset());
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 2));
+        assertEquals("COMPLETED", session.getStatus());
+        assertNull(session.getCurrentCursor());
+        assertEquals(9, session.getCurrentOffset());
+        assertEquals(List.of(PagePosition.ofOffset(0), PagePosition.of(3, "page-1"), PagePosition.of(6, "page-2")), positions);
+    }
+
+    @Test
+    void testOffsetPaginationIgnoresUpstreamNextOffset() {
+        session.setPaginationStrategy(PaginationStrategy.OFFSET.name());
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                return RestClientService.RestClientResponse.builder()
+                    .success(true)
+                    .records(packetAt(offset, 3, true).getRecords())
+                    .offset(offset)
+                    .nextOffset(1000)
+                    .packetMetadata(RestClientService.PacketMetadata.builder().hasMoreRecords(true).build())
+                    .build();
+            });
+
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 2));
+
+        assertEquals(6, session.getCurrentOffset());
+        verify(restClientService).fetchRecordsForPacketProcessing(anyString(), eq(PagePosition.ofOffset(3)), eq(3), anyMap());
+    }
+
+    @Test
+    void testKnownTotalSplitsRemainingRangeIntoConcurrentShards() {
+        ReflectionTestUtils.setField(packetProcessingService, "minPacketsPerShard", 1);
+        ReflectionTestUtils.setField(packetProcessingService, "maxConcurrentShards", 2);
+        ReflectionTestUtils.setField(packetProcessingService, "prefetchEnabled", false);
+        session.setShardCount(4);
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        List<PacketProcessingShard> shards = storeShards();
+        simulateSessionRowLock();
+        List<Integer> offsets = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger fetching = new AtomicInteger();
+        AtomicInteger maxFetching = new AtomicInteger();
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), anyInt(), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                int limit = invocation.getArgument(2);
+                offsets.add(offset);
+                maxFetching.accumulateAndGet(fetching.incrementAndGet(), Math::max);
+                Thread.sleep(50);
+                fetching.decrementAndGet();
+                return totalKnownPacketAt(offset, limit, 30);
+            });
+
+        // The first packet reports the total, so the rest of the range is split
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+        assertTrue(session.getSharded());
+        assertEquals(30, session.getTotalRecords());
+        assertEquals(3, shards.size());
+        assertEquals(List.of(3, 12, 21), shards.stream().map(PacketProcessingShard::getStartOffset).toList());
+        assertEquals(List.of(12, 21, 30), shards.stream().map(PacketProcessingShard::getEndOffset).toList());
+        assertEquals(List.of(2, 5, 8), shards.stream().map(PacketProcessingShard::getFirstPacketNumber).toList());
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+
+        assertEquals("COMPLETED", session.getStatus());
+        assertEquals(30, session.getProcessedRecords() + session.getFailedRecords());
+        assertEquals(10, session.getPacketsProcessed());
+        assertTrue(shards.stream().allMatch(shard -> "COMPLETED".equals(shard.getStatus())
+            && shard.getCurrentOffset().equals(shard.getEndOffset()) && shard.getPacketsProcessed() == 3));
+        assertEquals(List.of(0, 3, 6, 9, 12, 15, 18, 21, 24, 27), offsets.stream().sorted().toList());
+        assertEquals(2, maxFetching.get());
+    }
+
+    @Test
+    void testSessionBacksOffOnlyWhenEveryShardIsRejected() {
+        ReflectionTestUtils.setField(packetProcessingService, "minPacketsPerShard", 1);
+        session.setShardCount(2);
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        List<PacketProcessingShard> shards = storeShards();
+        simulateSessionRowLock();
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), anyInt(), anyMap()))
+            .thenAnswer(invocation -> totalKnownPacketAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, 12));
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 1));
+        assertEquals(2, shards.size());
+
+        // Shards [3, 9) and [9, 12); the second shard's fetches are rejected
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), anyInt(), anyMap()))
+            .thenAnswer(invocation -> {
+                int offset = invocation.<PagePosition>getArgument(1).getOffset();
+                return offset >= 9 ? rejected() : totalKnownPacketAt(offset, 3, 12);
+            });
+        assertTrue(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 1));
+        assertEquals("ACTIVE", session.getStatus());
+
+        // Once the first shard is done, the rejected shard is all that is left
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 1));
+        assertEquals("BACKOFF", session.getStatus());
+        assertNotNull(session.getBackoffUntil());
+        assertEquals("COMPLETED", shards.get(0).getStatus());
+        assertEquals("ACTIVE", shards.get(1).getStatus());
+        assertEquals(9, shards.get(1).getCurrentOffset());
+        assertEquals(9, session.getProcessedRecords() + session.getFailedRecords());
+    }
+
+    @Test
+    void testSessionLeasedToAnotherInstanceIsNotProcessed() {
+        session.setLeaseOwner("other-instance");
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+
+        assertEquals("ACTIVE", session.getStatus());
+        verifyNoInteractions(restClientService);
+    }
+
+    @Test
+    void testPacketRollsBackWhenLeaseIsTakenOver() {
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> packetAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, true));
+        // Another instance claims the session while the first packet is processed
+        when(recordRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            session.setLeaseOwner("other-instance");
+            return invocation.getArgument(0);
+        });
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+
+        // Not failed: the other instance continues from the last committed packet
+        assertEquals("ACTIVE", session.getStatus());
+        assertEquals(0, session.getCurrentOffset());
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+    }
+
+    @Test
+    void testLeaseTakenOverBeforeProgressWriteIsNotOverwritten() {
+        session.setRecordParallelism(3);
+        session.setPacketSize(3);
+        when(restClientService.fetchRecordsForPacketProcessing(anyString(), any(PagePosition.class), eq(3), anyMap()))
+            .thenAnswer(invocation -> packetAt(invocation.<PagePosition>getArgument(1).getOffset(), 3, true));
+        // The turn started while this instance held the lease; another instance's claim commits
+        // just before the packet's locked reload of the session row
+        when(sessionRepository.findForUpdate(ACTIVITY_ID, APPLICATION_DATE)).thenAnswer(invocation -> {
+            session.setLeaseOwner("other-instance");
+            return Optional.of(session);
+        });
+
+        assertFalse(packetProcessingService.processPacketTurn(ACTIVITY_ID, APPLICATION_DATE, 5));
+
+        assertEquals("other-instance", session.getLeaseOwner());
+        assertEquals(0, session.getCurrentOffset());
+        verify(sessionRepository, never()).save(session);
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+    }
+
+    private List<PacketProcessingShard> storeShards() {
+        List<PacketProcessingShard> shards = Collections.synchronizedList(new ArrayList<>());
+        when(shardRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            shards.addAll(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        when(shardRepository.findByActivityIdAndApplicationDateOrderByShardIndex(ACTIVITY_ID, APPLICATION_DATE))
+            .thenAnswer(invocation -> new ArrayList<>(shards));
+        return shards;
+    }
+
+    /**
+     * Holds a lock from findForUpdate until the transaction ends, like the row lock it takes
+     */
+    private void simulateSessionRowLock() {
+        ReentrantLock rowLock = new ReentrantLock();
+        when(sessionRepository.findForUpdate(ACTIVITY_ID, APPLICATION_DATE)).thenAnswer(invocation -> {
+            rowLock.lock();
+            return Optional.of(session);
+        });
+        Answer<Void> releaseRowLock = invocation -> {
+            if (rowLock.isHeldByCurrentThread()) {
+                rowLock.unlock();
+            }
+            return null;
+        };
+        doAnswer(releaseRowLock).when(transactionManager).commit(any());
+        doAnswer(releaseRowLock).when(transactionManager).rollback(any());
+    }
+
+    private RestClientService.RestClientResponse totalKnownPacketAt(int offset, int limit, int total) {
+        int recordCount = Math.max(0, Math.min(limit, total - offset));
+        RestClientService.RestClientResponse packet = packetAt(offset, recordCount, offset + recordCount < total);
+        return RestClientService.RestClientResponse.builder()
+            .success(true)
+            .records(packet.getRecords())
+            .offset(offset)
+            .limit(limit)
+            .nextOffset(offset + recordCount)
+            .packetMetadata(RestClientService.PacketMetadata.builder()
+                .totalRecords(total)
+                .hasMoreRecords(offset + recordCount < total)
+                .build())
+            .build();
+    }
+
+    private RestClientService.RestClientResponse rejected() {
+        return RestClientService.RestClientResponse.builder()
+            .success(false)
+            .retryAfterMs(5000)
+            .errorMessage("Bulkhead full")
+            .build();
+    }
+
+    private RestClientService.RestClientResponse packetAt(int offset, int recordCount, boolean hasMore) {
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (int i = 0; i < recordCount; i++) {
+            records.add(Map.of("id", "record-" + (offset + i)));
+        }
+        return RestClientService.RestClientResponse.builder()
+            .success(true)
+            .records(records)
+            .offset(offset)
+            .nextOffset(offset + recordCount)
+            .packetMetadata(RestClientService.PacketMetadata.builder().hasMoreRecords(hasMore).build())
+            .build();
+    }
+
+    private RestClientService.RestClientResponse singlePacket() {
+        return singlePacket(RECORD_COUNT);
+    }
+
+    private RestClientService.RestClientResponse singlePacket(int recordCount) {
+        return packetAt(0, recordCount, false);
+    }
+}
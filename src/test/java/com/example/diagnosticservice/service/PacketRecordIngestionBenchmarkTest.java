@@ -0,0 +1,200 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares packet_processing_records ingestion with IDENTITY-style inserts (one INSERT ... RETURNING
+ * round trip per row), pooled-lo sequence IDs with batched inserts, and COPY as used by PostgresCopyWriter.
+ * Runs only against a live database, e.g. the docker-compose Postgres:
+ *
+ * mvn test -Dtest=PacketRecordIngestionBenchmarkTest \
+ *     -Dbenchmark.db.url=jdbc:postgresql://localhost:5432/diagnostic_service
+ */
+@EnabledIfSystemProperty(named = "benchmark.db.url", matches = ".+")
+class PacketRecordIngestionBenchmarkTest {
+
+    private static final int RECORD_COUNT = Integer.getInteger("benchmark.records", 20_000);
+    private static final int ALLOCATION_SIZE = 50;
+
+    private static final String INSERT_COLUMNS =
+            "(activity_id, application_date, record_id, packet_number, record_index, status, record_data, created_at)";
+
+    @Test
+    void benchmarkPacketRecordIngestion() throws SQLException {
+        try (Connection connection = openConnection()) {
+            createBenchmarkTables(connection);
+
+            // Warm up all paths so JIT and server-side plan caching do not skew the first run
+            insertOneByOne(connection, "bench_identity_records", 1_000);
+            insertBatchedWithPooledIds(connection, "bench_pooled_records", 1_000);
+            insertWithCopy(connection, "bench_copy_records", 1_000);
+            truncate(connection);
+
+            long identityNanos = insertOneByOne(connection, "bench_identity_records", RECORD_COUNT);
+            long pooledNanos = insertBatchedWithPooledIds(connection, "bench_pooled_records", RECORD_COUNT);
+            long copyNanos = insertWithCopy(connection, "bench_copy_records", RECORD_COUNT);
+
+            assertEquals(RECORD_COUNT, countRows(connection, "bench_identity_records"));
+            assertEquals(RECORD_COUNT, countRows(connection, "bench_pooled_records"));
+            assertEquals(RECORD_COUNT, countRows(connection, "bench_copy_records"));
+
+            System.out.printf("packet_processing_records ingestion of %d rows%n", RECORD_COUNT);
+            System.out.printf("  IDENTITY, one INSERT per row : %6d ms (%,.0f rows/s)%n",
+                    identityNanos / 1_000_000, RECORD_COUNT / (identityNanos / 1e9));
+            System.out.printf("  pooled-lo sequence, batched  : %6d ms (%,.0f rows/s)%n",
+                    pooledNanos / 1_000_000, RECORD_COUNT / (pooledNanos / 1e9));
+            System.out.printf("  COPY (CSV)                   : %6d ms (%,.0f rows/s)%n",
+                    copyNanos / 1_000_000, RECORD_COUNT / (copyNanos / 1e9));
+            System.out.printf("  speedup batched / COPY       : %.1fx / %.1fx%n",
+                    (double) identityNanos / pooledNanos, (double) identityNanos / copyNanos);
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", System.getProperty("benchmark.db.user", "diagnostic_user"));
+        properties.setProperty("password", System.getProperty("benchmark.db.password", "diagnostic_password"));
+        properties.setProperty("reWriteBatchedInserts", "true");
+        Connection connection = DriverManager.getConnection(System.getProperty("benchmark.db.url"), properties);
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private void createBenchmarkTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Temporary copies with the same columns and indexes as packet_processing_records
+            statement.execute("CREATE TEMP SEQUENCE bench_identity_seq");
+            statement.execute("CREATE TEMP SEQUENCE bench_pooled_seq INCREMENT BY " + ALLOCATION_SIZE);
+            statement.execute("CREATE TEMP TABLE bench_identity_records (LIKE packet_processing_records INCLUDING ALL)");
+            statement.execute("CREATE TEMP TABLE bench_pooled_records (LIKE packet_processing_records INCLUDING ALL)");
+            statement.execute("CREATE TEMP TABLE bench_copy_records (LIKE packet_processing_records INCLUDING ALL)");
+            statement.execute("ALTER TABLE bench_identity_records ALTER COLUMN id SET DEFAULT nextval('bench_identity_seq')");
+            statement.execute("ALTER TABLE bench_pooled_records ALTER COLUMN id SET DEFAULT nextval('bench_pooled_seq')");
+            statement.execute("ALTER TABLE bench_copy_records ALTER COLUMN id SET DEFAULT nextval('bench_identity_seq')");
+        }
+        connection.commit();
+    }
+
+    /**
+     * What Hibernate does for GenerationType.IDENTITY: each persist executes immediately to learn the ID
+     */
+    private long insertOneByOne(Connection connection, String table, int count) throws SQLException {
+        String sql = "INSERT INTO " + table + " " + INSERT_COLUMNS + " VALUES (?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
+        long start = System.nanoTime();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                bindRecord(ps, 1, i);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                }
+            }
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * What Hibernate does with pooled-lo: one nextval per block of IDs, inserts flushed as JDBC batches
+     */
+    private long insertBatchedWithPooledIds(Connection connection, String table, int count) throws SQLException {
+        String sql = "INSERT INTO " + table + " (id, " + INSERT_COLUMNS.substring(1) + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        long start = System.nanoTime();
+        try (PreparedStatement nextBlock = connection.prepareStatement("SELECT nextval('bench_pooled_seq')");
+             PreparedStatement ps = connection.prepareStatement(sql)) {
+            long nextId = 0;
+            long blockEnd = 0;
+            for (int i = 0; i < count; i++) {
+                if (nextId == blockEnd) {
+                    try (ResultSet rs = nextBlock.executeQuery()) {
+                        rs.next();
+                        nextId = rs.getLong(1);
+                        blockEnd = nextId + ALLOCATION_SIZE;
+                    }
+                }
+                ps.setLong(1, nextId++);
+                bindRecord(ps, 2, i);
+                ps.addBatch();
+                if ((i + 1) % ALLOCATION_SIZE == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        connection.commit();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * What PostgresCopyWriter does for large packets: one COPY stream for all rows
+     */
+    private long insertWithCopy(Connection connection, String table, int count) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            CopyIn copyIn = copyManager.copyIn("COPY " + table + " " + INSERT_COLUMNS + " FROM STDIN WITH (FORMAT csv)");
+            StringBuilder rows = new StringBuilder();
+            String today = LocalDate.now().toString();
+            for (int i = 0; i < count; i++) {
+                rows.append("benchmark-activity,").append(today).append(",record-").append(i).append(',')
+                    .append(i / 10).append(',').append(i % 10).append(",SUCCESS,")
+                    .append("\"{\"\"id\"\":\"\"record-").append(i).append("\"\",\"\"value\"\":").append(i).append("}\",")
+                    .append(Timestamp.from(Instant.now())).append('\n');
+                if (rows.length() > 64 * 1024) {
+                    byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+                    copyIn.writeToCopy(bytes, 0, bytes.length);
+                    rows.setLength(0);
+                }
+            }
+            byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            copyIn.endCopy();
+        } finally {
+            connection.commit();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void bindRecord(PreparedStatement ps, int firstIndex, int index) throws SQLException {
+        ps.setString(firstIndex, "benchmark-activity");
+        ps.setObject(firstIndex + 1, LocalDate.now());
+        ps.setString(firstIndex + 2, "record-" + index);
+        ps.setInt(firstIndex + 3, index / 10);
+        ps.setInt(firstIndex + 4, index % 10);
+        ps.setString(firstIndex + 5, "SUCCESS");
+        ps.setString(firstIndex + 6, "{\"id\":\"record-" + index + "\",\"value\":" + index + "}");
+        ps.setTimestamp(firstIndex + 7, Timestamp.from(Instant.now()));
+    }
+
+    private void truncate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE bench_identity_records, bench_pooled_records, bench_copy_records");
+        }
+        connection.commit();
+    }
+
+    private long countRows(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
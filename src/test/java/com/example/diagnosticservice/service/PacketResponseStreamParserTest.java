@@ -0,0 +1,73 @@
+package com.example.diagnosticservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketResponseStreamParserTest {
+
+    private final PacketResponseStreamParser parser = new PacketResponseStreamParser(new ObjectMapper());
+
+    @Test
+    void testReadsRecordArrayAndKeepsEnvelope() throws IOException {
+        String body = "{\"paging\":{\"next\":\"abc\"},\"data\":[{\"id\":1,\"tags\":[\"a\"]},{\"id\":2}],\"count\":2}";
+
+        PacketResponseStreamParser.ParsedBody parsed = parse(body);
+
+        assertEquals(List.of(Map.of("id", 1, "tags", List.of("a")), Map.of("id", 2)), parsed.getRecords());
+        assertEquals(Map.of("paging", Map.of("next", "abc"), "count", 2), parsed.getEnvelope());
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length, parsed.getBytesRead());
+    }
+
+    @Test
+    void testPrefersDataOverRecordsAndItems() throws IOException {
+        PacketResponseStreamParser.ParsedBody parsed = parse("{\"items\":[{\"id\":\"i\"}],\"records\":[{\"id\":\"r\"}]}");
+        assertEquals(List.of(Map.of("id", "r")), parsed.getRecords());
+
+        parsed = parse("{\"records\":[{\"id\":\"r\"}],\"data\":[{\"id\":\"d\"}]}");
+        assertEquals(List.of(Map.of("id", "d")), parsed.getRecords());
+    }
+
+    @Test
+    void testTopLevelArray() throws IOException {
+        PacketResponseStreamParser.ParsedBody parsed = parse("[{\"id\":1},{\"id\":2},{\"id\":3}]");
+
+        assertEquals(3, parsed.getRecords().size());
+        assertNull(parsed.getEnvelope());
+    }
+
+    @Test
+    void testBodyWithoutRecordArrayIsOneRecord() throws IOException {
+        assertEquals(List.of(Map.of("id", 7, "name", "single")), parse("{\"id\":7,\"name\":\"single\"}").getRecords());
+        // A preferred field that is not an array wraps the whole response, records included
+        assertEquals(List.of(Map.of("data", "none", "records", List.of(Map.of("id", 1)))),
+                parse("{\"data\":\"none\",\"records\":[{\"id\":1}]}").getRecords());
+    }
+
+    @Test
+    void testEmptyBody() throws IOException {
+        PacketResponseStreamParser.ParsedBody parsed = parse("");
+
+        assertTrue(parsed.getRecords().isEmpty());
+        assertNull(parsed.getEnvelope());
+    }
+
+    @Test
+    void testMalformedBodyFails() {
+        assertThrows(JsonProcessingException.class, () -> parse("{\"data\":[{\"id\":1},"));
+        assertThrows(JsonProcessingException.class, () -> parse("\"not an object\""));
+        assertThrows(JsonProcessingException.class, () -> parse("{\"data\":[1, 2]}"));
+    }
+
+    private PacketResponseStreamParser.ParsedBody parse(String body) throws IOException {
+        return parser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PacketSessionControlChannelTest {
+
+    private static final LocalDate APPLICATION_DATE = LocalDate.of(2025, 1, 15);
+
+    private JdbcTemplate jdbcTemplate;
+    private PacketSessionControlChannel controlChannel;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        controlChannel = new PacketSessionControlChannel(mock(DataSource.class), jdbcTemplate);
+        ReflectionTestUtils.setField(controlChannel, "listening", true);
+    }
+
+    @Test
+    void testPublishNotifiesChannel() {
+        controlChannel.publish("activity-1", APPLICATION_DATE, "PAUSED");
+
+        verify(jdbcTemplate).query(eq("SELECT pg_notify(?, ?)"), any(RowCallbackHandler.class),
+                eq(PacketSessionControlChannel.CHANNEL), eq("activity-1|2025-01-15|PAUSED"));
+    }
+
+    @Test
+    void testSignalStopsWatchedSession() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("activity-1", APPLICATION_DATE);
+        PacketSessionControlChannel.SessionControl other = controlChannel.watch("activity-2", APPLICATION_DATE);
+
+        controlChannel.onSignal(PacketSessionControlChannel.encode("activity-1", APPLICATION_DATE, "CANCELLED"));
+
+        assertTrue(control.isStopRequested());
+        assertFalse(other.isStopRequested());
+    }
+
+    @Test
+    void testActiveSignalDoesNotStop() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("activity-1", APPLICATION_DATE);
+
+        controlChannel.onSignal(PacketSessionControlChannel.encode("activity-1", APPLICATION_DATE, "ACTIVE"));
+
+        assertFalse(control.isStopRequested());
+    }
+
+    @Test
+    void testActivityIdMayContainSeparator() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("tenant|activity", APPLICATION_DATE);
+
+        controlChannel.onSignal(PacketSessionControlChannel.encode("tenant|activity", APPLICATION_DATE, "PAUSED"));
+
+        assertTrue(control.isStopRequested());
+    }
+
+    @Test
+    void testMalformedSignalsAreIgnored() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("activity-1", APPLICATION_DATE);
+
+        controlChannel.onSignal("PAUSED");
+        controlChannel.onSignal("activity-1|not-a-date|PAUSED");
+        controlChannel.onSignal(null);
+
+        assertFalse(control.isStopRequested());
+    }
+
+    @Test
+    void testClosedControlIsNoLongerWatched() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("activity-1", APPLICATION_DATE);
+        control.close();
+
+        controlChannel.onSignal(PacketSessionControlChannel.encode("activity-1", APPLICATION_DATE, "PAUSED"));
+
+        assertFalse(control.isStopRequested());
+        assertEquals(0, controlChannel.getWatchedCount());
+    }
+
+    @Test
+    void testRecheckWhileNotListening() {
+        PacketSessionControlChannel.SessionControl control = controlChannel.watch("activity-1", APPLICATION_DATE);
+        assertFalse(control.needsRecheck());
+
+        ReflectionTestUtils.setField(controlChannel, "listening", false);
+
+        assertTrue(control.needsRecheck());
+        assertTrue(control.needsRecheck());
+    }
+}
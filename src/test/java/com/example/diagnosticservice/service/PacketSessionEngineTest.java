@@ -0,0 +1,117 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PacketSessionEngineTest {
+
+    private static final LocalDate APPLICATION_DATE = LocalDate.of(2025, 1, 15);
+
+    private PacketProcessingService packetProcessingService;
+    private PacketSessionEngine sessionEngine;
+    private final List<String> turns = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> remainingTurns = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        packetProcessingService = mock(PacketProcessingService.class);
+        sessionEngine = new PacketSessionEngine(packetProcessingService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionEngine.shutdown();
+    }
+
+    @Test
+    void testSessionsTakeTurnsRoundRobin() throws InterruptedException {
+        ReflectionTestUtils.setField(sessionEngine, "maxConcurrentSessions", 1);
+        CountDownLatch submitted = new CountDownLatch(1);
+        CountDownLatch done = stubTurns(Map.of("a", 3, "b", 3), submitted);
+
+        sessionEngine.submit("a", APPLICATION_DATE, "http://one.example.com/records");
+        sessionEngine.submit("b", APPLICATION_DATE, "http://two.example.com/records");
+        submitted.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b", "a", "b", "a", "b"), turns);
+        verify(packetProcessingService, times(6)).processPacketTurn(anyString(), eq(APPLICATION_DATE), eq(5));
+    }
+
+    @Test
+    void testPerEndpointCapLimitsConcurrentSessions() throws InterruptedException {
+        ReflectionTestUtils.setField(sessionEngine, "maxSessionsPerEndpoint", 1);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(3);
+        when(packetProcessingService.processPacketTurn(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            concurrent.decrementAndGet();
+            done.countDown();
+            return false;
+        });
+
+        for (String activityId : List.of("a", "b", "c")) {
+            sessionEngine.submit(activityId, APPLICATION_DATE, "http://shared.example.com/records");
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxConcurrent.get());
+    }
+
+    @Test
+    void testDuplicateSubmitIsIgnoredWhileQueued() throws InterruptedException {
+        ReflectionTestUtils.setField(sessionEngine, "maxConcurrentSessions", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        when(packetProcessingService.processPacketTurn(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+            if ("a".equals(invocation.getArgument(0))) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            turns.add(invocation.getArgument(0));
+            done.countDown();
+            return false;
+        });
+
+        sessionEngine.submit("a", APPLICATION_DATE, "http://one.example.com/records");
+        assertTrue(sessionEngine.submit("b", APPLICATION_DATE, "http://two.example.com/records"));
+        assertFalse(sessionEngine.submit("b", APPLICATION_DATE, "http://two.example.com/records"));
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(List.of("a", "b"), turns);
+    }
+
+    /**
+     * Every turn waits until the gate opens, so the first turn cannot finish before all sessions are queued
+     */
+    private CountDownLatch stubTurns(Map<String, Integer> turnsPerSession, CountDownLatch gate) {
+        CountDownLatch done = new CountDownLatch(turnsPerSession.values().stream().mapToInt(Integer::intValue).sum());
+        turnsPerSession.forEach((activityId, count) -> remainingTurns.put(activityId, new AtomicInteger(count)));
+        when(packetProcessingService.processPacketTurn(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+            String activityId = invocation.getArgument(0);
+            gate.await(5, TimeUnit.SECONDS);
+            turns.add(activityId);
+            done.countDown();
+            return remainingTurns.get(activityId).decrementAndGet() > 0;
+        });
+        return done;
+    }
+}
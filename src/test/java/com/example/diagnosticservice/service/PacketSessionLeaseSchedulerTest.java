@@ -0,0 +1,101 @@
+package com.example.diagnosticservice.service;
+
+import com.example.diagnosticservice.entity.PacketProcessingSession;
+import com.example.diagnosticservice.repository.PacketProcessingSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PacketSessionLeaseSchedulerTest {
+
+    private static final LocalDate APPLICATION_DATE = LocalDate.of(2025, 1, 15);
+
+    private PacketProcessingSessionRepository sessionRepository;
+    private PacketSessionEngine sessionEngine;
+    private PacketSessionLeaseManager leaseManager;
+    private PacketSessionLeaseScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        sessionRepository = mock(PacketProcessingSessionRepository.class);
+        sessionEngine = mock(PacketSessionEngine.class);
+        leaseManager = new PacketSessionLeaseManager(sessionRepository, new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(leaseManager, "maxSessionsPerInstance", 3);
+        scheduler = new PacketSessionLeaseScheduler(leaseManager, sessionEngine);
+    }
+
+    @Test
+    void testRenewsOwnedLeasesAndRequeuesSessionsTheEngineLost() {
+        PacketProcessingSession running = session(1L, "activity-1", leaseManager.getInstanceId(), Instant.now());
+        PacketProcessingSession orphaned = session(2L, "activity-2", leaseManager.getInstanceId(), Instant.now());
+        when(sessionRepository.findByLeaseOwnerAndStatus(leaseManager.getInstanceId(), "ACTIVE")).thenReturn(List.of(running, orphaned));
+        when(sessionEngine.isScheduled("activity-1", APPLICATION_DATE)).thenReturn(true);
+        when(sessionRepository.findClaimableSessions(any(Instant.class), anyInt())).thenReturn(List.of());
+
+        scheduler.heartbeat();
+
+        verify(sessionRepository).renewLeases(eq(List.of(1L, 2L)), eq(leaseManager.getInstanceId()), any(Instant.class));
+        verify(sessionEngine).submit("activity-2", APPLICATION_DATE, "http://vendor.example.com/records");
+        verify(sessionEngine, never()).submit(eq("activity-1"), any(), any());
+        verify(sessionRepository).findClaimableSessions(any(Instant.class), eq(1));
+    }
+
+    @Test
+    void testClaimsExpiredSessionsOntoLocalEngine() {
+        PacketProcessingSession expired = session(3L, "activity-3", "crashed-instance", Instant.now().minusSeconds(60));
+        when(sessionRepository.findByLeaseOwnerAndStatus(leaseManager.getInstanceId(), "ACTIVE")).thenReturn(List.of());
+        when(sessionRepository.findClaimableSessions(any(Instant.class), eq(3))).thenReturn(List.of(expired));
+
+        scheduler.heartbeat();
+
+        assertEquals(leaseManager.getInstanceId(), expired.getLeaseOwner());
+        assertTrue(expired.getLeaseExpiresAt().isAfter(Instant.now()));
+        verify(sessionRepository).saveAll(List.of(expired));
+        verify(sessionEngine).submit("activity-3", APPLICATION_DATE, "http://vendor.example.com/records");
+    }
+
+    @Test
+    void testNoClaimsAtCapacity() {
+        List<PacketProcessingSession> owned = List.of(
+            session(1L, "activity-1", leaseManager.getInstanceId(), Instant.now()),
+            session(2L, "activity-2", leaseManager.getInstanceId(), Instant.now()),
+            session(3L, "activity-3", leaseManager.getInstanceId(), Instant.now()));
+        when(sessionRepository.findByLeaseOwnerAndStatus(leaseManager.getInstanceId(), "ACTIVE")).thenReturn(owned);
+        when(sessionEngine.isScheduled(anyString(), any())).thenReturn(true);
+
+        scheduler.heartbeat();
+
+        verify(sessionRepository, never()).findClaimableSessions(any(), anyInt());
+    }
+
+    @Test
+    void testDisabledLeasingDoesNothing() {
+        ReflectionTestUtils.setField(leaseManager, "enabled", false);
+
+        scheduler.heartbeat();
+
+        verifyNoInteractions(sessionRepository, sessionEngine);
+    }
+
+    private PacketProcessingSession session(Long id, String activityId, String leaseOwner, Instant leaseExpiresAt) {
+        return PacketProcessingSession.builder()
+            .id(id)
+            .activityId(activityId)
+            .applicationDate(APPLICATION_DATE)
+            .endpointUrl("http://vendor.example.com/records")
+            .status("ACTIVE")
+            .leaseOwner(leaseOwner)
+            .leaseExpiresAt(leaseExpiresAt)
+            .build();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketSizeTunerTest {
+
+    @Test
+    void testGrowsTowardsLatencyTargetUsingServerTime() {
+        PacketSizeTuner tuner = new PacketSizeTuner(10, 10, 1000, 1000, 0);
+
+        // 50ms request overhead plus 5ms of server time per record: 190 records fit in 1000ms
+        for (int i = 0; i < 20; i++) {
+            int size = tuner.nextSize();
+            tuner.onResponse(response(size, 50 + 5L * size, 5L * size, 0));
+        }
+
+        assertEquals(190, tuner.nextSize());
+    }
+
+    @Test
+    void testGrowthIsLimitedPerPacket() {
+        PacketSizeTuner tuner = new PacketSizeTuner(10, 10, 1000, 1000, 0);
+
+        tuner.onResponse(response(10, 20, 0, 0));
+
+        assertEquals(20, tuner.nextSize());
+    }
+
+    @Test
+    void testShrinksWhenUpstreamIsSlow() {
+        PacketSizeTuner tuner = new PacketSizeTuner(500, 10, 1000, 2000, 0);
+
+        // 10ms per record without a server time header
+        tuner.onResponse(response(500, 5000, 0, 0));
+        assertEquals(250, tuner.nextSize());
+
+        tuner.onResponse(response(250, 2500, 0, 0));
+        assertEquals(200, tuner.nextSize());
+    }
+
+    @Test
+    void testResponseBytesLimitSize() {
+        PacketSizeTuner tuner = new PacketSizeTuner(40, 10, 1000, 10_000, 50_000);
+
+        tuner.onResponse(response(40, 40, 0, 40_000));
+
+        // 1000 bytes per record
+        assertEquals(50, tuner.nextSize());
+    }
+
+    @Test
+    void testStaysWithinBounds() {
+        PacketSizeTuner tuner = new PacketSizeTuner(5, 10, 100, 1000, 0);
+        assertEquals(10, tuner.nextSize());
+
+        for (int i = 0; i < 10; i++) {
+            tuner.onResponse(response(tuner.nextSize(), 1, 0, 0));
+        }
+        assertEquals(100, tuner.nextSize());
+
+        for (int i = 0; i < 10; i++) {
+            tuner.onResponse(response(tuner.nextSize(), 60_000, 0, 0));
+        }
+        assertEquals(10, tuner.nextSize());
+    }
+
+    @Test
+    void testIgnoresFailedAndEmptyResponses() {
+        PacketSizeTuner tuner = new PacketSizeTuner(50, 10, 1000, 1000, 0);
+
+        tuner.onResponse(RestClientService.RestClientResponse.builder().success(false).responseTimeMs(10).build());
+        tuner.onResponse(response(0, 10, 0, 0));
+
+        assertEquals(50, tuner.nextSize());
+    }
+
+    private RestClientService.RestClientResponse response(int recordCount, long responseTimeMs, long serverMs, long bytes) {
+        return RestClientService.RestClientResponse.builder()
+            .success(true)
+            .records(Collections.nCopies(recordCount, Map.<String, Object>of("id", "record")))
+            .responseTimeMs(responseTimeMs)
+            .responseBytes(bytes)
+            .limit(recordCount)
+            .packetMetadata(RestClientService.PacketMetadata.builder().serverProcessingTime(serverMs).build())
+            .build();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadStoreTest {
+
+    private PayloadStore payloadStore;
+
+    @BeforeEach
+    void setUp() {
+        payloadStore = new PayloadStore(null);
+    }
+
+    @Test
+    void testSameContentHasSameHash() {
+        String payload = "{\"id\":\"message-1\",\"eventType\":\"USER_CREATED\"}";
+
+        PayloadStore.StoredPayload first = payloadStore.prepare(payload);
+        PayloadStore.StoredPayload second = payloadStore.prepare(new String(payload));
+
+        assertEquals(64, first.getHash().length());
+        assertEquals(first.getHash(), second.getHash());
+        assertNotEquals(first.getHash(), payloadStore.prepare(payload + " ").getHash());
+    }
+
+    @Test
+    void testRecentlyWrittenPayloadIsNotWrittenAgain() {
+        String payload = "repeated payload";
+
+        assertTrue(payloadStore.prepare(payload).needsWrite());
+        assertFalse(payloadStore.prepare(payload).needsWrite());
+    }
+
+    @Test
+    void testForgottenPayloadIsWrittenAgain() {
+        PayloadStore.StoredPayload stored = payloadStore.prepare("payload whose insert failed");
+
+        payloadStore.forget(List.of(stored.getHash()));
+
+        assertTrue(payloadStore.prepare("payload whose insert failed").needsWrite());
+    }
+
+    @Test
+    void testLargePayloadIsCompressedAndRoundTrips() {
+        String payload = "{\"data\":\"" + "abcdefghij".repeat(200) + "\"}";
+
+        PayloadStore.StoredPayload stored = payloadStore.prepare(payload);
+
+        assertEquals(PayloadStore.COMPRESSION_GZIP, stored.getCompression());
+        assertTrue(stored.getData().length < payload.length());
+        assertEquals(payload.length(), stored.getOriginalSize());
+        assertEquals(payload, PayloadStore.decode(stored.getCompression(), stored.getData()));
+    }
+
+    @Test
+    void testSmallPayloadIsStoredUncompressed() {
+        PayloadStore.StoredPayload stored = payloadStore.prepare("tiny");
+
+        assertEquals(PayloadStore.COMPRESSION_NONE, stored.getCompression());
+        assertEquals("tiny", PayloadStore.decode(stored.getCompression(), stored.getData()));
+    }
+
+    @Test
+    void testNullPayload() {
+        assertNull(payloadStore.prepare(null));
+    }
+}
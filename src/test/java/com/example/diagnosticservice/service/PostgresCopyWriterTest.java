@@ -0,0 +1,50 @@
+package com.example.diagnosticservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostgresCopyWriterTest {
+
+    @Test
+    void testCsvRowQuotesStringsAndLeavesNullsEmpty() throws IOException {
+        StringWriter out = new StringWriter();
+        PostgresCopyWriter.CsvRowWriter csv = new PostgresCopyWriter.CsvRowWriter(out);
+
+        csv.value("plain").value((String) null).value("").value(42).value((Long) null);
+        csv.endRow();
+
+        assertEquals("\"plain\",,\"\",42,\n", out.toString());
+    }
+
+    @Test
+    void testCsvRowEscapesQuotesAndKeepsSeparatorsInsideValues() throws IOException {
+        StringWriter out = new StringWriter();
+        PostgresCopyWriter.CsvRowWriter csv = new PostgresCopyWriter.CsvRowWriter(out);
+
+        csv.value("{\"id\":\"a,b\"}").value("line1\nline2");
+        csv.endRow();
+
+        assertEquals("\"{\"\"id\"\":\"\"a,b\"\"}\",\"line1\nline2\"\n", out.toString());
+    }
+
+    @Test
+    void testCsvRowFormatsDatesAndTimestamps() throws IOException {
+        StringWriter out = new StringWriter();
+        PostgresCopyWriter.CsvRowWriter csv = new PostgresCopyWriter.CsvRowWriter(out);
+        Instant instant = Instant.parse("2025-01-15T10:30:00Z");
+
+        csv.value(LocalDate.of(2025, 1, 15)).value(instant);
+        csv.endRow();
+        csv.value(1);
+        csv.endRow();
+
+        assertEquals("\"2025-01-15\",\"" + Timestamp.from(instant) + "\"\n1\n", out.toString());
+    }
+}
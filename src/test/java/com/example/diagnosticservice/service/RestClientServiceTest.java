@@ -0,0 +1,84 @@
+package com.example.diagnosticservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class RestClientServiceTest {
+
+    private static final String ENDPOINT = "http://vendor.example.com/records";
+    private static final String BODY =
+        "{\"data\":[{\"id\":\"record-0\"},{\"id\":\"record-1\"}],\"paging\":{\"next\":\"page-2\"}}";
+
+    private MockRestServiceServer server;
+    private RestClientService restClientService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        EndpointResilienceRegistry endpointResilience = mock(EndpointResilienceRegistry.class);
+        when(endpointResilience.execute(anyString(), any(Supplier.class)))
+            .thenAnswer(invocation -> invocation.<Supplier<Object>>getArgument(1).get());
+        restClientService = new RestClientService(restTemplate, new ObjectMapper(), endpointResilience);
+        ReflectionTestUtils.setField(restClientService, "cursorField", "paging.next");
+    }
+
+    @Test
+    void testStreamingParseMatchesBufferedParse() {
+        RestClientService.RestClientResponse streamed = fetch(true);
+        RestClientService.RestClientResponse buffered = fetch(false);
+
+        for (RestClientService.RestClientResponse response : List.of(streamed, buffered)) {
+            assertTrue(response.isSuccess());
+            assertEquals(List.of(Map.of("id", "record-0"), Map.of("id", "record-1")), response.getRecords());
+            assertEquals("page-2", response.getNextCursor());
+            assertEquals(12, response.getNextOffset());
+            assertEquals(20, response.getPacketMetadata().getTotalRecords());
+            assertEquals(200, response.getHttpStatusCode());
+        }
+        assertEquals(BODY.length(), streamed.getResponseBytes());
+    }
+
+    @Test
+    void testMalformedStreamedBodyIsProcessingError() {
+        server.expect(requestTo(ENDPOINT + "?offset=10&limit=2"))
+            .andRespond(withSuccess("{\"data\":[{\"id\":", MediaType.APPLICATION_JSON));
+
+        RestClientService.RestClientResponse response =
+            restClientService.fetchRecordsForPacketProcessing(ENDPOINT, PagePosition.ofOffset(10), 2, Map.of());
+
+        assertFalse(response.isSuccess());
+        assertEquals("RESPONSE_PROCESSING_ERROR", response.getErrorCategory());
+        assertEquals(200, response.getHttpStatusCode());
+    }
+
+    private RestClientService.RestClientResponse fetch(boolean streaming) {
+        ReflectionTestUtils.setField(restClientService, "streamingParse", streaming);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Total-Records", "20");
+        server.reset();
+        server.expect(requestTo(ENDPOINT + "?offset=10&limit=2"))
+            .andRespond(withSuccess(BODY, MediaType.APPLICATION_JSON).headers(headers));
+        RestClientService.RestClientResponse response =
+            restClientService.fetchRecordsForPacketProcessing(ENDPOINT, PagePosition.ofOffset(10), 2, Map.of());
+        server.verify();
+        return response;
+    }
+}